@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.build.data;
+
+import org.brunel.action.Action;
+import org.brunel.action.ActionUtil;
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.Fields;
+import org.brunel.model.VisElement;
+import org.brunel.model.VisItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out the aggregation a visualization needs, so that a data source that holds far more data than we want
+ * to bring into memory (such as a Spark DataFrame) can aggregate the data itself and give Brunel only one row
+ * for each group. Building the visualization with that reduced data gives the same result as building it with all
+ * the data (apart from rounding in the last digits, as values may be added up in a different order).
+ *
+ * This is only possible when every element summarizes the data in the same way, using dimensions that are
+ * fields of the data and measures whose values are unchanged when summarized again (sums, means, minimums,
+ * maximums, percentages and counts). Binning, ranking and the other transforms depend on the distribution of
+ * the whole field, and filtering or animation need the original rows, so these visualizations have no plan.
+ */
+public class AggregationPlan {
+
+    /**
+     * Make a plan for applying the Brunel to a data set
+     *
+     * @param brunelSrc the brunel syntax
+     * @param data      the data set, or a sample of it with the same fields; only the field names and types are used
+     * @return the plan, or null if the visualization needs more than aggregated data
+     */
+    public static AggregationPlan make(String brunelSrc, Dataset data) {
+        Action action = Action.parse(brunelSrc);
+        if (ActionUtil.dataParameters(action).length > 0) return null;     // Uses other data sets
+
+        List<VisElement> elements = new ArrayList<>();
+        addElements(action.apply(data).makeCanonical(), elements);
+
+        AggregationPlan plan = null;
+        for (VisElement vis : elements) {
+            if (!vis.fTransform.isEmpty() || !vis.fFilter.isEmpty() || !vis.fAnimate.isEmpty()) return null;
+            String summary = new TransformParameterBuilder(vis).makeSummaryCommands();
+            if (summary.isEmpty()) return null;                             // Needs every row
+
+            AggregationPlan p = make(summary, requiredFields(vis), vis.getDataset());
+            if (p == null || plan != null && !plan.equals(p)) return null;
+            plan = p;
+        }
+        return plan;
+    }
+
+    /**
+     * Find the fields that must be valid for a row to be used by any element of the visualization. This is the
+     * filtering done before any other transform, so a data source that has to give Brunel every row can still
+     * remove the rows with nulls in these fields first, without changing the visualization
+     *
+     * @param brunelSrc the brunel syntax
+     * @param data      the data set, or a sample of it with the same fields; only the field names and types are used
+     * @return names of the fields, which may be empty
+     */
+    public static String[] requiredFields(String brunelSrc, Dataset data) {
+        Action action = Action.parse(brunelSrc);
+        if (ActionUtil.dataParameters(action).length > 0) return new String[0];     // Uses other data sets
+
+        List<VisElement> elements = new ArrayList<>();
+        addElements(action.apply(data).makeCanonical(), elements);
+
+        // A row can only be removed if no element uses it
+        Set<String> common = null;
+        for (VisElement vis : elements) {
+            Set<String> required = vis.fTransform.isEmpty() && !Arrays.asList(vis.usedFields(true)).contains("#row")
+                    ? requiredFields(vis) : new LinkedHashSet<String>();      // Ranks and row numbers use every row
+            if (common == null) common = required;
+            else common.retainAll(required);
+        }
+        return common == null ? new String[0] : common.toArray(new String[common.size()]);
+    }
+
+    // All position fields must be valid for coordinate charts, so rows without them are not used
+    private static Set<String> requiredFields(VisElement vis) {
+        Set<String> required = new LinkedHashSet<>();
+        if (vis.tDiagram == null)
+            for (String s : vis.positionFields()) {
+                Field f = vis.getDataset().field(s);
+                if (f != null && !f.isSynthetic()) required.add(s);
+            }
+        return required;
+    }
+
+    private static void addElements(VisItem item, List<VisElement> elements) {
+        if (item.children() == null) elements.add(item.getSingle());
+        else for (VisItem child : item.children()) addElements(child, elements);
+    }
+
+    // Make a plan from the summary command, as used by Summarize
+    private static AggregationPlan make(String summary, Set<String> required, Dataset data) {
+        List<String> dimensions = new ArrayList<>();
+        List<String> measures = new ArrayList<>();
+        List<String> methods = new ArrayList<>();
+        for (String op : summary.split("; *")) {
+            String[] parts = op.split("=", 2);
+            String[] values = parts[1].split(":");
+            String name = values[0].trim();
+            if (!name.equals(parts[0].trim())) return null;
+            if (name.equals("#selection")) continue;                         // The selection is the same everywhere
+            if (name.equals("#count")) {
+                if (values.length != 2 || !values[1].trim().equals("sum")) return null;
+                continue;                                                   // The count of each group is always made
+            }
+
+            Field field = data.field(name);
+            if (field == null || field.isSynthetic()) return null;
+            if (values.length == 1 || values[1].trim().equals("base")) {
+                dimensions.add(name);
+                continue;
+            }
+
+            String method = values[1].trim();
+            if (method.equals("percent")) {
+                // A percentage of the sums is the same as the percentage of the original values
+                if (values.length > 2 && !values[2].trim().equals("overall")) return null;
+                method = "sum";
+            } else if (values.length > 2) {
+                return null;
+            }
+            boolean orderOnly = method.equals("min") || method.equals("max");
+            boolean arithmetic = method.equals("sum") || method.equals("mean");
+            if (!field.isNumeric() || !orderOnly && !(arithmetic && !field.isDate())) return null;
+            measures.add(name);
+            methods.add(method);
+        }
+        return new AggregationPlan(required.toArray(new String[required.size()]), toArray(dimensions),
+                toArray(measures), toArray(methods));
+    }
+
+    private static String[] toArray(List<String> list) {
+        return list.toArray(new String[list.size()]);
+    }
+
+    private final String[] required;
+    private final String[] dimensions;
+    private final String[] measures;
+    private final String[] methods;
+
+    private AggregationPlan(String[] required, String[] dimensions, String[] measures, String[] methods) {
+        this.required = required;
+        this.dimensions = dimensions;
+        this.measures = measures;
+        this.methods = methods;
+    }
+
+    /**
+     * @return names of the fields which must not be null; rows where they are null should be removed first
+     */
+    public String[] requiredFields() {
+        return required;
+    }
+
+    /**
+     * @return names of the fields to group the rows by
+     */
+    public String[] dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return names of the fields to aggregate within each group
+     */
+    public String[] measures() {
+        return measures;
+    }
+
+    /**
+     * @return the aggregation for each measure: one of "sum", "mean", "min" or "max". Nulls are ignored, as usual
+     */
+    public String[] methods() {
+        return methods;
+    }
+
+    /**
+     * Make the data set to build the visualization with from the aggregated groups
+     *
+     * @param fields the dimension and measure fields, with their original names, and one row for each group
+     * @param counts the number of original rows in each group
+     * @return data set with the fields and the counts
+     */
+    public Dataset makeDataset(Field[] fields, Object[] counts) {
+        Field count = Fields.makeColumnField("#count", "Count", counts);
+        count.setNumeric();
+        Field[] all = Arrays.copyOf(fields, fields.length + 1);
+        all[fields.length] = count;
+        return Dataset.make(all, false);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof AggregationPlan)) return false;
+        AggregationPlan p = (AggregationPlan) o;
+        return Arrays.equals(required, p.required) && Arrays.equals(dimensions, p.dimensions)
+                && Arrays.equals(measures, p.measures) && Arrays.equals(methods, p.methods);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(dimensions) + 31 * Arrays.hashCode(measures);
+    }
+
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < measures.length; i++) parts.add(methods[i] + "(" + measures[i] + ")");
+        return "group by " + Data.join(dimensions) + " measure " + Data.join(parts)
+                + (required.length == 0 ? "" : " where valid " + Data.join(required));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.build.data;
+
+import org.brunel.data.Dataset;
+import org.brunel.data.modify.Sort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The steps needed to apply a set of transform parameters to a dataset, in order.
+ * Steps whose commands would leave the data unchanged are not part of the plan, and steps that can be
+ * carried out together (a sort followed by a sort of the rows) are combined into a single step.
+ * Executing the plan gives exactly the same result as applying each transform in turn.
+ */
+class TransformPlan {
+
+	/**
+	 * Compile the parameters into a plan
+	 *
+	 * @param params the transforms to apply
+	 * @return plan to execute
+	 */
+	static TransformPlan make(TransformParameters params) {
+		TransformPlan plan = new TransformPlan();
+		plan.add(Step.CONSTANTS, params.constantsCommand);                // add constant fields
+		plan.add(Step.EACH, params.eachCommand);                          // divide up fields into parts
+		plan.add(Step.FILTER, params.filterCommand);                      // filter data
+		plan.add(Step.TRANSFORM, params.transformCommand);                // bin, rank, ... on data
+		plan.add(Step.SUMMARIZE, params.summaryCommand);                  // summarize data
+		plan.add(Step.SERIES, params.seriesCommand);                      // convert series
+		plan.add(Step.ROW_COUNT, params.rowCountCommand);                 // set the number of rows
+		plan.add(Step.SORT, params.sortCommand);                          // sort data
+		plan.add(Step.SORT_ROWS, params.sortRowsCommand);                 // sort rows only
+		plan.add(Step.STACK, params.stackCommand);                        // stack data
+		return plan;
+	}
+
+	private final List<Step> steps = new ArrayList<>();
+	private final List<String[]> commands = new ArrayList<>();
+
+	private TransformPlan() {
+	}
+
+	private void add(Step step, String command) {
+		if (command.isEmpty()) return;                                  // The transform would return its input unchanged
+
+		int last = steps.size() - 1;
+		if (step == Step.SORT_ROWS && last >= 0 && steps.get(last) == Step.SORT) {
+			// Sorting, then sorting the rows, can be done with a single reordering of the fields
+			steps.set(last, Step.SORT_THEN_SORT_ROWS);
+			commands.set(last, new String[]{commands.get(last)[0], command});
+		} else {
+			steps.add(step);
+			commands.add(new String[]{command});
+		}
+	}
+
+	/**
+	 * Apply the plan to the data
+	 *
+	 * @param data the data to transform
+	 * @return transformed data
+	 */
+	Dataset execute(Dataset data) {
+		for (int i = 0; i < steps.size(); i++)
+			data = steps.get(i).apply(data, commands.get(i));
+		return data;
+	}
+
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < steps.size(); i++) {
+			if (i > 0) b.append(" -> ");
+			b.append(steps.get(i).name().toLowerCase()).append(Arrays.toString(commands.get(i)));
+		}
+		return b.toString();
+	}
+
+	private enum Step {
+		CONSTANTS {
+			Dataset apply(Dataset data, String[] command) {
+				return data.addConstants(command[0]);
+			}
+		},
+		EACH {
+			Dataset apply(Dataset data, String[] command) {
+				return data.each(command[0]);
+			}
+		},
+		FILTER {
+			Dataset apply(Dataset data, String[] command) {
+				return data.filter(command[0]);
+			}
+		},
+		TRANSFORM {
+			Dataset apply(Dataset data, String[] command) {
+				return data.transform(command[0]);
+			}
+		},
+		SUMMARIZE {
+			Dataset apply(Dataset data, String[] command) {
+				return data.summarize(command[0]);
+			}
+		},
+		SERIES {
+			Dataset apply(Dataset data, String[] command) {
+				return data.series(command[0]);
+			}
+		},
+		ROW_COUNT {
+			Dataset apply(Dataset data, String[] command) {
+				return data.setRowCount(command[0]);
+			}
+		},
+		SORT {
+			Dataset apply(Dataset data, String[] command) {
+				return data.sort(command[0]);
+			}
+		},
+		SORT_ROWS {
+			Dataset apply(Dataset data, String[] command) {
+				return data.sortRows(command[0]);
+			}
+		},
+		SORT_THEN_SORT_ROWS {
+			Dataset apply(Dataset data, String[] command) {
+				return Sort.transformThenSortRows(data, command[0], command[1]);
+			}
+		},
+		STACK {
+			Dataset apply(Dataset data, String[] command) {
+				return data.stack(command[0]);
+			}
+		};
+
+		abstract Dataset apply(Dataset data, String[] command);
+	}
+}
@@ -38,7 +38,9 @@ public class TransformedData extends Dataset {
     applyUserTransforms(source, vis.fX);
     applyUserTransforms(source, vis.fY);
 
-    return new TransformedData(source, params, transform(source, params));
+    // Only the fields the element uses (and the special '#' fields) need to go through the transforms
+    Dataset used = source.reduce(params.usedCommand);
+    return new TransformedData(source, params, transform(used, params));
   }
 
   private static void applyUserTransforms(Dataset source, List<Param> axes) {
@@ -56,17 +58,8 @@ public class TransformedData extends Dataset {
   }
 
   public static Dataset transform(Dataset data, TransformParameters params) {
-    return data
-      .addConstants(params.constantsCommand)                              // add constant fields
-      .each(params.eachCommand)                                           // divide up fields into parts
-      .filter(params.filterCommand)                                       // filter data
-      .transform(params.transformCommand)                                 // bin, rank, ... on data
-      .summarize(params.summaryCommand)                                   // summarize data
-      .series(params.seriesCommand)                                       // convert series
-      .setRowCount(params.rowCountCommand)                                // set the number of rows
-      .sort(params.sortCommand)                                           // sort data
-      .sortRows(params.sortRowsCommand)                                   // sort rows only
-      .stack(params.stackCommand);                                        // stack data
+    // add constants, each, filter, transform (bin, rank, ...), summarize, series, set row count, sort, sort rows, stack
+    return TransformPlan.make(params).execute(data);
   }
 
   private final Dataset source;                            // Original dataset the transform was applied to
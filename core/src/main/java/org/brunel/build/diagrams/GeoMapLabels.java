@@ -46,18 +46,13 @@ public class GeoMapLabels extends D3Diagram {
 	}
 
 	public void preBuildDefinitions(ScriptWriter out) {
-		List<LabelPoint> all = structure.chart.geo.getLabelsForFiles();
-
 		int maxPoints = 40;
 		if (vis.tDiagramParameters[0].modifiers().length > 0) {
 			maxPoints = (int) vis.tDiagramParameters[0].modifiers()[0].asDouble();
 		}
 
-		List<LabelPoint> pointsMax = subset(all, maxPoints);
-
 		// Get the exact right number we want
-		List<LabelPoint> points = pointsMax.size() <= maxPoints
-				? pointsMax : pointsMax.subList(0, maxPoints);
+		List<LabelPoint> points = structure.chart.geo.getLabelsForFiles(maxPoints);
 
 		int popHigh = 0, popLow = 100;
 		for (LabelPoint p : points) {
@@ -126,8 +121,4 @@ public class GeoMapLabels extends D3Diagram {
 		// The "boost" is for starts, which are otherwise too small, relatively speaking
 		return (int) (Math.round((p.pop - low) * 4.0 / (high - low) + 4)) + (needsBoost ? 2 : 0);
 	}
-
-	private List<LabelPoint> subset(List<LabelPoint> all, int maxPoints) {
-		return maxPoints < all.size() ? all.subList(0, maxPoints) : all;
-	}
 }
@@ -16,16 +16,21 @@
 
 package org.brunel.geom;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.Stack;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Utility class for handling geometry
  */
 public class Geom {
 
+    static int parallelThreshold = 1000000;                     // Build hulls of at least this many points in parallel
+
     /**
      * Create the convex hull of a set of points
      *
@@ -33,44 +38,185 @@ public class Geom {
      * @return a Polygon for the hull. This may be a degenerate polygon (with as few as zero points) but will not be null
      */
     public static Poly makeConvexHull(Collection<Point> pts) {
-        // Get points, sorted by Y and then X
-        Point[] points = pts.toArray(new Point[pts.size()]);
-        Arrays.sort(points);
-
-        // Stack to manipulate points with
-        Stack<Point> stack = new Stack<>();
-        if (points.length == 0) {
-            return new Poly();
+        double[] x = new double[pts.size()];
+        double[] y = new double[pts.size()];
+        int i = 0;
+        for (Point p : pts) {
+            x[i] = p.x;
+            y[i++] = p.y;
+        }
+        return makeConvexHull(x, y);
+    }
+
+    /**
+     * Create the convex hull of a set of points given as coordinate arrays.
+     * Points that cannot be on the hull are discarded cheaply first (Akl-Toussaint), and the remainder
+     * are joined into the hull with Andrew's monotone chain. Very large sets are split into parts whose
+     * hulls are found in the common fork-join pool, and the hull of those hulls is returned.
+     *
+     * @param x x coordinates of the points
+     * @param y y coordinates of the points, same length as the x coordinates
+     * @return a Polygon for the hull, counter-clockwise starting with the lowest point (leftmost if tied).
+     * This may be a degenerate polygon (with as few as zero points) but will not be null
+     */
+    public static Poly makeConvexHull(final double[] x, final double[] y) {
+        int n = x.length;
+        int[] hull;
+        if (n < parallelThreshold) {
+            hull = hull(x, y, 0, n);
+        } else {
+            int parts = Math.max(2, ForkJoinPool.commonPool().getParallelism());
+            int chunk = (n + parts - 1) / parts;
+            final List<RecursiveTask<int[]>> tasks = new ArrayList<>();
+            for (int t = 0; t < parts; t++) {
+                final int start = Math.min(n, t * chunk);
+                final int end = Math.min(n, start + chunk);
+                tasks.add(new RecursiveTask<int[]>() {
+                    protected int[] compute() {
+                        return hull(x, y, start, end);
+                    }
+                });
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+
+            // The hull of the parts' hulls is the hull of everything
+            int total = 0;
+            for (RecursiveTask<int[]> task : tasks) total += task.join().length;
+            int[] combined = new int[total];
+            total = 0;
+            for (RecursiveTask<int[]> task : tasks) {
+                int[] part = task.join();
+                System.arraycopy(part, 0, combined, total, part.length);
+                total += part.length;
+            }
+            hull = chain(x, y, combined, total);
+        }
+
+        Point[] points = new Point[hull.length];
+        for (int i = 0; i < hull.length; i++) points[i] = new Point(x[hull[i]], y[hull[i]]);
+        return new Poly(points);
+    }
+
+    /*
+     * The hull of the points in the range [start, end), as indices in counter-clockwise order.
+     * The Akl-Toussaint heuristic is used first: the points extreme in the axis and diagonal directions
+     * form a polygon, and anything strictly inside it cannot be on the hull.
+     */
+    private static int[] hull(double[] x, double[] y, int start, int end) {
+        if (start >= end) return new int[0];
+
+        // Extremes, in counter-clockwise order: bottom, bottom right, right, top right, top, top left, left, bottom left
+        int[] e = new int[8];
+        Arrays.fill(e, start);
+        for (int j = start + 1; j < end; j++) {
+            double a = x[j], b = y[j];
+            if (b < y[e[0]]) e[0] = j;
+            if (a - b > x[e[1]] - y[e[1]]) e[1] = j;
+            if (a > x[e[2]]) e[2] = j;
+            if (a + b > x[e[3]] + y[e[3]]) e[3] = j;
+            if (b > y[e[4]]) e[4] = j;
+            if (a - b < x[e[5]] - y[e[5]]) e[5] = j;
+            if (a < x[e[6]]) e[6] = j;
+            if (a + b < x[e[7]] + y[e[7]]) e[7] = j;
+        }
+
+        // A box that lies inside the polygon lets most interior points be rejected with four comparisons
+        double minX = Math.max(x[e[5]], Math.max(x[e[6]], x[e[7]]));
+        double maxX = Math.min(x[e[1]], Math.min(x[e[2]], x[e[3]]));
+        double minY = Math.max(y[e[7]], Math.max(y[e[0]], y[e[1]]));
+        double maxY = Math.min(y[e[3]], Math.min(y[e[4]], y[e[5]]));
+
+        // Drop repeated corners so every edge has a direction
+        int corners = 0;
+        for (int i = 0; i < 8; i++) {
+            int c = e[i];
+            if (corners == 0 || x[c] != x[e[corners - 1]] || y[c] != y[e[corners - 1]]) e[corners++] = c;
+        }
+        while (corners > 1 && x[e[0]] == x[e[corners - 1]] && y[e[0]] == y[e[corners - 1]]) corners--;
+
+        boolean useBox = corners >= 3 && minX < maxX && minY < maxY;
+        for (int c = 0; c < corners && useBox; c++) {
+            int a = e[c], b = e[(c + 1) % corners];
+            useBox = cross(x[a], y[a], x[b], y[b], minX, minY) >= 0 && cross(x[a], y[a], x[b], y[b], maxX, minY) >= 0
+                    && cross(x[a], y[a], x[b], y[b], maxX, maxY) >= 0 && cross(x[a], y[a], x[b], y[b], minX, maxY) >= 0;
+        }
+
+        int[] kept = new int[Math.min(end - start, 64)];
+        int n = 0;
+        for (int j = start; j < end; j++) {
+            double a = x[j], b = y[j];
+            if (useBox && a > minX && a < maxX && b > minY && b < maxY) continue;
+            boolean inside = corners >= 3;
+            for (int c = 0; c < corners && inside; c++) {
+                int p = e[c], q = e[c + 1 == corners ? 0 : c + 1];
+                inside = cross(x[p], y[p], x[q], y[q], a, b) > 0;
+            }
+            if (inside) continue;
+            if (n == kept.length) kept = Arrays.copyOf(kept, 2 * n);
+            kept[n++] = j;
+        }
+        return chain(x, y, kept, n);
+    }
+
+    /*
+     * Andrew's monotone chain over the first n indexed points, returning the hull as indices in counter-clockwise order.
+     * The index array is reordered and overwritten
+     */
+    private static int[] chain(double[] x, double[] y, int[] idx, int n) {
+        // Sort by y and then x, dropping duplicates
+        mergeSort(x, y, idx, new int[n], 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++)
+            if (m == 0 || x[idx[i]] != x[idx[m - 1]] || y[idx[i]] != y[idx[m - 1]]) idx[m++] = idx[i];
+        if (m < 3) return Arrays.copyOf(idx, m);
+
+        // Build the chain going up the right side and then back down the left, keeping only left turns
+        int[] hull = new int[2 * m];
+        int k = 0;
+        for (int i = 0; i < m; i++) {
+            while (k >= 2 && cross(x, y, hull[k - 2], hull[k - 1], idx[i]) <= 0) k--;
+            hull[k++] = idx[i];
+        }
+        for (int i = m - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(x, y, hull[k - 2], hull[k - 1], idx[i]) <= 0) k--;
+            hull[k++] = idx[i];
         }
+        return Arrays.copyOf(hull, k - 1);             // The start point is repeated at the end
+    }
+
+    /*
+     * Twice the signed area of the triangle of the indexed points; positive for a counter-clockwise turn
+     */
+    private static double cross(double[] x, double[] y, int a, int b, int c) {
+        return cross(x[a], y[a], x[b], y[b], x[c], y[c]);
+    }
+
+    private static double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
 
-        // Sort so bottom left is the first
-        Point p0 = points[0];
-        stack.push(p0);
-        int N = points.length;
-
-        // Sort by polar angle relative to p0
-        Arrays.sort(points, 1, N, new PolarComparator(p0));
-
-        // find next different point - p1
-        int i = 1;
-        while (i < N && p0.equals(points[i])) i++;
-        if (i == N) return new Poly(p0);
-        Point p1 = points[i];
-
-        // find next point not collinear with p0,p1
-        i++;
-        while (i < N && Point.ccw(p0, p1, points[i]) == 0) i++;
-        stack.push(points[i - 1]);        // This is the second point on the points
-
-        // The main Graham Scan loop -- keep trying to add a new point to the end
-        while (i < N) {
-            Point top = stack.pop();
-            while (Point.ccw(stack.peek(), top, points[i]) <= 0) top = stack.pop();
-            stack.push(top);
-            stack.push(points[i]);
-            i++;
+    /*
+     * Sorts indices in the range [start, end) by y and then x, using the work array as scratch space
+     */
+    private static void mergeSort(double[] x, double[] y, int[] idx, int[] work, int start, int end) {
+        if (end - start < 2) return;
+        int mid = (start + end) >>> 1;
+        mergeSort(x, y, idx, work, start, mid);
+        mergeSort(x, y, idx, work, mid, end);
+        System.arraycopy(idx, start, work, start, end - start);
+        int a = start, b = mid;
+        for (int i = start; i < end; i++) {
+            if (b == end || a < mid && !before(x, y, work[b], work[a])) idx[i] = work[a++];
+            else idx[i] = work[b++];
         }
-        return new Poly(stack);
+    }
+
+    private static boolean before(double[] x, double[] y, int a, int b) {
+        return y[a] < y[b] || y[a] == y[b] && x[a] < x[b];
     }
 
     /**
@@ -81,7 +227,7 @@ public class Geom {
      */
     public static Rect bounds(Point[] points) {
         if (points.length == 0) return null;
-        Rect r = new Rect(points[0].x, points[0].x, points[0].y, points[1].y);
+        Rect r = new Rect(points[0].x, points[0].x, points[0].y, points[0].y);
         for (int i = 1; i < points.length; i++) r = r.union(points[i]);
         return r;
     }
@@ -120,19 +266,4 @@ public class Geom {
         return (xx - p.x) * (xx - p.x) + (yy - p.y) * (yy - p.y);
     }
 
-    /**
-     * Comparator used in convex hull to sort points by angle from a fix point
-     */
-    private static class PolarComparator implements Comparator<Point> {
-        private final Point p;
-
-        public PolarComparator(Point p) {
-            this.p = p;
-        }
-
-        public int compare(Point q1, Point q2) {
-            return -Point.ccw(p, q1, q2);
-        }
-    }
-
 }
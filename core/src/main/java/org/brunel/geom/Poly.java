@@ -106,81 +106,94 @@ public class Poly {
 
         // horizontal line: y = y
         for (int i = 0; i < n; i++) {
-            Point qi = points[i], qj = points[j];
-            // Determine line formula for current segment: y = mx + b
-            double m = (qj.y - qi.y) / (qj.x - qi.x);
-
-            if (Double.isNaN(m)) {
-                // Both points are identical. Ignore this segment
-            } else if (Math.abs(m) == 0) {
-                // two horizontal lines won't intersect (and if they do we don't want to increment anyway)
-            } else if (Math.abs(m) > 1e20) {
-                // Vertical line.
-                double intersectX = qi.x;
-                double intersectY = p.y;
-
-                // Does it hit in the middle somewhere?
-                if ((intersectY >= qi.y && intersectY <= qj.y) || (intersectY >= qj.y && intersectY <= qi.y)) {
-                    // Is the intersection to the left or right?
-                    if (intersectX < p.x) {
-                        // If the horizontal ray hits a vertex, we have a
-                        // special case.
-                        if (intersectY == qi.y) {
-                            // Only count if the other vertex on this segment is
-                            // below the position.
-                            if (qj.y > p.y) {
-                                intersectCountLeft++;
-                            }
-                        } else if (intersectY == qj.y) {
-                            // Only count if the other vertex on this segment is
-                            // below the position.
-                            if (qi.y > p.y) {
-                                intersectCountLeft++;
-                            }
-                        } else {
-                            intersectCountLeft++;
+            if (crossesLeft(p, points[i], points[j])) intersectCountLeft++;
+            j = i;
+        }
+
+        return intersectCountLeft % 2 != 0;
+
+
+    }
+
+    /**
+     * Whether the horizontal ray to the left of a point crosses the segment between two polygon points,
+     * counting a crossing at a vertex only when the other end of the segment is below the point
+     *
+     * @param p  point to test
+     * @param qi one end of the segment
+     * @param qj other end of the segment
+     * @return true if the ray crosses it
+     */
+    static boolean crossesLeft(Point p, Point qi, Point qj) {
+        // Determine line formula for current segment: y = mx + b
+        double m = (qj.y - qi.y) / (qj.x - qi.x);
+
+        if (Double.isNaN(m)) {
+            // Both points are identical. Ignore this segment
+        } else if (Math.abs(m) == 0) {
+            // two horizontal lines won't intersect (and if they do we don't want to increment anyway)
+        } else if (Math.abs(m) > 1e20) {
+            // Vertical line.
+            double intersectX = qi.x;
+            double intersectY = p.y;
+
+            // Does it hit in the middle somewhere?
+            if ((intersectY >= qi.y && intersectY <= qj.y) || (intersectY >= qj.y && intersectY <= qi.y)) {
+                // Is the intersection to the left or right?
+                if (intersectX < p.x) {
+                    // If the horizontal ray hits a vertex, we have a
+                    // special case.
+                    if (intersectY == qi.y) {
+                        // Only count if the other vertex on this segment is
+                        // below the position.
+                        if (qj.y > p.y) {
+                            return true;
+                        }
+                    } else if (intersectY == qj.y) {
+                        // Only count if the other vertex on this segment is
+                        // below the position.
+                        if (qi.y > p.y) {
+                            return true;
                         }
+                    } else {
+                        return true;
                     }
                 }
-            } else {
-                // Solve for b: y - mx, using first point
-                double b = qi.y - m * qi.x;
-
-                // Find the x position of the intersection point of the segment
-                // with the horizontal ray.
-                // x = (y - b)/m
-                double intersectX = (p.y - b) / m;
-
-                if ((intersectX >= qi.x && intersectX <= qj.x) || (intersectX >= qj.x && intersectX <= qi.x)) {
-
-                    // Is the intersection to the left or right?
-                    if (intersectX < p.x) {
-                        // If the horizontal ray hits a vertex, we have a
-                        // special case.
-                        if (p.y == qi.y) {
-                            // Only count if the other vertex on this segment is
-                            // below the position.
-                            // Screen coordinates - below is greater than.
-                            if (qj.y > p.y) {
-                                intersectCountLeft++;
-                            }
-                        } else if (p.y == qj.y) {
-                            // Only count if the other vertex on this segment is
-                            // below the position.
-                            if (qi.y > p.y) {
-                                intersectCountLeft++;
-                            }
-                        } else {
-                            intersectCountLeft++;
+            }
+        } else {
+            // Solve for b: y - mx, using first point
+            double b = qi.y - m * qi.x;
+
+            // Find the x position of the intersection point of the segment
+            // with the horizontal ray.
+            // x = (y - b)/m
+            double intersectX = (p.y - b) / m;
+
+            if ((intersectX >= qi.x && intersectX <= qj.x) || (intersectX >= qj.x && intersectX <= qi.x)) {
+
+                // Is the intersection to the left or right?
+                if (intersectX < p.x) {
+                    // If the horizontal ray hits a vertex, we have a
+                    // special case.
+                    if (p.y == qi.y) {
+                        // Only count if the other vertex on this segment is
+                        // below the position.
+                        // Screen coordinates - below is greater than.
+                        if (qj.y > p.y) {
+                            return true;
                         }
+                    } else if (p.y == qj.y) {
+                        // Only count if the other vertex on this segment is
+                        // below the position.
+                        if (qi.y > p.y) {
+                            return true;
+                        }
+                    } else {
+                        return true;
                     }
                 }
             }
-            j = i;
         }
-
-        return intersectCountLeft % 2 != 0;
-
-
+        return false;
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.geom;
+
+/**
+ * A polygon prepared for testing many points. The polygon's edges are divided into horizontal bands,
+ * so a test only looks at the edges that reach the band containing the point.
+ * Results are the same as for {@link Poly#contains(Point)}.
+ */
+public class PreparedPoly {
+    private final Poly poly;
+    private final double top, bandHeight;       // Where the bands start and how high they are
+    private final int[] bandStarts;             // Where each band's edges start in the edge list
+    private final int[] edges;                  // Edges, band by band, identified by their end point index
+
+    public PreparedPoly(Poly poly) {
+        this.poly = poly;
+        Point[] points = poly.points;
+        int n = points.length, bands = Math.max(1, n);
+        top = n == 0 ? 0 : poly.bounds.top;
+        double height = n == 0 ? 0 : poly.bounds.bottom - top;
+        bandHeight = height > 0 ? height / bands : 1;
+
+        // Each edge is added to the bands it covers, and one either side to allow for rounding
+        int[] from = new int[n], to = new int[n];
+        bandStarts = new int[bands + 1];
+        for (int i = 0; i < n; i++) {
+            Point a = points[i], b = points[i == 0 ? n - 1 : i - 1];
+            from[i] = Math.max(0, band(Math.min(a.y, b.y)) - 1);
+            to[i] = Math.min(bands - 1, band(Math.max(a.y, b.y)) + 1);
+            for (int k = from[i]; k <= to[i]; k++) bandStarts[k + 1]++;
+        }
+        for (int k = 0; k < bands; k++) bandStarts[k + 1] += bandStarts[k];
+        edges = new int[bandStarts[bands]];
+        int[] next = new int[bands];
+        System.arraycopy(bandStarts, 0, next, 0, bands);
+        for (int i = 0; i < n; i++)
+            for (int k = from[i]; k <= to[i]; k++) edges[next[k]++] = i;
+    }
+
+    /**
+     * See if the polygon contains the point
+     *
+     * @param p point to test
+     * @return true if it does
+     */
+    public boolean contains(Point p) {
+        Point[] points = poly.points;
+        int n = points.length;
+        if (n == 0 || !poly.bounds.contains(p)) return false;
+        int band = band(p.y);
+        int intersectCountLeft = 0;
+        for (int k = bandStarts[band]; k < bandStarts[band + 1]; k++) {
+            int i = edges[k];
+            if (Poly.crossesLeft(p, points[i], points[i == 0 ? n - 1 : i - 1])) intersectCountLeft++;
+        }
+        return intersectCountLeft % 2 != 0;
+    }
+
+    private int band(double y) {
+        int band = (int) ((y - top) / bandHeight);
+        return Math.max(0, Math.min(bandStarts.length - 2, band));
+    }
+}
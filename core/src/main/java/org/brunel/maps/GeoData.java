@@ -26,11 +26,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,10 +51,16 @@ class GeoData {
      * @return the analysis instance to use
      */
     public static synchronized GeoData instance() {
-        if (INSTANCE == null) INSTANCE = new GeoData();
+        if (INSTANCE == null) INSTANCE = new GeoData(GeoIndex.load());
         return INSTANCE;
     }
 
+    /**
+     * The quality of feature files asked for by the parameters
+     *
+     * @param diagramParameters parameters for the map
+     * @return quality name, or null if none was given and it should be chosen from the area shown
+     */
     public static String getQuality(Param[] diagramParameters) {
         for (Param p : diagramParameters)
             if (p.type() == Param.Type.option) {
@@ -61,7 +69,7 @@ class GeoData {
                 if (p.asString().equals("high")) return "high";
                 if (p.asString().equals("low")) return "low";
             }
-        return "med";
+        return null;
     }
 
     MappedLists<GeoFile, Object> mapFeaturesToFiles(Object[] names, Collection<Object> unmatched) {
@@ -79,12 +87,34 @@ class GeoData {
         return contained;
     }
 
-    private final Map<String, List<Feature>> featureMap;  // A map from names to where to find them
+    private final GeoIndex index;                         // Precompiled index; null when using the text files
+    private final Map<String, List<Feature>> featureMap;  // A map from names to where to find them (text only)
     private final Map<String, GeoFile> filesByName;       // A map of canonical name to file
-    private final Map<String, LabelPoint> labelsByName;   // A map of canonical name to labels
+    private final Map<String, LabelPoint> labelsByName;   // A map of canonical name to labels (text only)
     private final GeoFile[] geoFiles;                     // Feature files we can use
+    private GeoFileIndex fileIndex;                       // Spatial index of the files, made when first needed
 
-    private GeoData() {
+    // Keep recent lookups, including failures (as empty lists), so a repeated name needs one probe
+    private final Map<String, List<Feature>> lookups = new LinkedHashMap<String, List<Feature>>() {
+        protected boolean removeEldestEntry(Map.Entry<String, List<Feature>> eldest) {
+            return size() > 20000;
+        }
+    };
+
+    /**
+     * Creates the data from a precompiled index, or by reading the text files
+     *
+     * @param index index to use; if null the text files are read
+     */
+    GeoData(GeoIndex index) {
+        this.index = index;
+        if (index != null) {
+            geoFiles = index.files();
+            filesByName = makeFileNameMap(geoFiles);
+            featureMap = null;
+            labelsByName = null;
+            return;
+        }
         try {
             // Read in the feature information file
             InputStream is = GeoData.class.getResourceAsStream("/org/brunel/maps/geoinfo/featureFiles.txt");
@@ -110,21 +140,57 @@ class GeoData {
 
     }
 
+    /**
+     * Writes the information read from the text files as a precompiled index
+     *
+     * @param out destination
+     * @throws IOException if the stream cannot be written
+     */
+    void writeIndex(OutputStream out) throws IOException {
+        if (index != null) throw new IllegalStateException("Index must be written from the text files");
+        GeoIndex.write(geoFiles, featureMap, labelsByName, out);
+    }
+
     public List<Feature> featureByName(String s) {
+        synchronized (lookups) {
+            List<Feature> result = lookups.get(s);
+            if (result != null) return result.isEmpty() ? null : result;
+        }
+        List<Feature> result = findFeatures(s);
+        synchronized (lookups) {
+            lookups.put(s, result == null ? Collections.<Feature>emptyList() : result);
+        }
+        return result;
+    }
+
+    private List<Feature> findFeatures(String s) {
         s = GeoNaming.canonical(s);
-        List<Feature> result = featureMap.get(s);
+        List<Feature> result = features(s);
         if (result != null) return result;
         for (String t : GeoNaming.variants(s)) {
-            result = featureMap.get(t);
+            result = features(t);
             if (result != null) return result;
         }
         return null;
     }
 
+    private List<Feature> features(String key) {
+        return index == null ? featureMap.get(key) : index.features(key);
+    }
+
+    private LabelPoint label(String key) {
+        return index == null ? labelsByName.get(key) : index.label(key);
+    }
+
     public GeoFile[] getGeoFiles() {
         return geoFiles;
     }
 
+    synchronized GeoFileIndex getFileIndex() {
+        if (fileIndex == null) fileIndex = new GeoFileIndex(geoFiles);
+        return fileIndex;
+    }
+
     private Map<String, GeoFile> makeFileNameMap(GeoFile[] geoFiles) {
         Map<String, GeoFile> map = new HashMap<>();
         for (GeoFile s : geoFiles) {
@@ -162,13 +228,13 @@ class GeoData {
                 GeoFile geoFile = filesByName.get(fileName);
                 if (geoFile == null)
                     throw new NullPointerException("Cannot find geo file named: " + fileName);
-                geoFile.pts.add(point);
+                geoFile.labels().add(point);
             }
         }
 
 
         // Sort geofile labels by importance
-        for (GeoFile f : filesByName.values()) Collections.sort(f.pts);
+        for (GeoFile f : filesByName.values()) Collections.sort(f.labels());
 
         return result;
     }
@@ -220,11 +286,11 @@ class GeoData {
             if (f != null) {
                 result.add(f);
             } else {
-                List<Feature> features = featureMap.get(key);
+                List<Feature> features = features(key);
                 if (features != null) {
                     byFeature.add(features.get(0).file);
                 } else {
-                    LabelPoint location = labelsByName.get(key);
+                    LabelPoint location = label(key);
                     if (location != null)
                         byFeature.add(smallestFileContaining(location));
 
@@ -238,7 +304,7 @@ class GeoData {
 
     private GeoFile smallestFileContaining(Point point) {
         GeoFile result = null;
-        for (GeoFile g : geoFiles) {
+        for (GeoFile g : getFileIndex().candidates(point)) {
             if (g.covers(point)) {
                 if (result == null || g.bounds.area() < result.bounds.area())
                     result = g;
@@ -254,11 +320,11 @@ class GeoData {
 
 
     /* where a feature can be found */
-    private static class Feature {
+    static class Feature {
         final GeoFile file;
         final int id;
 
-        private Feature(GeoFile file, int id) {
+        Feature(GeoFile file, int id) {
             this.file = file;
             this.id = id;
         }
@@ -19,6 +19,7 @@ package org.brunel.maps;
 import org.brunel.data.Data;
 import org.brunel.geom.Point;
 import org.brunel.geom.Poly;
+import org.brunel.geom.PreparedPoly;
 import org.brunel.geom.Rect;
 
 import java.util.ArrayList;
@@ -30,8 +31,12 @@ import java.util.List;
 class GeoFile implements Comparable<GeoFile> {
     public final String name;           // File name
     public final Rect bounds;           // longitude min, max; latitude min,max
-    public final List<LabelPoint> pts;   // contained label points
     public final Poly hull;             // Convex points in lat/long
+    private final PreparedPoly region;  // The hull prepared for testing points
+    private final GeoIndex index;       // Index to read the label points from; null when read from text
+    private final int indexNumber;      // Position of this file in the index
+    private List<LabelPoint> pts;       // contained label points
+    private LabelIndex labelIndex;      // Grid over the label points, made when first needed
 
     /**
      * Defines a GeoFile
@@ -41,14 +46,55 @@ class GeoFile implements Comparable<GeoFile> {
      * @param hullString   A polygon: x1,x2;y1,y2;...
      */
     public GeoFile(String name, String boundsString, String hullString) {
+        this(name, parseBounds(boundsString), new Poly(parse(hullString)), null, -1);
+        this.pts = new ArrayList<>();
+    }
+
+    /**
+     * Defines a GeoFile read from a precompiled index
+     *
+     * @param name        file name
+     * @param bounds      longitude and latitude bounds
+     * @param hull        convex hull in lat/long
+     * @param index       index to read the label points from when needed
+     * @param indexNumber position of this file in the index
+     */
+    GeoFile(String name, Rect bounds, Poly hull, GeoIndex index, int indexNumber) {
         this.name = name;
+        this.bounds = bounds;
+        this.hull = hull;
+        this.region = new PreparedPoly(hull);
+        this.index = index;
+        this.indexNumber = indexNumber;
+    }
+
+    /**
+     * The label points contained in this file, read from the index the first time they are needed
+     *
+     * @return modifiable list of points
+     */
+    public synchronized List<LabelPoint> labels() {
+        if (pts == null) pts = index.labels(indexNumber);
+        return pts;
+    }
+
+    /**
+     * A spatial index of the label points, made the first time it is needed.
+     * The labels should not be changed after this is called
+     *
+     * @return index over the points
+     */
+    synchronized LabelIndex labelIndex() {
+        if (labelIndex == null) labelIndex = new LabelIndex(labels());
+        return labelIndex;
+    }
+
+    private static Rect parseBounds(String boundsString) {
         String[] b = boundsString.split(",");
-        this.bounds = new Rect(Data.parseDouble(b[0]), Data.parseDouble(b[1]), Data.parseDouble(b[2]), Data.parseDouble(b[3]));
-        this.hull = new Poly(parse(hullString));
-        this.pts = new ArrayList<>();
+        return new Rect(Data.parseDouble(b[0]), Data.parseDouble(b[1]), Data.parseDouble(b[2]), Data.parseDouble(b[3]));
     }
 
-    private Point[] parse(String hullString) {
+    private static Point[] parse(String hullString) {
         String[] parts = hullString.split(";");
         Point[] result = new Point[parts.length];
         for (int i = 0; i < parts.length; i++) {
@@ -76,7 +122,7 @@ class GeoFile implements Comparable<GeoFile> {
      * @return true if it is likely to be inside. False means it definitely is not
      */
     public boolean covers(Point p) {
-        return hull.contains(p);
+        return region.contains(p);
     }
 
     public String toString() {
@@ -19,11 +19,13 @@ package org.brunel.maps;
 import org.brunel.geom.Rect;
 import org.brunel.util.MappedLists;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -39,22 +41,36 @@ class GeoFileGroup {
      * @return empty group
      */
     public static GeoFileGroup makeEmpty(MappedLists<GeoFile, Object> containedItems) {
-        // Count the number of features we can match
-        Set<Object> all = new HashSet<>();
-        for (List<Object> f : containedItems.values()) all.addAll(f);
-        return new GeoFileGroup(all.size(), containedItems, Collections.<GeoFile>emptySet(), Collections.emptySet());
+        // Number the features we can match, and record those each file contains
+        Map<Object, Integer> numbers = new HashMap<>();
+        Map<GeoFile, BitSet> itemsMap = new HashMap<>();
+        for (Map.Entry<GeoFile, List<Object>> e : containedItems.entrySet()) {
+            BitSet items = new BitSet();
+            for (Object o : e.getValue()) {
+                Integer n = numbers.get(o);
+                if (n == null) {
+                    n = numbers.size();
+                    numbers.put(o, n);
+                }
+                items.set(n);
+            }
+            itemsMap.put(e.getKey(), items);
+        }
+        return new GeoFileGroup(numbers.size(), itemsMap, Collections.<GeoFile>emptySet(), new BitSet());
     }
     public final Set<GeoFile> files;                            // These are the files
-    private final MappedLists<GeoFile, Object> itemsMap;              // Map from files to contained items
+    private final Map<GeoFile, BitSet> itemsMap;                // Map from files to contained items
     private final int requiredContentCount;                     // We from to match this many features
-    private final Set<Object> content;                          // These are items we do contain
+    private final BitSet content;                               // These are items we do contain
+    private final int contentCount;                             // The number of items we contain
     private Rect totalBounds;                                   // bounds for all the group
 
-    private GeoFileGroup(int requiredCount, MappedLists<GeoFile, Object> itemsMap, Collection<GeoFile> files, Collection<?> features) {
+    private GeoFileGroup(int requiredCount, Map<GeoFile, BitSet> itemsMap, Collection<GeoFile> files, BitSet content) {
         this.requiredContentCount = requiredCount;
         this.itemsMap = itemsMap;
         this.files = new LinkedHashSet<>(files);
-        this.content = new HashSet<>(features);
+        this.content = content;
+        this.contentCount = content.cardinality();
     }
 
     /**
@@ -65,27 +81,62 @@ class GeoFileGroup {
      */
     public GeoFileGroup add(GeoFile file) {
         if (files.contains(file)) return null;                              // Already included so no need to add
-        Set<Object> combinedFeatures = new HashSet<>(content);
-        if (!combinedFeatures.addAll(itemsMap.get(file))) return null;      // Failed to add features
-        Set<GeoFile> combinedFiles = new HashSet<>(files);
+        BitSet combinedFeatures = (BitSet) content.clone();
+        combinedFeatures.or(itemsMap.get(file));
+        if (combinedFeatures.cardinality() == contentCount) return null;    // Failed to add features
+        Set<GeoFile> combinedFiles = new LinkedHashSet<>(files);
         combinedFiles.add(file);
         return new GeoFileGroup(requiredContentCount, itemsMap, combinedFiles, combinedFeatures);
     }
 
-    public boolean cannotImprove(GeoFileGroup best, int maxFeaturesPerFile) {
-        if (content.size() == requiredContentCount) return true;                // Nothing new can get added
+    /**
+     * Adds files one at a time, each time adding the one that makes the best group
+     *
+     * @param candidates files to add
+     * @return the group when no file can be added
+     */
+    public GeoFileGroup extendGreedily(GeoFile[] candidates) {
+        GeoFileGroup group = this;
+        while (group.files.size() < MAX_FILES) {
+            GeoFileGroup next = null;
+            for (GeoFile f : candidates) {
+                GeoFileGroup trial = group.add(f);
+                if (trial != null && (next == null || trial.isBetter(next))) next = trial;
+            }
+            if (next == null) break;
+            group = next;
+        }
+        return group;
+    }
+
+    /**
+     * Whether adding files to this group cannot make a better group than the best one known
+     *
+     * @param bestCount the most features a group is known to be able to contain
+     * @param sizes     numbers of features in the files that could be added, largest first
+     * @param next      the first of those sizes to use
+     * @return true if there is no need to search further
+     */
+    public boolean cannotImprove(int bestCount, int[] sizes, int next) {
+        if (contentCount == requiredContentCount) return true;                  // Nothing new can get added
         if (files.size() == MAX_FILES) return true;                             // Limited number of files
 
-        // An upper bound on the number of features we could add
-        int upperFeatureBound = content.size() + (MAX_FILES - files.size()) * maxFeaturesPerFile;
-        return upperFeatureBound < best.content.size();
+        // An upper bound on the number of features we could add: the largest remaining files fill the free places
+        int upperFeatureBound = contentCount;
+        for (int i = next; i < Math.min(sizes.length, next + MAX_FILES - files.size()); i++)
+            upperFeatureBound += sizes[i];
+        return Math.min(upperFeatureBound, requiredContentCount) < bestCount;
+    }
+
+    public int contentCount() {
+        return contentCount;
     }
 
     public boolean isBetter(GeoFileGroup o) {
         if (o == this) return false;
 
         // More features are better
-        int d = content.size() - o.content.size();
+        int d = contentCount - o.contentCount;
         if (d < 0) return false;
         if (d > 0) return true;
 
@@ -106,6 +157,6 @@ class GeoFileGroup {
     }
 
     public String toString() {
-        return files + ":" + content.size() + "/" + requiredContentCount;
+        return files + ":" + contentCount + "/" + requiredContentCount;
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.geom.Point;
+import org.brunel.geom.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform grid over longitude and latitude, listing the files whose bounds reach each cell.
+ * This finds the few files that may cover a point without looking at every file.
+ */
+class GeoFileIndex {
+
+    private static final double CELL_SIZE = 10;                 // In degrees
+    private static final int COLUMNS = 36, ROWS = 18;
+
+    private final GeoFile[][] cells;                            // Files for each cell, in the original order
+
+    GeoFileIndex(GeoFile[] files) {
+        List<List<GeoFile>> lists = new ArrayList<>();
+        for (int i = 0; i < COLUMNS * ROWS; i++) lists.add(new ArrayList<GeoFile>());
+        for (GeoFile f : files)
+            for (int c = column(f.bounds.left); c <= column(f.bounds.right); c++)
+                for (int r = row(f.bounds.top); r <= row(f.bounds.bottom); r++)
+                    lists.get(r * COLUMNS + c).add(f);
+        cells = new GeoFile[lists.size()][];
+        for (int i = 0; i < cells.length; i++) cells[i] = lists.get(i).toArray(new GeoFile[lists.get(i).size()]);
+    }
+
+    /**
+     * Files that might cover a point, because their bounds reach the point's cell
+     *
+     * @param p point
+     * @return files in the order they were given
+     */
+    GeoFile[] candidates(Point p) {
+        return cells[row(p.y) * COLUMNS + column(p.x)];
+    }
+
+    /**
+     * Finds the files that cover each point
+     *
+     * @param points points to locate
+     * @param within only files whose bounds intersect this are used
+     * @return for each point, the files that cover it, in the order they were given
+     */
+    GeoFile[][] locate(Point[] points, Rect within) {
+        GeoFile[][] result = new GeoFile[points.length][];
+        List<GeoFile> found = new ArrayList<>();
+        for (int i = 0; i < points.length; i++) {
+            found.clear();
+            for (GeoFile f : candidates(points[i]))
+                if (within.intersects(f.bounds) && f.covers(points[i])) found.add(f);
+            result[i] = found.toArray(new GeoFile[found.size()]);
+        }
+        return result;
+    }
+
+    private static int column(double x) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) Math.floor((x + 180) / CELL_SIZE)));
+    }
+
+    private static int row(double y) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((y + 90) / CELL_SIZE)));
+    }
+}
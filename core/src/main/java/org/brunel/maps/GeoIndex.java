@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.geom.Point;
+import org.brunel.geom.Poly;
+import org.brunel.geom.Rect;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precompiled, binary form of the geographic information text files, built by running this class at build time.
+ * Strings are stored as UTF-8 tables sorted so they can be searched without decoding them, and points as packed doubles.
+ * The file descriptions are decoded when the index is read; features and labels are only decoded when asked for.
+ */
+class GeoIndex {
+
+    static final String RESOURCE = "/org/brunel/maps/geoinfo/geoIndex.bin";
+    private static final int MAGIC = 0x42474958;                // "BGIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    /**
+     * Loads the index from the class path, mapping it into memory when it is a plain file
+     *
+     * @return the index, or null if it is not available, so the text files should be read instead
+     */
+    static GeoIndex load() {
+        URL url = GeoIndex.class.getResource(RESOURCE);
+        if (url == null) return null;
+        try {
+            if ("file".equals(url.getProtocol())) {
+                try (RandomAccessFile file = new RandomAccessFile(new File(url.toURI()), "r")) {
+                    FileChannel channel = file.getChannel();
+                    return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+            }
+            try (InputStream is = url.openStream()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] block = new byte[65536];
+                for (int n = is.read(block); n >= 0; n = is.read(block)) bytes.write(block, 0, n);
+                return read(ByteBuffer.wrap(bytes.toByteArray()));
+            }
+        } catch (Exception e) {
+            // An unreadable or out of date index is not fatal; the text files are always available
+            return null;
+        }
+    }
+
+    /**
+     * Reads an index from a buffer. Only the absolute methods of the buffer are used, so it may be shared.
+     *
+     * @param buffer the index bytes
+     * @return the index
+     * @throws IOException if the buffer does not hold a current index
+     */
+    static GeoIndex read(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a geographic index");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported geographic index version: " + buffer.getInt(4));
+        return new GeoIndex(buffer);
+    }
+
+    /**
+     * Writes the index for the information read from the text files
+     *
+     * @param files    the feature files, with their labels sorted by importance
+     * @param features feature lists by name, including name variants
+     * @param labels   label points by name
+     * @param out      destination
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(GeoFile[] files, Map<String, List<GeoData.Feature>> features,
+                      Map<String, LabelPoint> labels, OutputStream out) throws IOException {
+
+        // Number the files
+        Map<GeoFile, Integer> fileNumbers = new IdentityHashMap<>();
+        for (int i = 0; i < files.length; i++) fileNumbers.put(files[i], i);
+
+        // All the label points; those listed by name sort ahead of others with the same name
+        final Map<LabelPoint, Boolean> named = new IdentityHashMap<>();
+        for (LabelPoint p : labels.values()) named.put(p, true);
+        List<LabelPoint> points = new ArrayList<>();
+        Map<LabelPoint, Boolean> seen = new IdentityHashMap<>();
+        for (GeoFile f : files)
+            for (LabelPoint p : f.labels())
+                if (seen.put(p, true) == null) points.add(p);
+        for (LabelPoint p : sortedValues(labels))
+            if (seen.put(p, true) == null) points.add(p);
+        Collections.sort(points, new Comparator<LabelPoint>() {
+            public int compare(LabelPoint a, LabelPoint b) {
+                int c = compareBytes(utf8(a.label), utf8(b.label));
+                if (c != 0) return c;
+                return (named.containsKey(a) ? 0 : 1) - (named.containsKey(b) ? 0 : 1);
+            }
+        });
+        Map<LabelPoint, Integer> pointNumbers = new IdentityHashMap<>();
+        for (int i = 0; i < points.size(); i++) pointNumbers.put(points.get(i), i);
+
+        // Feature names, with lists that have the same features written once
+        List<String> keys = new ArrayList<>(features.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return compareBytes(utf8(a), utf8(b));
+            }
+        });
+        Map<String, Integer> listStarts = new HashMap<>();
+        int[] keyStarts = new int[keys.size()];
+        List<GeoData.Feature> postings = new ArrayList<>();
+        int hullCount = 0, fileLabelCount = 0;
+        for (GeoFile f : files) {
+            hullCount += f.hull.count();
+            fileLabelCount += f.labels().size();
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            List<GeoData.Feature> list = features.get(keys.get(i));
+            StringBuilder content = new StringBuilder();
+            for (GeoData.Feature f : list) content.append(fileNumbers.get(f.file)).append(':').append(f.id).append(' ');
+            Integer listStart = listStarts.get(content.toString());
+            if (listStart == null) {
+                listStart = postings.size();
+                listStarts.put(content.toString(), listStart);
+                postings.addAll(list);
+            }
+            keyStarts[i] = listStart;
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(files.length);
+        data.writeInt(hullCount);
+        data.writeInt(fileLabelCount);
+        data.writeInt(points.size());
+        data.writeInt(keys.size());
+        data.writeInt(postings.size());
+        data.writeInt(0);
+        data.writeInt(0);
+
+        // Files: names, bounds, hulls and the labels they contain
+        List<String> names = new ArrayList<>();
+        for (GeoFile f : files) names.add(f.name);
+        writeStrings(data, names);
+        for (GeoFile f : files) {
+            data.writeDouble(f.bounds.left);
+            data.writeDouble(f.bounds.right);
+            data.writeDouble(f.bounds.top);
+            data.writeDouble(f.bounds.bottom);
+        }
+        int start = 0;
+        for (GeoFile f : files) {
+            data.writeInt(start);
+            start += f.hull.count();
+        }
+        data.writeInt(start);
+        for (GeoFile f : files)
+            for (Point p : f.hull.points) {
+                data.writeDouble(p.x);
+                data.writeDouble(p.y);
+            }
+        start = 0;
+        for (GeoFile f : files) {
+            data.writeInt(start);
+            start += f.labels().size();
+        }
+        data.writeInt(start);
+        for (GeoFile f : files)
+            for (LabelPoint p : f.labels()) data.writeInt(pointNumbers.get(p));
+
+        // Label points
+        names.clear();
+        for (LabelPoint p : points) names.add(p.label);
+        writeStrings(data, names);
+        for (LabelPoint p : points) {
+            data.writeDouble(p.x);
+            data.writeDouble(p.y);
+        }
+        for (LabelPoint p : points) data.writeByte(p.pop);
+        for (LabelPoint p : points) data.writeByte(p.importance);
+
+        // Feature names and where to find them
+        writeStrings(data, keys);
+        for (int keyStart : keyStarts) data.writeInt(keyStart);
+        for (String key : keys) data.writeInt(features.get(key).size());
+        for (GeoData.Feature f : postings) data.writeInt(fileNumbers.get(f.file));
+        for (GeoData.Feature f : postings) data.writeInt(f.id);
+        data.flush();
+    }
+
+    /**
+     * Compiles the text files into an index
+     *
+     * @param args the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Cannot create directory: " + parent);
+        try (OutputStream out = new FileOutputStream(file)) {
+            new GeoData(null).writeIndex(out);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final GeoFile[] files;              // Decoded on reading as they are always needed
+    private final Strings labelNames;           // Sorted label names
+    private final Strings keys;                 // Sorted feature names
+    private final LabelPoint[] points;          // Label points decoded so far
+    private final int bounds, hullStarts, hulls, fileLabelStarts, fileLabels;     // Offsets of sections
+    private final int pointLocations, pointPops, pointImportances;
+    private final int keyStarts, keyCounts, featureFiles, featureIds;
+
+    private GeoIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int fileCount = buffer.getInt(8);
+        int hullCount = buffer.getInt(12);
+        int fileLabelCount = buffer.getInt(16);
+        int pointCount = buffer.getInt(20);
+        int keyCount = buffer.getInt(24);
+        int featureCount = buffer.getInt(28);
+
+        Strings fileNames = new Strings(buffer, HEADER_SIZE, fileCount);
+        bounds = fileNames.end;
+        hullStarts = bounds + 32 * fileCount;
+        hulls = hullStarts + 4 * (fileCount + 1);
+        fileLabelStarts = hulls + 16 * hullCount;
+        fileLabels = fileLabelStarts + 4 * (fileCount + 1);
+
+        labelNames = new Strings(buffer, fileLabels + 4 * fileLabelCount, pointCount);
+        pointLocations = labelNames.end;
+        pointPops = pointLocations + 16 * pointCount;
+        pointImportances = pointPops + pointCount;
+        points = new LabelPoint[pointCount];
+
+        keys = new Strings(buffer, pointImportances + pointCount, keyCount);
+        keyStarts = keys.end;
+        keyCounts = keyStarts + 4 * keyCount;
+        featureFiles = keyCounts + 4 * keyCount;
+        featureIds = featureFiles + 4 * featureCount;
+
+        files = new GeoFile[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            int b = bounds + 32 * i;
+            Rect rect = new Rect(buffer.getDouble(b), buffer.getDouble(b + 8), buffer.getDouble(b + 16), buffer.getDouble(b + 24));
+            int from = buffer.getInt(hullStarts + 4 * i), to = buffer.getInt(hullStarts + 4 * i + 4);
+            Point[] hull = new Point[to - from];
+            for (int j = 0; j < hull.length; j++) {
+                int p = hulls + 16 * (from + j);
+                hull[j] = new Point(buffer.getDouble(p), buffer.getDouble(p + 8));
+            }
+            files[i] = new GeoFile(fileNames.get(i), rect, new Poly(hull), this, i);
+        }
+    }
+
+    GeoFile[] files() {
+        return files;
+    }
+
+    /**
+     * Finds the features with a name
+     *
+     * @param key canonical feature name
+     * @return the features, or null if there are none
+     */
+    List<GeoData.Feature> features(String key) {
+        int i = keys.find(key);
+        if (i < 0) return null;
+        int start = buffer.getInt(keyStarts + 4 * i), count = buffer.getInt(keyCounts + 4 * i);
+        List<GeoData.Feature> result = new ArrayList<>(count);
+        for (int j = start; j < start + count; j++)
+            result.add(new GeoData.Feature(files[buffer.getInt(featureFiles + 4 * j)], buffer.getInt(featureIds + 4 * j)));
+        return result;
+    }
+
+    /**
+     * Finds a label point by name
+     *
+     * @param key label name
+     * @return the first point with that name, or null if there is none
+     */
+    LabelPoint label(String key) {
+        int i = labelNames.find(key);
+        return i < 0 ? null : point(i);
+    }
+
+    /**
+     * The label points for a file
+     *
+     * @param file the file's position in the index
+     * @return a modifiable list of points, most important first
+     */
+    List<LabelPoint> labels(int file) {
+        int from = buffer.getInt(fileLabelStarts + 4 * file), to = buffer.getInt(fileLabelStarts + 4 * file + 4);
+        List<LabelPoint> result = new ArrayList<>(to - from);
+        for (int j = from; j < to; j++) result.add(point(buffer.getInt(fileLabels + 4 * j)));
+        return result;
+    }
+
+    // Points are decoded once so they are shared between files, as they are when read from text
+    private synchronized LabelPoint point(int i) {
+        if (points[i] == null) {
+            int p = pointLocations + 16 * i;
+            points[i] = new LabelPoint(buffer.getDouble(p), buffer.getDouble(p + 8), labelNames.get(i),
+                    buffer.get(pointPops + i) & 0xff, buffer.get(pointImportances + i) & 0xff);
+        }
+        return points[i];
+    }
+
+    private static List<LabelPoint> sortedValues(Map<String, LabelPoint> labels) {
+        List<String> names = new ArrayList<>(labels.keySet());
+        Collections.sort(names);
+        List<LabelPoint> result = new ArrayList<>();
+        for (String s : names) result.add(labels.get(s));
+        return result;
+    }
+
+    // Byte length, offsets and then the UTF-8 bytes
+    private static void writeStrings(DataOutputStream data, List<String> strings) throws IOException {
+        byte[][] bytes = new byte[strings.size()][];
+        int length = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = utf8(strings.get(i));
+            length += bytes[i].length;
+        }
+        data.writeInt(length);
+        int offset = 0;
+        for (byte[] b : bytes) {
+            data.writeInt(offset);
+            offset += b.length;
+        }
+        data.writeInt(offset);
+        for (byte[] b : bytes) data.write(b);
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Unsigned byte order, which for UTF-8 is the order of the characters' code points
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return a.length - b.length;
+    }
+
+    /* A table of strings within the buffer */
+    private static class Strings {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int offsets;              // Where the offsets start
+        private final int bytes;                // Where the string bytes start
+        final int end;                          // The first byte after the table
+
+        Strings(ByteBuffer buffer, int start, int count) {
+            this.buffer = buffer;
+            this.count = count;
+            this.offsets = start + 4;
+            this.bytes = offsets + 4 * (count + 1);
+            this.end = bytes + buffer.getInt(start);
+        }
+
+        String get(int i) {
+            int from = buffer.getInt(offsets + 4 * i), to = buffer.getInt(offsets + 4 * i + 4);
+            byte[] b = new byte[to - from];
+            for (int j = 0; j < b.length; j++) b[j] = buffer.get(bytes + from + j);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        /* The first index of a string in a sorted table, or -1 if it is not present */
+        int find(String s) {
+            byte[] key = utf8(s);
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, key) < 0) low = mid + 1;
+                else high = mid;
+            }
+            return low < count && compare(low, key) == 0 ? low : -1;
+        }
+
+        private int compare(int i, byte[] key) {
+            int from = bytes + buffer.getInt(offsets + 4 * i), to = bytes + buffer.getInt(offsets + 4 * i + 4);
+            int n = Math.min(to - from, key.length);
+            for (int j = 0; j < n; j++) {
+                int c = (buffer.get(from + j) & 0xff) - (key[j] & 0xff);
+                if (c != 0) return c;
+            }
+            return (to - from) - key.length;
+        }
+    }
+}
@@ -36,7 +36,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,6 +50,12 @@ public class GeoInformation {
 
 	private static final String KEY_GEO_NAMES = "geo names";
 
+	// Keep the results for recent sets of categories, so fields with the same values are not matched again.
+	// The oldest are dropped to keep at most MAX_CACHED_CATEGORIES categories in all; larger sets are not kept
+	static final int MAX_CACHED_CATEGORIES = 10000;
+	private static final Map<List<Object>, Set<Object>> UNMATCHED_NAMES = new LinkedHashMap<>();
+	private static int cachedCategories;                        // Total number of categories in the keys
+
 	public static String getIDField(VisElement vis) {
 		if (vis.fKeys.isEmpty()) {
 			if (vis.positionFields().length == 0)
@@ -69,8 +77,7 @@ public class GeoInformation {
 			// Calculate suitability for use as a geographic name
 			double count = 0;
 			if (!f.isNumeric()) {
-				HashSet<Object> unmatched = new HashSet<>();
-				GeoData.instance().mapFeaturesToFiles(f.categories(), unmatched);
+				Set<Object> unmatched = unmatchedNames(f.categories());
 				for (int i = 0; i < f.rowCount(); i++)
 					if (!unmatched.contains(f.value(i))) count++;
 			}
@@ -79,23 +86,47 @@ public class GeoInformation {
 		return f.numProperty(KEY_GEO_NAMES);
 	}
 
-	public List<LabelPoint> getLabelsForFiles() {
-
-		// USe a set to ensure points are not duplicated
-		Set<LabelPoint> points = new HashSet<>();
-
-		for (GeoMapping g : geo.values()) {
-			for (GeoFile f : g.files) {
-				for (LabelPoint p : f.pts)
-					if (hull.bounds.contains(p)) {
-						points.add(p);
-					}
+	// The categories that are not geographic names, kept for recently seen sets of categories
+	private static Set<Object> unmatchedNames(Object[] categories) {
+		List<Object> key = new ArrayList<>(Arrays.asList(categories));
+		synchronized (UNMATCHED_NAMES) {
+			Set<Object> unmatched = UNMATCHED_NAMES.get(key);
+			if (unmatched != null) return unmatched;
+		}
+		Set<Object> unmatched = new HashSet<>();
+		GeoData data = GeoData.instance();
+		for (Object s : categories)
+			if (data.featureByName(s.toString()) == null) unmatched.add(s);
+		if (key.size() > MAX_CACHED_CATEGORIES) return unmatched;
+		synchronized (UNMATCHED_NAMES) {
+			if (UNMATCHED_NAMES.put(key, unmatched) == null) cachedCategories += key.size();
+			Iterator<List<Object>> eldest = UNMATCHED_NAMES.keySet().iterator();
+			while (cachedCategories > MAX_CACHED_CATEGORIES) {
+				cachedCategories -= eldest.next().size();
+				eldest.remove();
 			}
 		}
+		return unmatched;
+	}
 
-		List<LabelPoint> results = new ArrayList<>(points);
-		Collections.sort(results);
-		return results;
+	// The number of categories held by the cache of unmatched names
+	static int cachedCategories() {
+		synchronized (UNMATCHED_NAMES) {
+			return cachedCategories;
+		}
+	}
+
+	/**
+	 * The most important label points within the map, from all the files used by the map
+	 *
+	 * @param maxPoints the most points wanted
+	 * @return distinct points, most important first
+	 */
+	public List<LabelPoint> getLabelsForFiles(int maxPoints) {
+		Set<LabelIndex> indices = new LinkedHashSet<>();
+		for (GeoMapping g : geo.values())
+			for (GeoFile f : g.files) indices.add(f.labelIndex());
+		return LabelIndex.mostImportant(indices, hull.bounds, maxPoints);
 	}
 
 	private final Map<VisElement, GeoMapping> geo;            // Geographic mappings, one per geo element
@@ -192,6 +223,27 @@ public class GeoInformation {
 		return Geom.makeConvexHull(combined);
 	}
 
+	/**
+	 * Chooses the quality of a feature file for the area shown. The files at each quality are simplified
+	 * versions of the same features, so a large area can use coarser ones without any visible loss
+	 *
+	 * @param fileBounds the bounds of the file
+	 * @return quality name
+	 */
+	String getQuality(Rect fileBounds) {
+		return qualityForExtent(getProjectionBounds(), fileBounds);
+	}
+
+	static String qualityForExtent(Rect bounds, Rect fileBounds) {
+		double extent = Math.max(bounds.width(), bounds.height());
+		if (extent > 90) return "low";          // Hemispheres or the whole world
+		if (extent > 15) return "med";          // Continents and large countries
+
+		// The whole file is downloaded, so a small part of a large one is not worth the detail
+		double fileExtent = Math.max(fileBounds.width(), fileBounds.height());
+		return fileExtent > 4 * extent ? "med" : "high";
+	}
+
 	public String d3Definition() {
 		Rect rect = getProjectionBounds();
 		if (needsExpansion) rect = rect.expand(0.1);
@@ -199,8 +251,15 @@ public class GeoInformation {
 	}
 
 	private Poly getPositionPoints(ChartCoordinates positionFields) {
-		Set<Point> points = new HashSet<>();
+		// There may be very many points, so gather them into coordinate arrays
+		int n = 0;
+		for (VisElement e : elements)
+			for (Field x : positionFields.getX(e)) n += x.rowCount() * positionFields.getY(e).length;
+		double[] px = new double[n];
+		double[] py = new double[n];
+
 		// Add points for all the fields for each element
+		n = 0;
 		for (VisElement e : elements) {
 			Field[] xx = positionFields.getX(e);
 			Field[] yy = positionFields.getY(e);
@@ -209,11 +268,14 @@ public class GeoInformation {
 					for (int i = 0; i < x.rowCount(); i++) {
 						Double a = Data.asNumeric(x.value(i));
 						Double b = Data.asNumeric(y.value(i));
-						if (a != null && b != null) points.add(new Point(a, b));
+						if (a != null && b != null) {
+							px[n] = a;
+							py[n++] = b;
+						}
 					}
 				}
 		}
-		return Geom.makeConvexHull(points);
+		return Geom.makeConvexHull(Arrays.copyOf(px, n), Arrays.copyOf(py, n));
 	}
 
 	/**
@@ -16,9 +16,7 @@
 
 package org.brunel.maps;
 
-import org.brunel.geom.Point;
 import org.brunel.geom.Poly;
-import org.brunel.geom.Rect;
 import org.brunel.util.MappedLists;
 
 import java.util.ArrayList;
@@ -26,7 +24,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -49,21 +46,18 @@ public class GeoMapping {
      */
     public static GeoMapping createGeoMapping(Poly polygon, List<GeoFile> required, GeoData geoAnalysis, String quality, GeoInformation geoInfo) {
         HashSet<Object> unmatched = new HashSet<>();
-        MappedLists<GeoFile, Object> map = mapBoundsToFiles(polygon, geoAnalysis.getGeoFiles());
+        MappedLists<GeoFile, Object> map = mapBoundsToFiles(polygon, geoAnalysis.getFileIndex());
         GeoMapping mapping = new GeoMapping(required, unmatched, map, quality, geoInfo);
         return mapping.fileCount() > 0 ? mapping : null;
     }
 
     // Create a map from GeoFile index to the points that file contains.
-    private static MappedLists<GeoFile, Object> mapBoundsToFiles(Poly poly, GeoFile[] geoFiles) {
+    private static MappedLists<GeoFile, Object> mapBoundsToFiles(Poly poly, GeoFileIndex index) {
         MappedLists<GeoFile, Object> map = new MappedLists<>();
         if (poly.count() == 0) return map;
-        Rect bounds = poly.bounds;
-        for (GeoFile f : geoFiles) {
-            if (!bounds.intersects(f.bounds)) continue;             // Ignore if outside the bounds
-            for (Point p : poly.points)
-                if (f.covers(p)) map.add(f, p);
-        }
+        GeoFile[][] covering = index.locate(poly.points, poly.bounds);    // Ignores files outside the bounds
+        for (int i = 0; i < covering.length; i++)
+            for (GeoFile f : covering[i]) map.add(f, poly.points[i]);
         return map;
     }
 
@@ -82,10 +76,18 @@ public class GeoMapping {
         return mapping.fileCount() > 0 ? mapping : null;
     }
 
-    private final String quality;
+    private final String quality;                                                   // Null when chosen from the area shown
 
-    public String getQuality() {
-        return quality;
+    /**
+     * The quality of a feature file to use. Unless one was asked for, it depends on how much of the world is shown,
+     * and how much of the file that is
+     *
+     * @param index index of the file in getFiles()
+     * @return quality name
+     */
+    public String getQuality(int index) {
+        if (quality != null) return quality;
+        return geoInformation == null ? "med" : geoInformation.getQuality(files[index].bounds);
     }
 
     public boolean isReference() {
@@ -113,6 +115,14 @@ public class GeoMapping {
     final GeoFile[] files;                                                 // The files to use
     private final MappedLists<GeoFile, Object> potential;                           // Files that contain wanted items
     private GeoFileGroup best;                                                      // We search to determine this
+    private GeoFile[] candidates;                                                   // Files to search, most features first
+    private int[] sizes;                                                            // Number of features in each of those
+    private GeoFileGroup greedy;                                                    // A good group found quickly
+    private int searched;                                                           // Groups tried so far
+    private long searchDeadline;                                                    // Time to stop searching, if any
+
+    static int searchLimit = 1000000;       // Most groups to try before using the best found so far
+    static long searchTime = 0;             // If positive, most milliseconds to search; this depends on machine load
 
     private GeoMapping(List<GeoFile> required, Set<Object> unmatched, MappedLists<GeoFile, Object> potential, String quality, GeoInformation geoInformation) {
         this.quality = quality;
@@ -163,37 +173,46 @@ public class GeoMapping {
         return filtered;
     }
 
-    // Recursively search for the best files to add
-    private void searchForBestAdditions(GeoFileGroup current, List<GeoFile> possibles) {
-//         System.out.println("Searching w/ current=" + current + ", base=" +  best+ ", possibles=" + possibles);
-        if (current.isBetter(best)) {
-//             System.out.println(" *** improved");
-            best = current;                     // If we are the best, update
-        }
-        if (possibles.isEmpty()) return;                                    // No more we can do
-        int maxImprovement = potential.get(possibles.get(0)).size();        // Additions can at best add this many
-        if (current.cannotImprove(best, maxImprovement)) return;            // If we cannot get better, stop searching
+    // Search for the best files to add after the current ones, returning false if the search ran out of time
+    private boolean searchForBestAdditions(GeoFileGroup current, int next) {
+        if (current.isBetter(best)) best = current;                        // If we are the best, update
+        if (next == candidates.length) return true;                         // No more we can do
+        int bestCount = Math.max(best.contentCount(), greedy.contentCount());
+        if (current.cannotImprove(bestCount, sizes, next)) return true;     // If we cannot get better, stop searching
 
         // recurse to search for best combination
-        LinkedList<GeoFile> working = new LinkedList<>(possibles);
-        while (!working.isEmpty()) {
-            GeoFile k = working.removeFirst();
-            GeoFileGroup trial = current.add(k);                            // Will be null if known to be useless
-            if (trial != null) searchForBestAdditions(trial, working);
+        for (int i = next; i < candidates.length; i++) {
+            if (++searched > searchLimit) return false;
+            if (searchTime > 0 && searched % 1024 == 0 && System.currentTimeMillis() > searchDeadline) return false;
+            GeoFileGroup trial = current.add(candidates[i]);                // Will be null if known to be useless
+            if (trial != null && !searchForBestAdditions(trial, i + 1)) return false;
         }
+        return true;
     }
 
     private void searchForBestSubset() {
-        best = GeoFileGroup.makeEmpty(potential);
+        GeoFileGroup empty = GeoFileGroup.makeEmpty(potential);
 
-        // Create list of possible ones to use, sorted with the most features first
+        // Create list of possible ones to use, sorted with the most features first, then by name so ties are repeatable
         List<GeoFile> possibles = new ArrayList<>(potential.keySet());
         Collections.sort(possibles, new Comparator<GeoFile>() {
             public int compare(GeoFile a, GeoFile b) {
-                return potential.get(b).size() - potential.get(a).size();
+                int d = potential.get(b).size() - potential.get(a).size();
+                return d != 0 ? d : a.name.compareTo(b.name);
             }
         });
-        searchForBestAdditions(best, possibles);
+        candidates = possibles.toArray(new GeoFile[possibles.size()]);
+        sizes = new int[candidates.length];
+        for (int i = 0; i < sizes.length; i++) sizes[i] = potential.get(candidates[i]).size();
+
+        // A greedy choice is usually close to the best, so the search can discard most groups quickly.
+        // It is only used if the search runs out of time, so ties are still broken in search order
+        greedy = empty.extendGreedily(candidates);
+
+        best = empty;
+        searched = 0;
+        searchDeadline = System.currentTimeMillis() + searchTime;
+        if (!searchForBestAdditions(empty, 0) && greedy.isBetter(best)) best = greedy;
     }
 
 }
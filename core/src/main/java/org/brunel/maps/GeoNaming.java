@@ -31,6 +31,18 @@ class GeoNaming {
 
     private static final Pattern PATTERN = Pattern.compile("\\p{InCombiningDiacriticalMarks}+"); // Removes diacretics
 
+    // Patterns are compiled once as names are canonicalized for every lookup
+    private static final Pattern APOSTROPHES = Pattern.compile("[\u2019`]");
+    private static final Pattern AND = Pattern.compile(" +and +");
+    private static final Pattern SPACES = Pattern.compile("  +");
+    private static final Pattern WHITESPACE = Pattern.compile("[ \t]+");
+    private static final Pattern SAINT = Pattern.compile("st\\.[ ]*");
+    private static final Pattern DEMOCRATIC = Pattern.compile("dem\\.[ ]*");
+    private static final Pattern REPUBLIC = Pattern.compile("rep\\.[ ]*");
+    private static final Pattern ISLANDS = Pattern.compile("is\\.[ ]*");
+    private static final Pattern REPEATED_SPACES = Pattern.compile(" [ ]+");
+    private static final Pattern PERIODS = Pattern.compile("\\.");
+
     // Common renamings
     private static final String MAPPING = "uk:united kingdom|britain:united kingdom|great britain:united kingdom" +
             "|united states:united states of america|united states:united states of america|usa:united states of america" +
@@ -48,15 +60,16 @@ class GeoNaming {
 
     public static String canonical(String s) {
 
-        s = removeAccents(s.toLowerCase())                  // lower case and strip diacretics
-                .replaceAll("\u2019", "'")                  // simple apostrophes
-                .replaceAll("`", "'")                       // simple apostrophes
-                .replaceAll(" +and +", " & ")               // no ampersands
-                .replaceAll("  +", " ");                    // single spaces only
+        // Each pattern is only used when the text it looks for is present
+        s = removeAccents(s.toLowerCase());                 // lower case and strip diacretics
+        if (s.indexOf('\u2019') >= 0 || s.indexOf('`') >= 0)
+            s = replace(APOSTROPHES, s, "'");               // simple apostrophes
+        if (s.contains(" and ")) s = replace(AND, s, " & ");   // no ampersands
+        if (s.contains("  ")) s = replace(SPACES, s, " ");     // single spaces only
 
         String common = commonNames.get(s);
         if (common != null) s = common;
-        s = s.replaceAll("[ \t]+", " ");
+        if (s.indexOf('\t') >= 0 || s.contains("  ")) s = replace(WHITESPACE, s, " ");
         s = expandAbbreviations(s.toLowerCase());
 
         // Lots of variations of this start
@@ -66,14 +79,28 @@ class GeoNaming {
     }
 
     private static String expandAbbreviations(String s) {
-        return s.replaceAll("st\\.[ ]*", "saint ")
-                .replaceAll("dem\\.[ ]*", "democratic ")
-                .replaceAll("rep\\.[ ]*", "republic ")
-                .replaceAll("is\\.[ ]*", "islands ")
-                .replaceAll(" [ ]+", " ").trim();
+        if (s.indexOf('.') >= 0) {
+            s = replace(SAINT, s, "saint ");
+            s = replace(DEMOCRATIC, s, "democratic ");
+            s = replace(REPUBLIC, s, "republic ");
+            s = replace(ISLANDS, s, "islands ");
+        }
+        if (s.contains("  ")) s = replace(REPEATED_SPACES, s, " ");
+        return s.trim();
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) >= 0x80) return false;
+        return true;
+    }
+
+    private static String replace(Pattern pattern, String s, String replacement) {
+        return pattern.matcher(s).replaceAll(replacement);
     }
 
     private static String removeAccents(String s) {
+        if (isAscii(s)) return s;                           // Nothing to remove
         String decomposed = Normalizer.normalize(s, Form.NFD);
         return PATTERN.matcher(decomposed).replaceAll("");
     }
@@ -81,7 +108,8 @@ class GeoNaming {
     private static String removePeriods(String s) {
         // Do not remove from XX.YY pattern
         if (s.length() == 5 && s.charAt(2) == '.') return s;
-        return s.replaceAll("\\.", "");
+        if (s.indexOf('.') < 0) return s;
+        return replace(PERIODS, s, "");
     }
 
     public static List<String> variants(String name) {
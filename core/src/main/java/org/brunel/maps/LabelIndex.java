@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.geom.Rect;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A grid over the label points of a file. Each cell keeps its points most important first,
+ * so the most important points in a rectangle are found by merging the cells the rectangle touches.
+ */
+class LabelIndex {
+
+    private static final int POINTS_PER_CELL = 32;              // Aim for this many in a cell
+    private static final int MAX_CELLS = 16;                    // At most this many cells in each direction
+
+    /**
+     * The most important label points within some bounds
+     *
+     * @param indices   indices to search
+     * @param bounds    bounds the points must lie within
+     * @param maxPoints the most points wanted
+     * @return distinct points, most important first
+     */
+    static List<LabelPoint> mostImportant(Collection<LabelIndex> indices, Rect bounds, int maxPoints) {
+        PriorityQueue<Run> runs = new PriorityQueue<>();
+        for (LabelIndex index : indices) index.addRuns(bounds, runs);
+
+        // Take the best point of all the runs until we have enough
+        Set<LabelPoint> found = new HashSet<>();
+        List<LabelPoint> result = new ArrayList<>();
+        while (result.size() < maxPoints && !runs.isEmpty()) {
+            Run run = runs.poll();
+            LabelPoint p = run.points[run.next++];
+            if (bounds.contains(p) && found.add(p)) result.add(p);
+            if (run.next < run.points.length) runs.add(run);
+        }
+        return result;
+    }
+
+    private final Rect extent;                                  // Bounds of all the points
+    private final int columns, rows;
+    private final LabelPoint[][] cells;                         // Points in each cell, most important first
+
+    /**
+     * Makes the index
+     *
+     * @param points label points, most important first
+     */
+    LabelIndex(List<LabelPoint> points) {
+        Rect r = null;
+        for (LabelPoint p : points) r = r == null ? new Rect(p.x, p.x, p.y, p.y) : r.union(p);
+        extent = r;
+        int side = (int) Math.ceil(Math.sqrt(points.size() / (double) POINTS_PER_CELL));
+        columns = rows = Math.max(1, Math.min(MAX_CELLS, side));
+
+        List<List<LabelPoint>> lists = new ArrayList<>();
+        for (int i = 0; i < columns * rows; i++) lists.add(new ArrayList<LabelPoint>());
+        for (LabelPoint p : points) lists.get(row(p.y) * columns + column(p.x)).add(p);
+        cells = new LabelPoint[lists.size()][];
+        for (int i = 0; i < cells.length; i++) cells[i] = lists.get(i).toArray(new LabelPoint[lists.get(i).size()]);
+    }
+
+    private void addRuns(Rect bounds, PriorityQueue<Run> runs) {
+        if (extent == null || !extent.intersects(bounds)) return;
+        for (int r = row(bounds.top); r <= row(bounds.bottom); r++)
+            for (int c = column(bounds.left); c <= column(bounds.right); c++) {
+                LabelPoint[] points = cells[r * columns + c];
+                if (points.length > 0) runs.add(new Run(points));
+            }
+    }
+
+    private int column(double x) {
+        return cell(x, extent.left, extent.right, columns);
+    }
+
+    private int row(double y) {
+        return cell(y, extent.top, extent.bottom, rows);
+    }
+
+    private static int cell(double v, double low, double high, int n) {
+        if (high <= low) return 0;
+        return Math.max(0, Math.min(n - 1, (int) ((v - low) / (high - low) * n)));
+    }
+
+    /* The points of a cell not yet used, ordered by the next point */
+    private static class Run implements Comparable<Run> {
+        private final LabelPoint[] points;
+        private int next;
+
+        private Run(LabelPoint[] points) {
+            this.points = points;
+        }
+
+        public int compareTo(Run o) {
+            return points[next].compareTo(o.points[o.next]);
+        }
+    }
+}
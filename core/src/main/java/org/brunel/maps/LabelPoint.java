@@ -37,7 +37,7 @@ public class LabelPoint extends Point {
     );
   }
 
-  private LabelPoint(double x, double y, String label, int pop, int importance) {
+  LabelPoint(double x, double y, String label, int pop, int importance) {
     super(x, y);
     this.label = label;
     this.pop = pop;
@@ -61,11 +61,12 @@ class Albers extends Projection {
                 + LN + rotate;
     }
 
-    public Point transform(Point p) {
-        double a = Math.toRadians(p.x + rotation);
-        double b = Math.toRadians(p.y);
+    void transform(double[] x, double[] y, double[] px, double[] py, int i) {
+        double a = Math.toRadians(x[i] + rotation);
+        double b = Math.toRadians(y[i]);
         double r = Math.sqrt(C - 2 * n * Math.sin(b)) / n;
-        return new Point(r * Math.sin(a * n), r1 - r * Math.cos(a * n));
+        px[i] = r * Math.sin(a * n);
+        py[i] = r1 - r * Math.cos(a * n);
     }
 
     @SuppressWarnings("SuspiciousNameCombination")
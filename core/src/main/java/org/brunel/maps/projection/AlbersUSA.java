@@ -55,34 +55,34 @@ class AlbersUSA extends Projection {
     }
 
     /**
-     * Transform a point
-     * @param p point in lat/long coordinates
-     * @return projected location, subject to one of the four sub-transforms
+     * Transform a point, using one of the four sub-transforms and then shifting it into place
      */
-    public Point transform(Point p) {
-        Point q;
-        if (p.y > 50) {
+    void transform(double[] x, double[] y, double[] px, double[] py, int i) {
+        double a = x[i], b = y[i];
+        if (b > 50) {
             // Alaska
-            q= shift(alaska.transform(p), alaskaTopLeft, 0, 0.75);
-        } else if (p.x < -140) {
+            alaska.transform(x, y, px, py, i);
+            shift(px, py, i, alaskaTopLeft, 0, 0.75);
+        } else if (a < -140) {
             // Hawaii
-            q= shift(hawaii.transform(p), hawaiiTopLeft, 0.33, 0.8);
-        } else if (p.y < 21 ) {
+            hawaii.transform(x, y, px, py, i);
+            shift(px, py, i, hawaiiTopLeft, 0.33, 0.8);
+        } else if (b < 21) {
             // Puerto Rico
-            q= shift(pr.transform(p), prTopLeft, 0.7, 0.8);
+            pr.transform(x, y, px, py, i);
+            shift(px, py, i, prTopLeft, 0.7, 0.8);
         } else {
             // Lower 48
-            q= lower48.transform(p);
+            lower48.transform(x, y, px, py, i);
         }
-        return q;
     }
 
     public Point inverse(Point p) {
         throw new UnsupportedOperationException("Not supported");
     }
 
-    private Point shift(Point point, Point base, double targetX, double targetY) {
-        return new Point((point.x - base.x) * targetX * lower48Rect.width() + lower48Rect.left,
-                (point.y - base.y) * targetY * lower48Rect.height() + lower48Rect.top);
+    private void shift(double[] px, double[] py, int i, Point base, double targetX, double targetY) {
+        px[i] = (px[i] - base.x) * targetX * lower48Rect.width() + lower48Rect.left;
+        py[i] = (py[i] - base.y) * targetY * lower48Rect.height() + lower48Rect.top;
     }
 }
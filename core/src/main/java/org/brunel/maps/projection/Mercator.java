@@ -37,11 +37,12 @@ class Mercator extends Projection {
                 + LN + center;
     }
 
-    public Point transform(Point p) {
-        double a = Math.toRadians(p.x);
-        double lon = Math.min(89.5, Math.max(p.y, -89.5));
+    void transform(double[] x, double[] y, double[] px, double[] py, int i) {
+        double a = Math.toRadians(x[i]);
+        double lon = Math.min(89.5, Math.max(y[i], -89.5));
         double b = Math.toRadians(lon);
-        return new Point(a, Math.log(Math.tan(Math.PI / 4 + b / 2)));
+        px[i] = a;
+        py[i] = Math.log(Math.tan(Math.PI / 4 + b / 2));
     }
 
     public Point inverse(Point p) {
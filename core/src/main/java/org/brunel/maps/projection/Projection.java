@@ -30,15 +30,36 @@ import java.util.Locale;
 public abstract class Projection {
 
     public Rect projectedBounds(Point[] points) {
-        Rect r = null;
-        for (Point p : points) {
-            Point q = transform(p);
-            if (r==null)
-                r = new Rect(q.x, q.x, q.y,q.y);
-            else
-                r = r.union(q);
+        double[] x = new double[points.length];
+        double[] y = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            x[i] = points[i].x;
+            y[i] = points[i].y;
         }
-        return r;
+        return projectedBounds(x, y);
+    }
+
+    /**
+     * Bounds of a set of points after projection
+     *
+     * @param x longitudes
+     * @param y latitudes, same length as the longitudes
+     * @return bounds in projected space, or null if there are no points
+     */
+    public Rect projectedBounds(double[] x, double[] y) {
+        int n = x.length;
+        if (n == 0) return null;
+        double[] px = new double[n];
+        double[] py = new double[n];
+        transform(x, y, px, py);
+        double left = px[0], right = px[0], top = py[0], bottom = py[0];
+        for (int i = 1; i < n; i++) {
+            left = Math.min(left, px[i]);
+            right = Math.max(right, px[i]);
+            top = Math.min(top, py[i]);
+            bottom = Math.max(bottom, py[i]);
+        }
+        return new Rect(left, right, top, bottom);
     }
 
     // Output formatting must be in US default
@@ -73,8 +94,11 @@ public abstract class Projection {
      */
     public double getTissotArea(Point p) {
         double h = 5e-4;            // About 50m at the equator
-        double dx = Math.abs(transform(p.translate(-h, 0)).x - transform(p.translate(h, 0)).x);
-        double dy = Math.abs(transform(p.translate(0, -h)).y - transform(p.translate(0, h)).y);
+        double[] x = new double[]{p.x - h, p.x + h, p.x, p.x};
+        double[] y = new double[]{p.y, p.y, p.y - h, p.y + h};
+        transform(x, y, x, y);
+        double dx = Math.abs(x[0] - x[1]);
+        double dy = Math.abs(y[2] - y[3]);
         return dx * dy;
     }
 
@@ -84,7 +108,37 @@ public abstract class Projection {
      * @param p point in lat/long coordinates
      * @return 2D screen coordinates
      */
-    public abstract Point transform(Point p);
+    public Point transform(Point p) {
+        double[] x = new double[]{p.x};
+        double[] y = new double[]{p.y};
+        transform(x, y, x, y, 0);
+        return new Point(x[0], y[0]);
+    }
+
+    /**
+     * Projects forward a batch of points without creating any objects.
+     * The output arrays may be the same as the input ones, in which case the projection is done in place.
+     *
+     * @param x  longitudes
+     * @param y  latitudes
+     * @param px receives the projected x coordinates
+     * @param py receives the projected y coordinates
+     */
+    public void transform(double[] x, double[] y, double[] px, double[] py) {
+        for (int i = 0; i < x.length; i++)
+            transform(x, y, px, py, i);
+    }
+
+    /**
+     * Projects a single item of a batch; implementations must read both inputs before writing any outputs
+     *
+     * @param x  longitudes
+     * @param y  latitudes
+     * @param px receives the projected x coordinate
+     * @param py receives the projected y coordinate
+     * @param i  index of the item to project
+     */
+    abstract void transform(double[] x, double[] y, double[] px, double[] py, int i);
 
     /**
      * Projects backwards. May not be defined for all projections
@@ -101,13 +155,7 @@ public abstract class Projection {
      * @return size in projected coordinate space
      */
     Rect transform(Rect b) {
-        Rect bounds = null;
-        for (Point pt : b.makeBoundaryPoints()) {
-            Point p = transform(pt);
-            if (bounds == null) bounds = new Rect(p.x, p.x, p.y, p.y);
-            else bounds = bounds.union(p);
-        }
-        return bounds;
+        return projectedBounds(b.makeBoundaryPoints());
     }
 
 }
@@ -29,23 +29,35 @@ class WinkelTripel extends Projection {
 
         // Finding the center is tricky because we cannot invert the transform so we have to search for it
         // We just do a grid search; Slow, but simple. First by y (using the center as the x, then by x
+        // Each pass projects all its candidates in a single batch
+        double[] px = new double[180], py = new double[180];
+        for (int i = 0; i < 180; i++) {
+            px[i] = bounds.cx();
+            py[i] = i - 90;
+        }
+        transform(px, py, px, py);
         double y = 0, dy = 9e99;
-        for (int i = -90; i < 90; i++) {
-            Point p = transform(new Point(bounds.cx(), i));
-            double dp = Math.abs(p.y - ext.cy());
+        for (int i = 0; i < 180; i++) {
+            double dp = Math.abs(py[i] - ext.cy());
             if (dp < dy) {
                 dy = dp;
-                y = i;
+                y = i - 90;
             }
         }
 
+        px = new double[360];
+        py = new double[360];
+        for (int i = 0; i < 360; i++) {
+            px[i] = i - 180;
+            py[i] = y;
+        }
+        transform(px, py, px, py);
         double x = 0, dx = 9e99;
-        for (int i = -180; i < 180; i++) {
-            Point p = transform(new Point(i, y));
-            double dp = Math.abs(p.x - ext.cx());
+        for (int i = 0; i < 360; i++) {
+            double dp = Math.abs(px[i] - ext.cx());
             if (dp < dx) {
                 dx = dp;
-                x = i;
+                x = i - 180;
             }
         }
 
@@ -56,15 +68,15 @@ class WinkelTripel extends Projection {
                 + LN + center;
     }
 
-    public Point transform(Point p) {
-        double x = Math.toRadians(p.x);
-        double y = Math.toRadians(p.y);
+    void transform(double[] xs, double[] ys, double[] px, double[] py, int i) {
+        double x = Math.toRadians(xs[i]);
+        double y = Math.toRadians(ys[i]);
 
         double a = Math.acos(Math.cos(y) * Math.cos(x / 2));
         double sinca = Math.abs(a) < 1e-6 ? 1 : Math.sin(a) / a;
 
-        return new Point(Math.cos(y) * Math.sin(x / 2) / sinca + x / Math.PI,
-                (Math.sin(y) * sinca + y) / 2);
+        px[i] = Math.cos(y) * Math.sin(x / 2) / sinca + x / Math.PI;
+        py[i] = (Math.sin(y) * sinca + y) / 2;
     }
 
     public Point inverse(Point p) {
@@ -25,7 +25,10 @@ import org.brunel.build.VisualizationBuilder;
 import org.brunel.build.util.BuilderOptions;
 import org.brunel.build.util.DataCache;
 import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.io.ArrowFormat;
 import org.brunel.data.io.CSV;
+import org.brunel.data.io.Serialize;
 import org.brunel.model.VisException;
 import org.brunel.model.VisItem;
 
@@ -64,6 +67,31 @@ public class D3Integration {
 	    	}
     }
 
+	/**
+	 * Create and return the Brunel results as a String containing the Brunel JSON.
+	 * This is the same as the CSV version, but the data is passed in binary form, which is much faster to transfer and read.
+	 * It has a different name so a null data argument still matches the CSV version unambiguously
+	 * @param data the data as bytes in the Arrow IPC stream or file format, or made by Serialize.serializeDataset
+	 * @param brunelSrc the brunel syntax
+	 * @param width the desired width for the visualization
+	 * @param height the desired height for the visualization
+	 * @param visId an identifier used in the SVG tag that will contain the visualization
+	 * @param controlsId an identifier for the controls
+	 * @return a String that is JSON containing the Brunel JS, CSS and interactive control metadata.
+	 */
+
+	//Note:   This method is called from other languages.
+	//Do not modify this method signature without checking all language integrations.
+    public static String createBrunelJSONFromBytes(byte[] data, String brunelSrc, int width,  int height, String visId, String controlsId) {
+			try {
+				BrunelD3Result result = makeResult(makeBrunelData(data), brunelSrc, width, height, visId, controlsId);
+				return gson.toJson(result) ;
+			}
+			catch (Exception ex) {
+	    		throw new RuntimeException(buildExceptionMessage(ex,ex.getMessage(), ".  "));
+	    	}
+    }
+
     /**
      * Store a dataset in the cache with the given key.  The key can then be used in Brunel data() statements to reference that data.
      * @param dataKey a unique key name for the data
@@ -86,6 +114,17 @@ public class D3Integration {
     	DataCache.store(dataKey, makeBrunelData(csv));
     }
 
+    /**
+     * Store a dataset provided in binary form in the cache with the given key.  The key can then be used in Brunel data() statements to reference that data.
+     * @param dataKey a unique key name for the data
+     * @param data the dataset as bytes in the Arrow IPC stream or file format, or made by Serialize.serializeDataset
+     */
+	//Note:   This method is called from other languages.
+	//Do not modify this method signature without checking all language integrations.
+    public static void cacheData(String dataKey, byte[] data) {
+    	DataCache.store(dataKey, makeBrunelData(data));
+    }
+
     /*
      * Get all dataset names from data() statements that are supplied in the given brunel.
      * @param brunel the brunel syntax
@@ -128,7 +167,10 @@ public class D3Integration {
 	 */
 
     public static BrunelD3Result createBrunelResult(String data, String brunelSrc, int width,  int height, String visId, String controlsId) {
-    			Dataset dataset = makeBrunelData(data);
+    			return makeResult(makeBrunelData(data), brunelSrc, width, height, visId, controlsId);
+    }
+
+    private static BrunelD3Result makeResult(Dataset dataset, String brunelSrc, int width,  int height, String visId, String controlsId) {
 				VisualizationBuilder builder = makeD3(dataset, brunelSrc, width, height, visId, controlsId);
 				BrunelD3Result result = new BrunelD3Result();
 				result.css = builder.getStyleOverrides();
@@ -184,6 +226,19 @@ public class D3Integration {
 
     }
 
+    //Create a Dataset instance given bytes; serialized data starts with a version byte, and Arrow data never does
+    private static Dataset makeBrunelData(byte[] data) {
+    	if (data == null || data.length == 0) return null;
+    	try {
+    		if (data[0] != Serialize.VERSION) return ArrowFormat.read(data);
+    		Object result = Serialize.deserialize(data);
+    		if (result instanceof Field) return Dataset.make(new Field[]{(Field) result});
+    		return (Dataset) result;
+    	} catch (Exception e) {
+    		throw new IllegalArgumentException("Could not create data from binary content", e);
+    	}
+    }
+
 
     //Create the VisItem instance for the given Brunel
     private static VisItem makeVisItem(Dataset brunel, String actionText) {
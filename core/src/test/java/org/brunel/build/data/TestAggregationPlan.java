@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.build.data;
+
+import org.brunel.action.Action;
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.Fields;
+import org.brunel.model.VisItem;
+import org.brunel.util.D3Integration;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+
+/**
+ * Tests aggregation plans, checking that building with the aggregated data gives the same visualization
+ */
+public class TestAggregationPlan {
+
+    private static final String[] AGGREGATED = {
+            "x(region) y(population) mean(population)",
+            "bar x(region) y(#count) color(presidential_choice) stack",
+            "x(region) y(population) sum(population) color(presidential_choice) stack",
+            "bar x(region) y(income) max(income) + point x(region) y(income) max(income)",
+            "x(region) y(population) percent(population) color(presidential_choice)",
+            "bubble color(region) size(#count) label(region)",
+            "x(region) y(summer, winter) mean(summer, winter) color(#series)",
+            "treemap x(region, presidential_choice) size(#count) color(presidential_choice)"
+    };
+
+    private static final String[] NOT_AGGREGATED = {
+            "x(winter) y(summer)",
+            "x(income) y(population) bin(income) sum(population)",
+            "x(region) y(population) median(population)",
+            "x(region) y(#count) filter(income)",
+            "x(region) y(population) mean(population) | x(winter) y(summer)",
+            "x(region) y(income) max(income) + x(region) y(income) min(income)",
+            "x(region) y(#row) list(#row)"
+    };
+
+    @Test
+    public void testPlans() {
+        Dataset data = usStates();
+        assertEquals("group by Region measure mean(Population) where valid Region, Population",
+                AggregationPlan.make(AGGREGATED[0], data).toString());
+        assertEquals("group by Region, Presidential_Choice measure ",
+                AggregationPlan.make("treemap x(region, presidential_choice) size(#count)", data).toString());
+        for (String command : NOT_AGGREGATED) assertNull(command, AggregationPlan.make(command, data));
+    }
+
+    @Test
+    public void testRequiredFields() {
+        Dataset data = usStates();
+        assertEquals("[Winter, Summer]", Arrays.toString(AggregationPlan.requiredFields("x(winter) y(summer)", data)));
+        assertEquals("[Region]", Arrays.toString(AggregationPlan.requiredFields("x(region) y(#count) filter(income)", data)));
+        assertEquals("[Winter]", Arrays.toString(AggregationPlan.requiredFields("x(winter) y(summer) + x(winter) y(income)", data)));
+
+        // Rows cannot be removed if any element uses them, or if ranks or row numbers are used
+        assertEquals(0, AggregationPlan.requiredFields("x(winter) y(summer) | treemap x(region) size(#count)", data).length);
+        assertEquals(0, AggregationPlan.requiredFields("x(winter) y(summer) top(summer:5)", data).length);
+        assertEquals(0, AggregationPlan.requiredFields("x(#row) y(summer)", data).length);
+    }
+
+    @Test
+    public void testAggregatedDataBuildsTheSame() {
+        Dataset data = usStates();
+        for (String command : AGGREGATED) {
+            AggregationPlan plan = AggregationPlan.make(command, data);
+            Dataset reduced = aggregate(data, plan);
+            assertEquals(command, build(data, command), build(reduced, command));
+        }
+    }
+
+    private static Dataset usStates() {
+        VisItem item = Action.parse("data('sample:US States.csv')").apply();
+        return item.getDataSets()[0];
+    }
+
+    // The built visualization, with numbers rounded as sums may be added in a different order
+    private static String build(Dataset data, String command) {
+        String js = D3Integration.makeD3(data, command, 500, 400, "vis", "controls").getVisualization().toString();
+        Matcher m = Pattern.compile("-?\\d+\\.\\d+").matcher(js);
+        StringBuffer b = new StringBuffer();
+        while (m.find()) m.appendReplacement(b, new BigDecimal(m.group()).round(new MathContext(8)).stripTrailingZeros().toPlainString());
+        m.appendTail(b);
+        return b.toString();
+    }
+
+    // Aggregates the data as an external data source would
+    private static Dataset aggregate(Dataset data, AggregationPlan plan) {
+        Map<List<Object>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int row = 0; row < data.rowCount(); row++) {
+            boolean valid = true;
+            for (String s : plan.requiredFields()) valid &= data.field(s).value(row) != null;
+            if (!valid) continue;
+            List<Object> key = new ArrayList<>();
+            for (String s : plan.dimensions()) key.add(data.field(s).value(row));
+            if (!groups.containsKey(key)) groups.put(key, new ArrayList<Integer>());
+            groups.get(key).add(row);
+        }
+
+        int n = groups.size();
+        String[] dimensions = plan.dimensions(), measures = plan.measures(), methods = plan.methods();
+        Object[][] values = new Object[dimensions.length + measures.length][n];
+        Object[] counts = new Object[n];
+        int g = 0;
+        for (Map.Entry<List<Object>, List<Integer>> e : groups.entrySet()) {
+            for (int i = 0; i < dimensions.length; i++) values[i][g] = e.getKey().get(i);
+            for (int i = 0; i < measures.length; i++)
+                values[dimensions.length + i][g] = aggregate(data.field(measures[i]), methods[i], e.getValue());
+            counts[g++] = (double) e.getValue().size();
+        }
+
+        String[] names = Arrays.copyOf(dimensions, values.length);
+        System.arraycopy(measures, 0, names, dimensions.length, measures.length);
+        Field[] fields = new Field[values.length];
+        for (int i = 0; i < fields.length; i++) {
+            Field original = data.field(names[i]);
+            fields[i] = Fields.makeColumnField(original.name, original.label, values[i]);
+            if (original.isNumeric()) fields[i].setNumeric();
+            if (original.isDate()) fields[i].set("date", true);
+        }
+        return plan.makeDataset(fields, counts);
+    }
+
+    private static Double aggregate(Field field, String method, List<Integer> rows) {
+        Double result = null;
+        int valid = 0;
+        for (int row : rows) {
+            Double v = Data.asNumeric(field.value(row));
+            if (v == null) continue;
+            valid++;
+            if (result == null) result = v;
+            else if (method.equals("min")) result = Math.min(result, v);
+            else if (method.equals("max")) result = Math.max(result, v);
+            else result += v;
+        }
+        return method.equals("mean") && result != null ? result / valid : result;
+    }
+}
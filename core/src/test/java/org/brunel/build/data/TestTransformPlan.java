@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.build.data;
+
+import org.brunel.action.Action;
+import org.brunel.data.CannedData;
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.model.VisElement;
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+
+/**
+ * Tests the planning of transforms, checking the plans give the same results as applying each transform in turn
+ */
+public class TestTransformPlan {
+
+    private static final String[] COMMANDS = {
+            // The commands used in BuildTests
+            "x(winter) y(summer)",
+            "x(winter) y(summer) size(winter) color(summer)",
+            "x(winter) y(summer) at(40,30,80,50)",
+            "x(winter) y(summer) style('fill:red')",
+
+            // Commands exercising each of the transforms
+            "x(region) y(population) mean(population)",
+            "x(region) y(#count) color(presidential_choice) stack",
+            "x(income) y(population) bin(income) sum(population) color(region) stack",
+            "line x(summer) y(winter) sort(population)",
+            "line x(region) y(income) mean(income) sort(income:ascending)",
+            "line x(date) y(population) sort(region) color(region)",
+            "area x(region) y(population) sum(population) color(presidential_choice) sort(population) stack",
+            "bar x(boys_name) y(#count) sort(#count) filter(region)",
+            "x(region) y(summer, winter) color(#series) sort(summer)",
+            "x(region) y(population) rank(population) sort(population:ascending)",
+            "treemap x(region, state) size(population) color(income) sort(population)"
+    };
+
+    @Test
+    public void testPlan() {
+        TransformParameters params = new TransformParameters();
+        params.constantsCommand = "";
+        params.eachCommand = "";
+        params.filterCommand = "";
+        params.transformCommand = "a=bin";
+        params.summaryCommand = "";
+        params.seriesCommand = "";
+        params.rowCountCommand = "";
+        params.sortCommand = "b";
+        params.sortRowsCommand = "a:ascending";
+        params.stackCommand = "";
+        assertEquals("transform[a=bin] -> sort_then_sort_rows[b, a:ascending]", TransformPlan.make(params).toString());
+
+        params.sortRowsCommand = "";
+        params.stackCommand = "y; a; ; false";
+        assertEquals("transform[a=bin] -> sort[b] -> stack[y; a; ; false]", TransformPlan.make(params).toString());
+    }
+
+    @Test
+    public void testPlanMatchesEachTransformInTurn() {
+        for (String command : COMMANDS) {
+            VisElement vis = Action.parse("data('sample:US States.csv') " + command).apply().getSingle().makeCanonical();
+            TransformParameters params = new TransformParameterBuilder(vis).make();
+            Dataset data = vis.getDataset();
+            assertEquals(command, dump(transformInTurn(data, params)), dump(TransformedData.transform(data, params)));
+        }
+    }
+
+    @Test
+    public void testOnlyUsedFieldsAreTransformed() {
+        VisElement vis = Action.parse("data('sample:US States.csv') x(winter) y(summer) color(region) sort(summer)")
+                .apply().getSingle().makeCanonical();
+        TransformedData data = TransformedData.make(vis);
+        assertEquals("Region, Summer, Winter, #count, #row, #selection", Data.join(data.fields));
+        assertEquals(vis.getDataset().fields.length, data.getSource().fields.length);
+    }
+
+    private static Dataset transformInTurn(Dataset data, TransformParameters params) {
+        return data
+                .addConstants(params.constantsCommand)
+                .each(params.eachCommand)
+                .filter(params.filterCommand)
+                .transform(params.transformCommand)
+                .summarize(params.summaryCommand)
+                .series(params.seriesCommand)
+                .setRowCount(params.rowCountCommand)
+                .sort(params.sortCommand)
+                .sortRows(params.sortRowsCommand)
+                .stack(params.stackCommand);
+    }
+
+    // The data values and also the categories, which sorting may change
+    private static String dump(Dataset data) {
+        StringBuilder b = new StringBuilder(CannedData.dumpData(data));
+        for (Field f : data.fields) b.append(" :: ").append(f.name).append("=").append(Data.join(f.categories()));
+        return b.toString();
+    }
+}
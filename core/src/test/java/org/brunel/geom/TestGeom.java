@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.geom;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+/**
+ * Tests building convex hulls
+ */
+public class TestGeom {
+
+    @Test
+    public void testSimpleHull() {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i <= 4; i++)
+            for (int j = 0; j <= 4; j++)
+                points.add(new Point(i, j));
+        Poly hull = Geom.makeConvexHull(points);
+        assertEquals("[(0.00,0.00), (4.00,0.00), (4.00,4.00), (0.00,4.00)]", Arrays.toString(hull.points));
+    }
+
+    @Test
+    public void testDegenerateHulls() {
+        assertEquals(0, Geom.makeConvexHull(new ArrayList<Point>()).count());
+
+        Poly single = Geom.makeConvexHull(Arrays.asList(new Point(1, 2), new Point(1, 2), new Point(1, 2)));
+        assertEquals("[(1.00,2.00)]", Arrays.toString(single.points));
+        assertEquals(new Rect(1, 1, 2, 2).toString(), single.bounds.toString());
+
+        Poly line = Geom.makeConvexHull(Arrays.asList(new Point(1, 1), new Point(3, 3), new Point(2, 2), new Point(0, 0)));
+        assertEquals("[(0.00,0.00), (3.00,3.00)]", Arrays.toString(line.points));
+    }
+
+    @Test
+    public void testLargeHull() {
+        Random random = new Random(4321);
+        int n = 200000;
+        double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextGaussian();
+            y[i] = random.nextGaussian();
+        }
+        Poly hull = Geom.makeConvexHull(x, y);
+        checkHull(hull, x, y);
+
+        // Splitting into parts gives the same result
+        int threshold = Geom.parallelThreshold;
+        try {
+            Geom.parallelThreshold = 10;
+            assertEquals(Arrays.asList(hull.points), Arrays.asList(Geom.makeConvexHull(x, y).points));
+        } finally {
+            Geom.parallelThreshold = threshold;
+        }
+    }
+
+    // Checks the hull turns left at every vertex, and that no point is outside it
+    private void checkHull(Poly hull, double[] x, double[] y) {
+        Point[] p = hull.points;
+        int n = p.length;
+        assertTrue(n > 3);
+        for (int i = 0; i < n; i++)
+            assertEquals(1, Point.ccw(p[i], p[(i + 1) % n], p[(i + 2) % n]));
+        for (int j = 0; j < x.length; j++) {
+            Point q = new Point(x[j], y[j]);
+            for (int i = 0; i < n; i++)
+                assertTrue(Point.ccw(p[i], p[(i + 1) % n], q) >= 0);
+        }
+    }
+
+}
@@ -18,13 +18,24 @@ package org.brunel.maps;
 
 import org.brunel.action.Param;
 import org.brunel.data.Data;
+import org.brunel.data.Field;
+import org.brunel.data.Fields;
+import org.brunel.geom.Rect;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
 
 /**
  * Tests the output
@@ -60,6 +71,24 @@ public class TestAnalyze {
         assertEquals("UK:[0, 81] france:[0, 77] germany:[0, 61] ireland:[0, 107]", dump(a.getFeatureMap()));
     }
 
+    @Test
+    public void testQuality() {
+        // Chosen from the area shown unless asked for
+        Rect world = new Rect(-180, 180, -90, 90);
+        assertEquals("low", GeoInformation.qualityForExtent(new Rect(-180, 180, -60, 80), world));
+        assertEquals("med", GeoInformation.qualityForExtent(new Rect(-125, -65, 25, 50), world));
+        assertEquals("high", GeoInformation.qualityForExtent(new Rect(-5, 2, 50, 59), new Rect(-9, 2, 49, 61)));
+
+        // A small area of a much larger file does not download the detailed version of the whole file
+        Rect view = new Rect(24, 37.7, 54.17, 55.8);
+        assertEquals("med", GeoInformation.qualityForExtent(view, new Rect(19, 181, 41, 82)));
+        assertEquals("high", GeoInformation.qualityForExtent(view, new Rect(23, 33, 51, 57)));
+
+        assertEquals("med", GeoData.instance().make(new String[]{"France"}, new Param[0]).getQuality(0));
+        Param[] full = new Param[]{Param.makeOption("full")};
+        assertEquals("full", GeoData.instance().make(new String[]{"France"}, full).getQuality(0));
+    }
+
     @Test
     public void testExamples3() {
         GeoMapping a = GeoData.instance().make("FRA,DEU,NY,TX,IA,AL,IN,IL,Nowhere".split(","), new Param[0]);
@@ -139,4 +168,87 @@ public class TestAnalyze {
 
     }
 
+    @Test
+    public void testAllFeatures() throws IOException {
+        // Ensure that choosing files for every feature we know about is not slow
+        Object[] names = allFeatureNames();
+        long t1 = System.currentTimeMillis();
+        GeoMapping a = GeoData.instance().make(names, new Param[0]);
+        long t2 = System.currentTimeMillis();
+        assertEquals("[World, UnitedKingdom, Slovenia]", Arrays.toString(a.getFiles()));
+        if (t2 - t1 > 5000) throw new IllegalStateException("Mapping all features took " + (t2 - t1) + "ms");
+    }
+
+    @Test
+    public void testSearchLimit() throws IOException {
+        // With no time to search, the greedy choice is used
+        int limit = GeoMapping.searchLimit;
+        try {
+            GeoMapping.searchLimit = 0;
+            GeoMapping a = GeoData.instance().make(allFeatureNames(), new Param[0]);
+            assertEquals(3, a.getFiles().length);
+            assertEquals("World", a.getFiles()[0]);
+        } finally {
+            GeoMapping.searchLimit = limit;
+        }
+    }
+
+    @Test
+    public void testSearchTime() throws IOException {
+        // The time limit is off unless set, so the result does not depend on how busy the machine is
+        assertEquals(0, GeoMapping.searchTime);
+        String[] expected = GeoData.instance().make(allFeatureNames(), new Param[0]).getFiles();
+        long time = GeoMapping.searchTime;
+        try {
+            GeoMapping.searchTime = 1;
+            GeoMapping a = GeoData.instance().make(allFeatureNames(), new Param[0]);
+            assertEquals(expected.length, a.getFiles().length);
+            assertEquals("World", a.getFiles()[0]);
+        } finally {
+            GeoMapping.searchTime = time;
+        }
+    }
+
+    @Test
+    public void testFractionGeoNames() {
+        Field a = Fields.makeColumnField("a", null, new Object[]{"France", "Germany", "Nowhere", "France"});
+        assertEquals(0.75, GeoInformation.fractionGeoNames(a), 1e-9);
+
+        // The same categories in another field use the names already matched
+        Field b = Fields.makeColumnField("b", null, new Object[]{"Nowhere", "Germany", "France", "Nowhere"});
+        assertEquals(0.5, GeoInformation.fractionGeoNames(b), 1e-9);
+        assertSame(GeoData.instance().featureByName("Germany"), GeoData.instance().featureByName("Germany"));
+    }
+
+    @Test
+    public void testUnmatchedNamesCacheIsBounded() {
+        // Fields with many categories are matched, but the cache never holds more than its limit
+        int n = GeoInformation.MAX_CACHED_CATEGORIES / 3;
+        for (int k = 0; k < 5; k++) {
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; i++) values[i] = i % 2 == 0 ? "France" : "place " + k + "." + i;
+            assertEquals(0.5, GeoInformation.fractionGeoNames(Fields.makeColumnField("a", null, values)), 0.01);
+            assertTrue(GeoInformation.cachedCategories() <= GeoInformation.MAX_CACHED_CATEGORIES);
+        }
+
+        Object[] values = new Object[GeoInformation.MAX_CACHED_CATEGORIES + 1];
+        for (int i = 0; i < values.length; i++) values[i] = "place " + i;
+        int before = GeoInformation.cachedCategories();
+        assertEquals(0.0, GeoInformation.fractionGeoNames(Fields.makeColumnField("a", null, values)), 1e-9);
+        assertEquals(before, GeoInformation.cachedCategories());
+    }
+
+    // The first name of each feature in the feature details file
+    private Object[] allFeatureNames() throws IOException {
+        List<Object> names = new ArrayList<>();
+        InputStream is = GeoData.class.getResourceAsStream("/org/brunel/maps/geoinfo/featureDetails.txt");
+        try (BufferedReader rdr = new BufferedReader(new InputStreamReader(is, "utf-8"))) {
+            for (String line = rdr.readLine(); line != null; line = rdr.readLine()) {
+                String[] parts = line.split(",");
+                if (parts.length > 2) names.add(parts[2]);
+            }
+        }
+        return names.toArray();
+    }
+
 }
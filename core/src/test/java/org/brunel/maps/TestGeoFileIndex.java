@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.geom.Point;
+import org.brunel.geom.Rect;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static junit.framework.TestCase.assertEquals;
+
+/**
+ * Tests finding the files that cover points, and the labels within bounds
+ */
+public class TestGeoFileIndex {
+
+    @Test
+    public void testMatchesAllFiles() {
+        GeoData data = new GeoData(null);
+        Point[] points = randomPoints(5000);
+        Rect within = new Rect(-30, 60, 20, 70);
+        GeoFile[][] found = data.getFileIndex().locate(points, within);
+        for (int i = 0; i < points.length; i++)
+            assertEquals(points[i].toString(), Arrays.asList(covering(data, points[i], within)), Arrays.asList(found[i]));
+    }
+
+    @Test
+    public void testPreparedHulls() {
+        GeoData data = new GeoData(null);
+        Point[] points = randomPoints(2000);
+        for (GeoFile f : data.getGeoFiles())
+            for (Point p : points) assertEquals(f.name + " " + p, f.hull.contains(p), f.covers(p));
+    }
+
+    @Test
+    public void testMostImportantLabels() {
+        GeoData data = new GeoData(null);
+        GeoFile[] files = data.getGeoFiles();
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            // A few files and a random rectangle
+            Set<GeoFile> used = new HashSet<>();
+            for (int j = random.nextInt(3); j >= 0; j--) used.add(files[random.nextInt(files.length)]);
+            double x = random.nextDouble() * 360 - 180, y = random.nextDouble() * 180 - 90;
+            Rect bounds = new Rect(x, x + random.nextDouble() * 100, y, y + random.nextDouble() * 60);
+
+            // Check against sorting all the points in the bounds
+            Set<LabelPoint> all = new HashSet<>();
+            List<LabelIndex> indices = new ArrayList<>();
+            for (GeoFile f : used) {
+                indices.add(f.labelIndex());
+                for (LabelPoint p : f.labels()) if (bounds.contains(p)) all.add(p);
+            }
+            List<LabelPoint> expected = new ArrayList<>(all);
+            Collections.sort(expected);
+            int max = 1 + random.nextInt(60);
+            if (expected.size() > max) expected = expected.subList(0, max);
+            assertEquals(expected, LabelIndex.mostImportant(indices, bounds, max));
+        }
+    }
+
+    // Uses every file's hull directly
+    private GeoFile[] covering(GeoData data, Point p, Rect within) {
+        List<GeoFile> result = new ArrayList<>();
+        for (GeoFile f : data.getGeoFiles())
+            if (within.intersects(f.bounds) && f.hull.contains(p)) result.add(f);
+        return result.toArray(new GeoFile[result.size()]);
+    }
+
+    private Point[] randomPoints(int n) {
+        Random random = new Random(31);
+        Point[] points = new Point[n];
+        for (int i = 0; i < n; i++) points[i] = new Point(random.nextDouble() * 380 - 190, random.nextDouble() * 190 - 95);
+        return points;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.maps;
+
+import org.brunel.action.Param;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+
+/**
+ * Tests the precompiled geographic index gives the same results as the text files
+ */
+public class TestGeoIndex {
+
+    private static GeoData text, indexed;
+
+    @BeforeClass
+    public static void makeData() throws IOException {
+        text = new GeoData(null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        text.writeIndex(out);
+        indexed = new GeoData(GeoIndex.read(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    public void testFiles() {
+        GeoFile[] a = text.getGeoFiles(), b = indexed.getGeoFiles();
+        assertEquals(a.length, b.length);
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(a[i].name, b[i].name);
+            assertEquals(a[i].bounds.toString(), b[i].bounds.toString());
+            assertEquals(a[i].hull.count(), b[i].hull.count());
+            assertEquals(a[i].labels().toString(), b[i].labels().toString());
+        }
+    }
+
+    @Test
+    public void testFeatures() {
+        String[] names = {"France", "Lux.", "UK", "TX", "Congo, Dem. Rep.", "Myanmar(burma)", "East Germany", "Nowhere"};
+        for (String name : names)
+            assertEquals(name, describe(text.featureByName(name)), describe(indexed.featureByName(name)));
+        assertNull(indexed.featureByName("Nowhere"));
+    }
+
+    @Test
+    public void testRequiredFiles() {
+        Param[] params = {Param.makeString("Africa"), Param.makeString("Texas"), Param.makeString("Beijing")};
+        // Files found by feature are in no particular order
+        assertEquals(new TreeSet<>(names(text.makeRequiredFiles(params))), new TreeSet<>(names(indexed.makeRequiredFiles(params))));
+    }
+
+    @Test
+    public void testSharedLabels() {
+        // The same point is used by every file that contains it
+        LabelPoint p = indexed.getGeoFiles()[0].labels().get(0);
+        for (GeoFile f : indexed.getGeoFiles())
+            for (LabelPoint q : f.labels())
+                if (q.label.equals(p.label) && q.equals(p)) assertSame(p, q);
+    }
+
+    private List<String> names(List<GeoFile> files) {
+        List<String> result = new ArrayList<>();
+        for (GeoFile f : files) result.add(f.name);
+        return result;
+    }
+
+    private String describe(List<GeoData.Feature> features) {
+        if (features == null) return "null";
+        StringBuilder b = new StringBuilder();
+        for (GeoData.Feature f : features) b.append(f.file).append(':').append(f.id).append(' ');
+        return b.toString();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.maps.projection;
+
+import org.brunel.geom.Point;
+import org.brunel.geom.Rect;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+/**
+ * Tests that batch projection matches projecting points one at a time
+ */
+public class TestProjection {
+
+    private static final Projection[] PROJECTIONS = new Projection[]{
+            ProjectionBuilder.MERCATOR, ProjectionBuilder.WINKEL3, ProjectionBuilder.ALBERS_USA,
+            new Albers(20, 50, 30)
+    };
+
+    @Test
+    public void testBatchMatchesSingle() {
+        Random random = new Random(1234);
+        double[] x = new double[1000], y = new double[1000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextDouble() * 360 - 180;
+            y[i] = random.nextDouble() * 170 - 85;
+        }
+        for (Projection p : PROJECTIONS) {
+            double[] px = new double[x.length], py = new double[x.length];
+            p.transform(x, y, px, py);
+            for (int i = 0; i < x.length; i++) {
+                Point q = p.transform(new Point(x[i], y[i]));
+                assertEquals(q.x, px[i], 0);
+                assertEquals(q.y, py[i], 0);
+            }
+
+            // In place gives the same results
+            double[] ix = x.clone(), iy = y.clone();
+            p.transform(ix, iy, ix, iy);
+            for (int i = 0; i < x.length; i++) {
+                assertEquals(px[i], ix[i], 0);
+                assertEquals(py[i], iy[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testProjectedBounds() {
+        Point[] points = new Point[]{new Point(-10, 35), new Point(30, 60), new Point(5, 50)};
+        Rect r = ProjectionBuilder.MERCATOR.projectedBounds(points);
+        assertEquals(Math.toRadians(-10), r.left, 1e-12);
+        assertEquals(Math.toRadians(30), r.right, 1e-12);
+        assertEquals(ProjectionBuilder.MERCATOR.transform(points[0]).y, r.top, 1e-12);
+        assertEquals(ProjectionBuilder.MERCATOR.transform(points[1]).y, r.bottom, 1e-12);
+
+        assertEquals(null, ProjectionBuilder.MERCATOR.projectedBounds(new double[0], new double[0]));
+    }
+
+}
@@ -18,6 +18,12 @@ package org.brunel.util;
 
 import static org.junit.Assert.*;
 
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.Fields;
+import org.brunel.data.io.ArrowFormat;
+import org.brunel.data.io.CSV;
+import org.brunel.data.io.Serialize;
 import org.junit.Test;
 
 public class D3IntegrationTest {
@@ -32,6 +38,37 @@ public class D3IntegrationTest {
 		assertNotNull(json);
 	}
 	
+	@Test
+	public void testBinary() {
+		Dataset dataset = Dataset.make(CSV.read(csv));
+		String action = "x(A) y(B)";
+		String expected = D3Integration.createBrunelJSON(csv, action, 100, 100, "visid", null);
+		assertEquals(expected, D3Integration.createBrunelJSONFromBytes(ArrowFormat.write(dataset), action, 100, 100, "visid", null));
+		assertEquals(expected, D3Integration.createBrunelJSONFromBytes(Serialize.serializeDataset(dataset), action, 100, 100, "visid", null));
+
+		D3Integration.cacheData("binary", ArrowFormat.write(dataset));
+		String json = D3Integration.createBrunelJSONFromBytes(null, "data('binary') x(A) y(B)", 100, 100, "visid", null);
+		assertNotNull(json);
+	}
+
+	@Test
+	public void testBinaryTextColumns() {
+		// Arrow data from pandas holds dates and numbers in object columns as strings, which should be typed as CSV is
+		String text = "when,count\n2015-01-01,4\n2015-02-01,7\n2015-03-01,5";
+		Field when = Fields.makeColumnField("when", "When", new Object[]{"2015-01-01", "2015-02-01", "2015-03-01"});
+		Field count = Fields.makeColumnField("count", "Count", new Object[]{"4", "7", "5"});
+		Dataset strings = Dataset.make(new Field[]{when, count}, false);
+		assertFalse(strings.field("when").isDate());
+
+		String action = "x(when) y(count) line";
+		String expected = D3Integration.createBrunelJSON(text, action, 100, 100, "visid", null);
+		assertEquals(expected, D3Integration.createBrunelJSONFromBytes(ArrowFormat.write(strings), action, 100, 100, "visid", null));
+
+		Dataset d = ArrowFormat.read(ArrowFormat.write(strings));
+		assertTrue(d.field("when").isDate());
+		assertTrue(d.field("count").isNumeric());
+	}
+
 	@Test
 	public void testDatanames() {
 		String brunel = "data('a') x(x) | data('b') x(x) y(y) + data('c') bubble | data('a') bar";
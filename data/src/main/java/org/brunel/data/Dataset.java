@@ -33,15 +33,17 @@ import org.brunel.data.util.DateFormat;
 import org.brunel.data.util.Informative;
 import org.brunel.data.util.ItemsList;
 import org.brunel.data.util.Range;
+import org.brunel.data.util.RowSet;
 import org.brunel.data.values.ColumnProvider;
+import org.brunel.data.values.SelectionProvider;
 import org.brunel.translator.JSTranslation;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -123,7 +125,7 @@ public class Dataset extends Informative implements Serializable {
 		if (!names.contains("#count")) augmented.add(Fields.makeConstantField("#count", "Count", 1.0, len));
 		if (!names.contains("#row")) augmented.add(Fields.makeIndexingField("#row", "Row", len));
 		if (!names.contains("#selection"))
-			augmented.add(Fields.makeConstantField("#selection", "Selection", "\u2717", len));
+			augmented.add(Fields.makeSelectionField(len));
 
 		Field[] ff = augmented.toArray(new Field[augmented.size()]);
 		return new Dataset(ff, null);
@@ -384,7 +386,35 @@ public class Dataset extends Informative implements Serializable {
 	 * @param source the Dataset in which we found the rows
 	 * @param keys   the fields that identify which rows are the same (data keys)
 	 */
+	@JSTranslation(js = "this.modifySelectionByRow(method, row, source, keys);")
 	public void modifySelection(String method, Integer row, Dataset source, String[] keys) {
+		Field sel = field("#selection");
+		if (!(sel.provider instanceof SelectionProvider)) {
+			modifySelectionByRow(method, row, source, keys);
+			return;
+		}
+
+		// Combine the current selection with the rows as sets; clearing for "sel" is just starting with an empty set
+		SelectionProvider selection = (SelectionProvider) sel.provider;
+		RowSet current = method.equals("sel") ? new RowSet() : selection.selected();
+		RowSet expanded = source.expandedOriginalRowSet(row, keys, rowCount());
+		switch (method) {
+			case "sel":
+			case "add":
+				selection.setSelected(current.or(expanded));
+				break;
+			case "sub":
+				selection.setSelected(current.andNot(expanded));
+				break;
+			default:
+				selection.setSelected(current.xor(expanded));
+				break;
+		}
+		sel.valuesChanged();
+	}
+
+	/* Sets the selection state one row at a time; used for Javascript and when the selection is stored as values */
+	private void modifySelectionByRow(String method, Integer row, Dataset source, String[] keys) {
 		String off = Field.VAL_UNSELECTED, on = Field.VAL_SELECTED;
 		Field sel = field("#selection");
 		int n = rowCount();
@@ -444,21 +474,55 @@ public class Dataset extends Informative implements Serializable {
 		return expanded;
 	}
 
+	/*
+	 * As expandedOriginalRows, but collecting the rows into a set and only keeping those below the limit.
+	 * The rows with the same keys are found from a cached index of the keys when possible
+	 */
+	@JSTranslation(ignore = true)
+	private RowSet expandedOriginalRowSet(Integer row, String[] keys, int limit) {
+		if (row == null) return new RowSet();                               // No data -- no rows
+
+		Field[] keyFields = fieldArray(keys);
+		FieldRowComparison compare = new FieldRowComparison(keyFields, null, false);
+		Field rowField = field("#row");
+
+		KeyIndex index = KeyIndex.get(keyFields);
+		int[] candidates = index == null ? null : index.rowsGroupedWith(row);
+		int n = candidates == null ? rowCount() : candidates.length;
+
+		int[] rows = new int[n];
+		int count = 0;
+		for (int k = 0; k < n; k++) {
+			int i = candidates == null ? k : candidates[k];
+			if (compare.compare(i, row) == 0) {
+				Object o = rowField.value(i);
+				if (o instanceof ItemsList) {
+					ItemsList list = (ItemsList) o;
+					for (int j = 0; j < list.size(); j++) {
+						if (count == rows.length) rows = Arrays.copyOf(rows, count * 2 + 1);
+						rows[count++] = (Integer) list.get(j) - 1;
+					}
+				} else if (o != null) {
+					if (count == rows.length) rows = Arrays.copyOf(rows, count * 2 + 1);
+					rows[count++] = (Integer) o - 1;
+				}
+			}
+		}
+
+		// Drop any rows that are not in the target
+		int kept = 0;
+		for (int k = 0; k < count; k++) if (rows[k] < limit) rows[kept++] = rows[k];
+		return RowSet.of(Arrays.copyOf(rows, kept));
+	}
+
 	@JSTranslation(ignore = true)
 	private void writeObject(ObjectOutputStream out) throws IOException {
-		out.write(Serialize.serializeDataset(this));
+		Serialize.serialize(this, out);
 	}
 
 	@JSTranslation(ignore = true)
 	private void readObject(ObjectInputStream in) throws IOException {
-		ByteArrayOutputStream store = new ByteArrayOutputStream();
-		byte[] block = new byte[10240];
-		for (; ; ) {
-			int len = in.read(block);
-			if (len < 0) break;
-			store.write(block, 0, len);
-		}
-		Dataset d = (Dataset) Serialize.deserialize(store.toByteArray());
+		Dataset d = (Dataset) Serialize.deserialize(in);
 		fields = d.fields;
 		fieldByName = d.fieldByName;
 		info = new HashMap<>();
@@ -25,6 +25,11 @@ import org.brunel.data.util.ItemsList;
 import org.brunel.data.util.MapInt;
 import org.brunel.data.util.Range;
 import org.brunel.data.values.Provider;
+import org.brunel.translator.JSTranslation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Field extends Informative implements Comparable<Field> {
 
@@ -35,9 +40,25 @@ public class Field extends Informative implements Comparable<Field> {
   public final String name;                   // unique within the data set
   Provider provider;                          // Provides values for the field (not final as it may need conversion)
 
-  private boolean calculatedNominal, calculatedNumeric, calculatedDate;   // True when we calculate these
+  private boolean calculatedCount, calculatedNominal, calculatedDate;     // True when we calculate these
+  private boolean calculatedExtent, calculatedMoments;                    // Numeric stats tiers, cheapest first
+  private boolean calculatedOrder, calculatedGranularity;                 // Numeric stats tiers that need sorting
   private MapInt categoryOrder;                                           // order of the categories
 
+  @JSTranslation(ignore = true)
+  private FieldIndex index;                   // Sorted index of the values, made when first needed
+  @JSTranslation(ignore = true)
+  private boolean indexMade;                  // True once we have tried to make the index
+  @JSTranslation(ignore = true)
+  private Map<List<Field>, KeyIndex> keyIndexes;  // Indexes of rows for sets of key fields that include this one
+
+  private Field[] statsSources;               // Fields from which our statistics can be derived (null if none)
+  private int statsDerivation;                // How our values relate to the sources' values (DERIVED_XXX)
+
+  static final int DERIVED_PERMUTATION = 1;   // Same values as the single source, in a different order
+  static final int DERIVED_SUBSET = 2;        // A selection of the single source's values, possibly repeated
+  static final int DERIVED_MERGE = 3;         // Values of all the sources, concatenated
+
   public Field(String name, String label, Provider provider) {
     this(name, label, provider, null);
   }
@@ -51,9 +72,7 @@ public class Field extends Informative implements Comparable<Field> {
     if (base != null) {
       if (provider == null) {
         // Ensure that the base field has everything calculated because we cannot calculate lazily later
-        base.makeNominalStats();
-        base.makeNumericStats();
-        base.makeDateStats();
+        base.makeAllStats();
       }
       copyAllProperties(base);
     }
@@ -71,9 +90,56 @@ public class Field extends Informative implements Comparable<Field> {
   public void setValue(Object o, int index) {
     // We may have to convert a provider from a constant provider
     provider = provider.setValue(o, index);
+    valuesChanged();
+  }
+
+  /* Called when values have been changed, so anything derived from the old values is dropped */
+  @JSTranslation(js = "this.statsSources = null;")
+  void valuesChanged() {
+    // Our values no longer relate to the sources' values
+    statsSources = null;
+    indexMade = false;
+    index = null;
+    keyIndexes = null;
+  }
+
+  /* The key index held for the given key fields, or null if there is none */
+  @JSTranslation(ignore = true)
+  synchronized KeyIndex getKeyIndex(List<Field> keys) {
+    return keyIndexes == null ? null : keyIndexes.get(keys);
+  }
+
+  @JSTranslation(ignore = true)
+  synchronized void setKeyIndex(List<Field> keys, KeyIndex keyIndex) {
+    if (keyIndexes == null) keyIndexes = new HashMap<>();
+    keyIndexes.put(keys, keyIndex);
   }
 
   public int compareRows(int a, int b) {
+    return provider.compareRows(a, b, getCategoryOrder());
+  }
+
+  /**
+   * An index of the rows sorted by value, which is made the first time it is asked for and then kept.
+   * The selection field is never indexed, as its values are changed in place and may be shared between fields.
+   *
+   * @return the index, or null if the values cannot be indexed
+   */
+  @JSTranslation(ignore = true)
+  public FieldIndex getIndex() {
+    if (!indexMade) {
+      index = name.equals("#selection") ? null : FieldIndex.make(this);
+      indexMade = true;
+    }
+    return index;
+  }
+
+  /**
+   * The order used when comparing rows; empty if values are compared directly rather than by category
+   *
+   * @return map from category to its position in the order
+   */
+  public MapInt getCategoryOrder() {
     if (categoryOrder == null) {
       // Build it no matter what so next call is faster
       categoryOrder = new MapInt();
@@ -81,42 +147,39 @@ public class Field extends Informative implements Comparable<Field> {
         categoryOrder.index(categories());
       }
     }
-    return provider.compareRows(a, b, categoryOrder);
+    return categoryOrder;
   }
 
   public long expectedSize() {
     return (label.length() + name.length()) * 2 + 84 + 24 + provider.expectedSize();
   }
 
+  /*
+   * Statistics are calculated lazily in tiers of increasing cost, and only the tier
+   * that defines the requested key is calculated. Asking for "min" does not cause a sort,
+   * and asking for "n" does not count categories.
+   */
   public Object property(String key) {
     Object o = super.property(key);
     if (o == null) {
-      if (!calculatedNominal && NominalStats.creates(key)) {
+      if (!calculatedCount && "n".equals(key)) {
+        makeCountStats();
+      } else if (!calculatedNominal && NominalStats.creates(key)) {
         makeNominalStats();
-        o = super.property(key);
-      }
-      if (!calculatedNumeric && NumericStats.creates(key)) {
-        if (!calculatedNominal) {
-          makeNominalStats();
-        }
-        makeNumericStats();
-        o = super.property(key);
-      }
-      if (!calculatedDate && DateStats.creates(key)) {
-        if (isDate()) {
-          if (!calculatedNominal) {
-            makeNominalStats();
-          }
-          if (!calculatedNumeric) {
-            makeNumericStats();
-          }
-          makeDateStats();
-          o = super.property(key);
-        } else {
-          // No need
-          calculatedDate = true;
-        }
+      } else if (!calculatedExtent && NumericStats.createsExtent(key)) {
+        makeExtentStats();
+      } else if (!calculatedMoments && NumericStats.createsMoments(key)) {
+        makeMomentStats();
+      } else if (!calculatedOrder && NumericStats.createsOrder(key)) {
+        makeSortedStats();
+      } else if (!calculatedGranularity && NumericStats.createsGranularity(key)) {
+        makeSortedStats();
+      } else if (!calculatedDate && DateStats.creates(key)) {
+        makeDateStats();
+      } else {
+        return null;
       }
+      o = super.property(key);
     }
     return o;
   }
@@ -124,13 +187,22 @@ public class Field extends Informative implements Comparable<Field> {
   public void setCategories(Object[] cats) {
     set("categories", cats);                // These are the categories
     set("categoriesOrdered", true);         // And we want to keep them in this order
+    set("categoryCounts", null);            // Any existing counts are in the wrong order
+    calculatedNominal = false;
   }
 
-  private void makeDateStats() {
-    if (isNumeric()) {
-      DateStats.populate(this);
-    }
-    calculatedDate = true;
+  /**
+   * Define how this field's values relate to those of other fields, so that statistics
+   * can be derived from those fields' statistics rather than calculated from scratch.
+   * Permutations share every statistic with their source; subsets and merges only use
+   * source statistics that are already known, as calculating directly is cheaper otherwise.
+   *
+   * @param sources    the fields this field's values were taken from
+   * @param derivation one of the DERIVED_XXX values
+   */
+  void deriveStatisticsFrom(Field[] sources, int derivation) {
+    this.statsSources = sources;
+    this.statsDerivation = derivation;
   }
 
   public boolean isNumeric() {
@@ -149,20 +221,125 @@ public class Field extends Informative implements Comparable<Field> {
     return isProperty("binned");
   }
 
-  private void makeNumericStats() {
+  private void makeAllStats() {
+    if (!calculatedCount) makeCountStats();
+    if (!calculatedNominal) makeNominalStats();
+    if (!calculatedExtent) makeExtentStats();
+    if (!calculatedMoments) makeMomentStats();
+    if (!calculatedOrder || !calculatedGranularity) makeSortedStats();
+    if (!calculatedDate) makeDateStats();
+  }
+
+  private void makeCountStats() {
     if (provider != null) {
-      NumericStats.populate(this);
+      set("n", provider.count());
     }
-    calculatedNumeric = true;
+    calculatedCount = true;
   }
 
   private void makeNominalStats() {
-    if (provider != null) {
+    if (provider != null && !deriveNominalStats()) {
       NominalStats.populate(this);
     }
     calculatedNominal = true;
   }
 
+  private void makeExtentStats() {
+    if (provider != null && !deriveFromPermutation("validNumeric", "min", "max") && !deriveExtentFromMerge()) {
+      NumericStats.populateExtent(this);
+    }
+    calculatedExtent = true;
+  }
+
+  private void makeMomentStats() {
+    if (provider != null && !deriveFromPermutation("mean", "stddev", "variance", "skew", "kurtosis")) {
+      NumericStats.populateMoments(this);
+    }
+    calculatedMoments = true;
+  }
+
+  /* The order and granularity tiers both need the values sorted, so they are calculated together from one sort */
+  private void makeSortedStats() {
+    double[] sorted = null;
+    if (!calculatedOrder && provider != null && !deriveFromPermutation("median", "q1", "q3")) {
+      sorted = NumericStats.sortedValues(this);
+      NumericStats.populateOrder(this, sorted);
+    }
+    if (!calculatedGranularity && provider != null && !deriveFromPermutation("minDelta", "granularity", "decimalPlaces")) {
+      if (sorted == null) sorted = NumericStats.sortedValues(this);
+      NumericStats.populateGranularity(this, sorted);
+    }
+    calculatedOrder = true;
+    calculatedGranularity = true;
+  }
+
+  /* A permutation has exactly the same statistics as its source, so we calculate them there and share them */
+  private boolean deriveFromPermutation(String... keys) {
+    if (statsSources == null || statsDerivation != DERIVED_PERMUTATION) {
+      return false;
+    }
+    for (String key : keys) {
+      set(key, statsSources[0].property(key));
+    }
+    return true;
+  }
+
+  private boolean deriveNominalStats() {
+    if (statsSources == null || name.equals("#selection")) {
+      return false;
+    }
+    if (statsDerivation == DERIVED_PERMUTATION) {
+      Field source = statsSources[0];
+      int[] counts = (int[]) source.property("categoryCounts");
+      if (!NominalStats.accountsForAllValues(source)) {
+        return false;
+      }
+      NominalStats.populateFromCounts(this, source.categories(), counts);
+      return true;
+    }
+    for (Field f : statsSources) {
+      if (!f.calculatedNominal) {
+        return false;
+      }
+    }
+    if (statsDerivation == DERIVED_SUBSET) {
+      return NominalStats.accountsForAllValues(statsSources[0])
+        && NominalStats.populateFromSubset(this, statsSources[0].categories());
+    }
+    return NominalStats.populateFromMerge(this, statsSources);
+  }
+
+  /* Extents of concatenated fields are the combined extents of the parts */
+  private boolean deriveExtentFromMerge() {
+    if (statsSources == null || statsDerivation != DERIVED_MERGE) {
+      return false;
+    }
+    int count = 0;
+    Double min = null, max = null;
+    for (Field f : statsSources) {
+      if (!f.calculatedExtent) {
+        return false;
+      }
+      count += f.intProperty("validNumeric");
+      if (f.min() != null) {
+        min = min == null ? f.min() : Math.min(min, f.min());
+        max = max == null ? f.max() : Math.max(max, f.max());
+      }
+    }
+    set("validNumeric", count);
+    set("min", min);
+    set("max", max);
+    return true;
+  }
+
+  private void makeDateStats() {
+    // Date statistics are built from the numeric ones, which will be calculated as needed
+    if (provider != null && isDate() && isNumeric()) {
+      DateStats.populate(this);
+    }
+    calculatedDate = true;
+  }
+
   public Object[] categories() {
     return (Object[]) property("categories");
   }
@@ -211,6 +388,7 @@ public class Field extends Informative implements Comparable<Field> {
   public Field rename(String name, String label) {
     Field field = new Field(name, label, provider);
     field.copyAllProperties(this);
+    field.deriveStatisticsFrom(new Field[]{this}, DERIVED_PERMUTATION);
     return field;
   }
 
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data;
+
+import org.brunel.data.util.RowSet;
+import org.brunel.translator.JSTranslation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A secondary index for a field: the rows with valid (non-null) values, sorted by value using Data.compare.
+ * Rows with equal values are kept in row order. Finding the rows within a range of values, or equal to a value,
+ * needs only binary searches. An index can only be made when the values are all numbers, or all of the same
+ * comparable type, as only then does comparing with a fixed value give a consistent order.
+ */
+@JSTranslation(ignore = true)
+public class FieldIndex {
+
+    private final int[] sortedRows;             // Rows with valid values, in value order
+    private final Object[] sortedValues;        // The values for those rows
+    private final RowSet validRows;             // The rows whose values are not null
+    private final int rowCount;                 // Number of rows in the field
+
+    /**
+     * Make the index for a field
+     *
+     * @param field field to index
+     * @return the index, or null if the field's values cannot be ordered consistently
+     */
+    static FieldIndex make(Field field) {
+        int n = field.rowCount();
+        final Object[] values = new Object[n];
+        int[] validRows = new int[n];
+        Class<?> commonClass = null;
+        boolean allNumbers = true;
+        int valid = 0;
+        for (int i = 0; i < n; i++) {
+            Object o = field.value(i);
+            if (o == null) continue;
+            if (!(o instanceof Comparable)) return null;
+            if (commonClass == null) commonClass = o.getClass();
+            else if (commonClass != o.getClass()) commonClass = Object.class;
+            allNumbers = allNumbers && o instanceof Number;
+            values[i] = o;
+            validRows[valid++] = i;
+        }
+        if (commonClass == Object.class && !allNumbers) return null;
+
+        Integer[] order = new Integer[valid];
+        for (int i = 0; i < valid; i++) order[i] = validRows[i];
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Data.compare(values[a], values[b]);
+            }
+        });
+
+        int[] sortedRows = new int[valid];
+        Object[] sortedValues = new Object[valid];
+        for (int i = 0; i < valid; i++) {
+            sortedRows[i] = order[i];
+            sortedValues[i] = values[order[i]];
+        }
+        return new FieldIndex(sortedRows, sortedValues, RowSet.of(Arrays.copyOf(validRows, valid)), n);
+    }
+
+    private FieldIndex(int[] sortedRows, Object[] sortedValues, RowSet validRows, int rowCount) {
+        this.sortedRows = sortedRows;
+        this.sortedValues = sortedValues;
+        this.validRows = validRows;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return the number of rows in the field
+     */
+    public int rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of rows with valid values
+     */
+    public int validCount() {
+        return sortedRows.length;
+    }
+
+    /**
+     * @param row row to test
+     * @return true if the field's value at that row is null
+     */
+    public boolean isMissing(int row) {
+        return !validRows.contains(row);
+    }
+
+    /**
+     * @return the rows whose values are not null; this set is shared and must not be modified
+     */
+    public RowSet validRows() {
+        return validRows;
+    }
+
+    /**
+     * @param start first position in the sorted order
+     * @param end   the position after the last one wanted
+     * @return new set of the rows at those positions
+     */
+    public RowSet rows(int start, int end) {
+        return RowSet.of(Arrays.copyOfRange(sortedRows, start, Math.max(start, end)));
+    }
+
+    /**
+     * @param position position in the sorted order
+     * @return the row at that position
+     */
+    public int row(int position) {
+        return sortedRows[position];
+    }
+
+    /**
+     * @param position position in the sorted order
+     * @return the value at that position
+     */
+    public Object value(int position) {
+        return sortedValues[position];
+    }
+
+    /**
+     * The first position whose value is not less than the given value
+     *
+     * @param o value to compare with
+     * @return position in the sorted order (the number of valid values if all are less)
+     */
+    public int lowerBound(Object o) {
+        int lo = 0, hi = sortedValues.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Data.compare(sortedValues[mid], o) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The first position whose value is greater than the given value
+     *
+     * @param o value to compare with
+     * @return position in the sorted order (the number of valid values if none are greater)
+     */
+    public int upperBound(Object o) {
+        int lo = 0, hi = sortedValues.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Data.compare(sortedValues[mid], o) <= 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
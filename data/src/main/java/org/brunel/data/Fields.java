@@ -16,10 +16,13 @@
 
 package org.brunel.data;
 
+import org.brunel.data.util.RowSet;
 import org.brunel.data.values.ColumnProvider;
 import org.brunel.data.values.ConstantProvider;
 import org.brunel.data.values.ReorderedProvider;
 import org.brunel.data.values.RowProvider;
+import org.brunel.data.values.SelectionProvider;
+import org.brunel.translator.JSTranslation;
 
 /**
  * Utilities for manipulating fields
@@ -41,6 +44,18 @@ public class Fields {
         return field;
     }
 
+    /**
+     * Define the selection field, with no rows selected.
+     * In Java the selected rows are kept as a set; in Javascript it is a constant field
+     *
+     * @param len field length
+     * @return constructed field
+     */
+    @JSTranslation(js = "return $$CLASS$$.makeConstantField('#selection', 'Selection', '\\u2717', len);")
+    public static Field makeSelectionField(int len) {
+        return new Field("#selection", "Selection", new SelectionProvider(new RowSet(), len));
+    }
+
     /**
      * Define a field that is a simple 1-based indexing
      *
@@ -76,18 +91,55 @@ public class Fields {
      * @return constructed field
      */
     public static Field permute(Field field, int[] order, boolean onlyOrderChanged) {
+        Field selection = permuteSelection(field, order);
+        if (selection != null) return selection;
         if (field.provider instanceof ConstantProvider) {
             // No ned for hard work here -- a permuted constant is still a constant
             if (onlyOrderChanged) return field;
             else return makeConstantField(field.name, field.label, field.value(0), order.length);
         }
-        if (onlyOrderChanged)
-            return new Field(field.name, field.label, new ReorderedProvider(field.provider, order), field);
+        if (onlyOrderChanged) {
+            Field f = new Field(field.name, field.label, new ReorderedProvider(field.provider, order), field);
+            // Statistics are shared only when no rows have been dropped
+            boolean samePermutation = order.length == field.rowCount();
+            f.deriveStatisticsFrom(new Field[]{field}, samePermutation ? Field.DERIVED_PERMUTATION : Field.DERIVED_SUBSET);
+            return f;
+        }
         Field f = new Field(field.name, field.label, new ReorderedProvider(field.provider, order));
         copyBaseProperties(field, f);
+        f.deriveStatisticsFrom(new Field[]{field}, Field.DERIVED_SUBSET);
         return f;
     }
 
+    /* A selection field is given its own set of selected rows, in the same way a constant is given a new constant */
+    @JSTranslation(js = "return null;")
+    private static Field permuteSelection(Field field, int[] order) {
+        if (!(field.provider instanceof SelectionProvider)) return null;
+        return new Field(field.name, field.label, ((SelectionProvider) field.provider).reorder(order));
+    }
+
+    /**
+     * Create a new field by concatenating the values of the given fields
+     *
+     * @param name   field name
+     * @param label  user-readable label for the field
+     * @param fields fields whose values will be placed one after the other
+     * @return constructed field
+     */
+    public static Field concatenate(String name, String label, Field[] fields) {
+        int n = 0;
+        for (Field f : fields) n += f.rowCount();
+        Object[] data = new Object[n];
+        int at = 0;
+        for (Field f : fields) {
+            int m = f.rowCount();
+            for (int i = 0; i < m; i++) data[at++] = f.value(i);
+        }
+        Field field = makeColumnField(name, label, data);
+        field.deriveStatisticsFrom(fields, Field.DERIVED_MERGE);
+        return field;
+    }
+
     /**
      * Copy properties from one field to another
      * @param source source field
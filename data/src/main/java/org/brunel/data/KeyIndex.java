@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data;
+
+import org.brunel.data.util.Range;
+import org.brunel.translator.JSTranslation;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the rows of a data set by their values for a set of key fields, so the rows with the same keys as a given
+ * row can be found without comparing every row. Values are grouped by a key that is never finer than Data.compare
+ * (numbers by their double value, ranges by their mid point) so each group holds all the rows that may match;
+ * callers still compare the rows in the group to find the exact matches.
+ */
+@JSTranslation(ignore = true)
+class KeyIndex {
+
+    private static final Object INVALID = new Object();    // Marks a value that cannot be grouped
+    private static final KeyIndex NONE = new KeyIndex(null, null, null);    // Marks keys that cannot be indexed
+
+    private final int[] groupOfRow;             // The group each row is in
+    private final int[] groupStart;             // Position of each group's first row in 'rows', plus the end
+    private final int[] rows;                   // Rows ordered by group, and by row within each group
+
+    /**
+     * The index for the key fields, made the first time it is needed. Each of the key fields holds the index,
+     * and changing the values of any of them drops it, so an index is only used while all its fields still hold it.
+     * The selection field is never indexed, as its values are changed in place and may be shared between fields.
+     *
+     * @param fields key fields
+     * @return the index, or null if the keys cannot be indexed
+     */
+    static KeyIndex get(Field[] fields) {
+        for (Field f : fields) if (f == null || f.name.equals("#selection")) return null;
+        if (fields.length == 0) return null;
+
+        List<Field> keys = Arrays.asList(fields);
+        KeyIndex index = fields[0].getKeyIndex(keys);
+        for (int i = 1; i < fields.length && index != null; i++)
+            if (fields[i].getKeyIndex(keys) != index) index = null;
+
+        if (index == null) {
+            index = make(fields);
+            if (index == null) index = NONE;
+            for (Field f : fields) f.setKeyIndex(keys, index);
+        }
+        return index == NONE ? null : index;
+    }
+
+    /**
+     * Make the index for the key fields
+     *
+     * @param fields key fields
+     * @return the index, or null if a value is of a type that cannot be grouped this way
+     */
+    static KeyIndex make(Field[] fields) {
+        for (Field f : fields) if (f == null) return null;
+        int n = fields.length == 0 ? 0 : fields[0].rowCount();
+
+        // Find the group of each row
+        Map<Object, Integer> groups = new HashMap<>();
+        int[] groupOfRow = new int[n];
+        for (int row = 0; row < n; row++) {
+            Object key;
+            if (fields.length == 1) {
+                key = groupingKey(fields[0].value(row));
+                if (key == INVALID) return null;
+            } else {
+                Object[] parts = new Object[fields.length];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = groupingKey(fields[i].value(row));
+                    if (parts[i] == INVALID) return null;
+                }
+                key = Arrays.asList(parts);
+            }
+            Integer group = groups.get(key);
+            if (group == null) {
+                group = groups.size();
+                groups.put(key, group);
+            }
+            groupOfRow[row] = group;
+        }
+
+        // Counting sort of the rows by group
+        int[] groupStart = new int[groups.size() + 1];
+        for (int g : groupOfRow) groupStart[g + 1]++;
+        for (int g = 0; g < groups.size(); g++) groupStart[g + 1] += groupStart[g];
+        int[] next = Arrays.copyOf(groupStart, groups.size());
+        int[] rows = new int[n];
+        for (int row = 0; row < n; row++) rows[next[groupOfRow[row]]++] = row;
+        return new KeyIndex(groupOfRow, groupStart, rows);
+    }
+
+    // Equal objects must be equal by Data.compare; INVALID if this cannot be ensured for the value
+    private static Object groupingKey(Object o) {
+        if (o == null || o instanceof String || o instanceof Date || o instanceof Boolean) return o;
+        if (o instanceof Number) return ((Number) o).doubleValue();
+        if (o instanceof Range) return ((Range) o).asNumeric();
+        return INVALID;
+    }
+
+    private KeyIndex(int[] groupOfRow, int[] groupStart, int[] rows) {
+        this.groupOfRow = groupOfRow;
+        this.groupStart = groupStart;
+        this.rows = rows;
+    }
+
+    /**
+     * @param row a row in the data
+     * @return the rows grouped with it (including the row itself), in ascending order
+     */
+    int[] rowsGroupedWith(int row) {
+        int g = groupOfRow[row];
+        return Arrays.copyOfRange(rows, groupStart[g], groupStart[g + 1]);
+    }
+}
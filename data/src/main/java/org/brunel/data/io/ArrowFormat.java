@@ -0,0 +1,982 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.auto.Auto;
+import org.brunel.data.util.MapInt;
+import org.brunel.data.values.ColumnProvider;
+import org.brunel.data.values.Provider;
+import org.brunel.data.values.ReorderedProvider;
+import org.brunel.translator.JSTranslation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes data sets in the Apache Arrow IPC format, so data can be passed between Brunel and other
+ * tools (such as pandas or Spark) without going through CSV text.
+ *
+ * Both the stream format and the file format are read. Numbers and dates are read in place from the Arrow
+ * buffers; strings, booleans and dictionary-encoded columns are decoded when they are read. String and boolean
+ * columns are then converted the same way as CSV columns, as tools such as pandas write numbers and dates held as
+ * text as strings. Booleans become "True" and "False", as pandas writes them to CSV. Nested types, decimals,
+ * times, intervals and compressed buffers are not supported.
+ *
+ * Data sets are written with numbers as 64 bit floats, dates as millisecond timestamps and everything else as
+ * UTF-8 strings, in record batches of at most BATCH_ROWS rows. Field labels that differ from the name are kept
+ * in the field's metadata under "brunel.label".
+ *
+ * The Arrow metadata is encoded with flatbuffers; this class has just enough of a flatbuffer reader and builder
+ * for the Arrow schema and messages, so no Arrow library is needed. This format is Java only.
+ */
+@JSTranslation(ignore = true)
+public class ArrowFormat {
+
+    static final int BATCH_ROWS = 65536;                    // Most rows written in one record batch
+
+    private static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+    private static final String LABEL_KEY = "brunel.label";
+
+    // Message header types
+    private static final byte SCHEMA = 1, DICTIONARY_BATCH = 2, RECORD_BATCH = 3;
+
+    // Type ids for the Arrow types we know about
+    private static final byte NULL = 1, INT = 2, FLOATING_POINT = 3, UTF8 = 5, BOOL = 6, DATE = 8, TIMESTAMP = 10,
+            LARGE_UTF8 = 20;
+
+    private static final short METADATA_V5 = 4;
+    private static final short DOUBLE_PRECISION = 2, MILLISECOND = 1;
+
+    /**
+     * Read a data set from Arrow stream or file format bytes
+     *
+     * @param data Arrow IPC bytes
+     * @return data set, with the special fields added
+     */
+    public static Dataset read(byte[] data) {
+        return read(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Read a data set from Arrow stream or file format bytes, starting at the buffer's position.
+     * Numbers and dates are not copied; they are read from the buffer when used, so the buffer must not be
+     * changed afterwards
+     *
+     * @param data buffer holding Arrow IPC bytes
+     * @return data set, with the special fields added
+     */
+    public static Dataset read(ByteBuffer data) {
+        ByteBuffer in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        Reader reader = new Reader(in);
+        if (isFile(in)) reader.readFile();
+        else reader.readStream();
+        return reader.dataset();
+    }
+
+    /**
+     * Write a data set in the Arrow stream format. Special fields are not written
+     *
+     * @param data data set to write
+     * @return Arrow IPC stream bytes
+     */
+    public static byte[] write(Dataset data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(data, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);         // Cannot happen for a byte array
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write a data set to a stream in the Arrow stream format, one record batch at a time.
+     * Special fields are not written
+     *
+     * @param data data set to write
+     * @param out  stream to write to; this is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(Dataset data, OutputStream out) throws IOException {
+        new Writer(data, out).writeBatches();
+        out.write(new byte[]{-1, -1, -1, -1, 0, 0, 0, 0});     // End of stream marker
+    }
+
+    /**
+     * Write a data set to a stream in the Arrow file format. Special fields are not written
+     *
+     * @param data data set to write
+     * @param out  stream to write to; this is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    public static void writeFile(Dataset data, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(new byte[2]);
+        Writer writer = new Writer(data, out);
+        writer.position = 8;
+        writer.writeBatches();
+        out.write(new byte[]{-1, -1, -1, -1, 0, 0, 0, 0});
+
+        // The footer repeats the schema and gives the position of each record batch
+        Builder b = new Builder();
+        int schema = writer.schema(b);
+        List<long[]> blocks = writer.blocks;
+        b.startVector(24, blocks.size(), 8);
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            b.prep(8, 24);
+            b.putLong(blocks.get(i)[2]);
+            b.pad(4);
+            b.putInt((int) blocks.get(i)[1]);
+            b.putLong(blocks.get(i)[0]);
+        }
+        int batches = b.endVector(blocks.size());
+        b.startVector(24, 0, 8);
+        int dictionaries = b.endVector(0);
+        b.startTable(4);
+        b.addShort(0, METADATA_V5);
+        b.addOffset(1, schema);
+        b.addOffset(2, dictionaries);
+        b.addOffset(3, batches);
+        byte[] footer = b.finish(b.endTable());
+
+        out.write(footer);
+        out.write(intBytes(footer.length));
+        out.write(MAGIC);
+    }
+
+    private static boolean isFile(ByteBuffer in) {
+        if (in.remaining() < 8) return false;
+        for (int i = 0; i < MAGIC.length; i++) if (in.get(i) != MAGIC[i]) return false;
+        return true;
+    }
+
+    private static byte[] intBytes(int v) {
+        return new byte[]{(byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24)};
+    }
+
+    /* Reads the messages and builds the fields from them */
+    private static class Reader {
+        private final ByteBuffer in;
+        private final Map<Long, Object[]> dictionaries = new HashMap<>();
+        private Column[] columns;
+        private int rows;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        void readStream() {
+            int pos = 0;
+            while (pos < in.limit()) {
+                pos = readMessage(pos);
+                if (pos < 0) break;
+            }
+        }
+
+        void readFile() {
+            // The footer is followed by its length and the magic bytes
+            int end = in.limit() - MAGIC.length - 4;
+            Table footer = Table.root(in, end - in.getInt(end));
+            readSchema(footer.table(1));
+            for (int id : new int[]{2, 3}) {
+                int blocks = footer.vector(id);
+                if (blocks < 0) continue;
+                for (int i = 0; i < in.getInt(blocks); i++) {
+                    // Each block is a struct of (long offset, int metadata length, padding, long body length)
+                    readMessage((int) in.getLong(blocks + 4 + 24 * i));
+                }
+            }
+        }
+
+        // Reads the message at the given position and returns the position after it, or -1 at the end
+        private int readMessage(int pos) {
+            int len = in.getInt(pos);
+            pos += 4;
+            if (len == -1) {
+                // A continuation marker, followed by the length
+                len = in.getInt(pos);
+                pos += 4;
+            }
+            if (len == 0) return -1;
+
+            Table message = Table.root(in, pos);
+            int body = pos + len;
+            byte type = message.getByte(1, 0);
+            Table header = message.table(2);
+            if (type == SCHEMA) {
+                if (columns == null) readSchema(header);
+            } else if (type == DICTIONARY_BATCH) {
+                readDictionary(header, body);
+            } else if (type == RECORD_BATCH) {
+                readBatch(header, body);
+            } else {
+                throw new IllegalArgumentException("Unsupported Arrow message type " + type);
+            }
+            return body + (int) message.getLong(3, 0);
+        }
+
+        private void readSchema(Table schema) {
+            if (schema.getShort(0, 0) != 0) throw new IllegalArgumentException("Big-endian Arrow data is not supported");
+            int fields = schema.vector(1);
+            int n = fields < 0 ? 0 : in.getInt(fields);
+            columns = new Column[n];
+            for (int i = 0; i < n; i++) columns[i] = new Column(Table.element(in, fields, i));
+        }
+
+        private void readDictionary(Table header, int body) {
+            long id = header.getLong(0, 0);
+            Table batch = header.table(1);
+            if (columns == null) throw new IllegalArgumentException("Arrow dictionary found before the schema");
+            Column column = null;
+            for (Column c : columns) if (c.dictionaryId != null && c.dictionaryId == id) column = c;
+            if (column == null) throw new IllegalArgumentException("Unknown Arrow dictionary " + id);
+
+            Vector vector = vectors(batch, body, new Type[]{column.type})[0];
+            Object[] values = new Object[vector.n];
+            for (int i = 0; i < values.length; i++) values[i] = vector.value(i);
+            Object[] existing = dictionaries.get(id);
+            if (header.getBool(2) && existing != null) {
+                // A delta adds to the existing dictionary
+                Object[] combined = Arrays.copyOf(existing, existing.length + values.length);
+                System.arraycopy(values, 0, combined, existing.length, values.length);
+                values = combined;
+            }
+            dictionaries.put(id, values);
+        }
+
+        private void readBatch(Table header, int body) {
+            if (columns == null) throw new IllegalArgumentException("Arrow record batch found before the schema");
+            Type[] types = new Type[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                types[i] = columns[i].dictionaryId == null ? columns[i].type : columns[i].indexType;
+            Vector[] vectors = vectors(header, body, types);
+            for (int i = 0; i < columns.length; i++) {
+                Column column = columns[i];
+                column.vectors.add(vectors[i]);
+                if (column.dictionaryId != null) {
+                    Object[] dictionary = dictionaries.get(column.dictionaryId);
+                    if (dictionary == null)
+                        throw new IllegalArgumentException("Missing Arrow dictionary " + column.dictionaryId);
+                    column.dictionaries.add(dictionary);
+                }
+            }
+            rows += (int) header.getLong(0, 0);
+        }
+
+        // The vectors for a record batch, using its field nodes and buffers in order
+        private Vector[] vectors(Table batch, int body, Type[] types) {
+            if (batch.table(3) != null) throw new IllegalArgumentException("Compressed Arrow data is not supported");
+            int nodes = batch.vector(1);
+            int buffers = batch.vector(2);
+            int b = 0;
+            Vector[] result = new Vector[types.length];
+            for (int i = 0; i < types.length; i++) {
+                // Field nodes are (long length, long null count); buffers are (long offset, long length)
+                int n = (int) in.getLong(nodes + 4 + 16 * i);
+                long nullCount = in.getLong(nodes + 4 + 16 * i + 8);
+                int count = types[i].bufferCount();
+                int[] starts = new int[count];
+                long[] lengths = new long[count];
+                for (int j = 0; j < count; j++, b++) {
+                    starts[j] = body + (int) in.getLong(buffers + 4 + 16 * b);
+                    lengths[j] = in.getLong(buffers + 4 + 16 * b + 8);
+                }
+                int validity = count > 0 && nullCount > 0 && lengths[0] > 0 ? starts[0] : -1;
+                result[i] = new Vector(in, types[i], n, validity, starts);
+            }
+            return result;
+        }
+
+        Dataset dataset() {
+            if (columns == null) throw new IllegalArgumentException("No Arrow schema found");
+            Field[] fields = new Field[columns.length];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = columns[i].makeField(rows);
+                if (columns[i].type.isText()) fields[i] = Auto.convert(fields[i]);
+            }
+            return Dataset.make(fields, false);         // Other types are already known
+        }
+    }
+
+    /* A field in the Arrow schema, and the vectors of its values */
+    private static class Column {
+        final String name, label;
+        final Type type;
+        final Long dictionaryId;
+        final Type indexType;
+        final List<Vector> vectors = new ArrayList<>();
+        final List<Object[]> dictionaries = new ArrayList<>();
+
+        Column(Table field) {
+            name = field.string(0);
+            type = new Type(field.getByte(2, 0), field.table(3));
+            if (field.vector(5) >= 0 && field.bb.getInt(field.vector(5)) > 0)
+                throw new IllegalArgumentException("Nested Arrow type for field " + name + " is not supported");
+
+            Table dictionary = field.table(4);
+            if (dictionary == null) {
+                dictionaryId = null;
+                indexType = null;
+            } else {
+                dictionaryId = dictionary.getLong(0, 0);
+                Table index = dictionary.table(1);
+                indexType = index == null ? new Type(32, true) : new Type(index.getInt(0, 0), index.getBool(1));
+            }
+
+            String text = null;
+            int metadata = field.vector(6);
+            for (int i = 0; metadata >= 0 && i < field.bb.getInt(metadata); i++) {
+                Table pair = Table.element(field.bb, metadata, i);
+                if (LABEL_KEY.equals(pair.string(0))) text = pair.string(1);
+            }
+            label = text == null ? name : text;
+        }
+
+        Field makeField(int rows) {
+            Provider provider;
+            if (dictionaryId != null) provider = dictionaryProvider(rows);
+            else if (type.isFixedWidth()) provider = new ArrowValues(vectors.toArray(new Vector[vectors.size()]), rows);
+            else provider = new ColumnProvider(values(rows));
+
+            Field field = new Field(name, label, provider);
+            if (type.isNumeric()) field.setNumeric();
+            if (type.isDate()) field.set("date", true);
+            return field;
+        }
+
+        // Dictionary columns share the dictionary unless it was replaced part way through the data
+        private Provider dictionaryProvider(int rows) {
+            boolean shared = true;
+            for (Object[] d : dictionaries) shared &= d == dictionaries.get(0);
+            if (!shared || dictionaries.isEmpty()) return new ColumnProvider(values(rows));
+
+            Object[] items = Arrays.copyOf(dictionaries.get(0), dictionaries.get(0).length + 1);
+            int[] indices = new int[rows];
+            int row = 0;
+            for (Vector v : vectors)
+                for (int i = 0; i < v.n; i++)
+                    indices[row++] = v.isNull(i) ? items.length - 1 : (int) v.integer(i);
+            return new ReorderedProvider(new ColumnProvider(items), indices);
+        }
+
+        private Object[] values(int rows) {
+            Object[] values = new Object[rows];
+            int row = 0;
+            for (int k = 0; k < vectors.size(); k++) {
+                Vector v = vectors.get(k);
+                Object[] dictionary = dictionaryId == null ? null : dictionaries.get(k);
+                for (int i = 0; i < v.n; i++, row++) {
+                    if (v.isNull(i)) continue;
+                    values[row] = dictionary == null ? v.value(i) : dictionary[(int) v.integer(i)];
+                }
+            }
+            return values;
+        }
+    }
+
+    /* The Arrow types we can read */
+    private static class Type {
+        final byte id;
+        final int bits;                 // Bit width for integers and floats
+        final boolean signed;
+        final int unit;                 // Unit for dates and timestamps
+
+        Type(int bits, boolean signed) {
+            this.id = INT;
+            this.bits = bits;
+            this.signed = signed;
+            this.unit = 0;
+        }
+
+        Type(byte id, Table t) {
+            this.id = id;
+            if (id == INT) {
+                bits = t.getInt(0, 0);
+                signed = t.getBool(1);
+                unit = 0;
+            } else if (id == FLOATING_POINT) {
+                // Precisions are HALF, SINGLE and DOUBLE
+                int precision = t.getShort(0, 0);
+                if (precision == 0) throw new IllegalArgumentException("Half-precision Arrow floats are not supported");
+                bits = precision == 1 ? 32 : 64;
+                signed = true;
+                unit = 0;
+            } else if (id == DATE) {
+                // The units are DAY and MILLISECOND
+                unit = t.getShort(0, MILLISECOND);
+                bits = unit == 0 ? 32 : 64;
+                signed = true;
+            } else if (id == TIMESTAMP) {
+                // The units are SECOND, MILLISECOND, MICROSECOND and NANOSECOND; the time zone does not matter
+                unit = t.getShort(0, 0);
+                bits = 64;
+                signed = true;
+            } else if (id == NULL || id == UTF8 || id == LARGE_UTF8 || id == BOOL) {
+                bits = id == LARGE_UTF8 ? 64 : 32;
+                signed = false;
+                unit = 0;
+            } else {
+                throw new IllegalArgumentException("Unsupported Arrow type " + id);
+            }
+        }
+
+        int bufferCount() {
+            if (id == NULL) return 0;
+            return id == UTF8 || id == LARGE_UTF8 ? 3 : 2;
+        }
+
+        boolean isFixedWidth() {
+            return id == INT || id == FLOATING_POINT || isDate();
+        }
+
+        boolean isNumeric() {
+            return isFixedWidth();
+        }
+
+        boolean isDate() {
+            return id == DATE || id == TIMESTAMP;
+        }
+
+        boolean isText() {
+            return id == UTF8 || id == LARGE_UTF8 || id == BOOL;
+        }
+
+        // Convert a date or timestamp value to milliseconds
+        long millis(long v) {
+            if (id == DATE) return unit == 0 ? v * 86400000L : v;
+            if (unit == 0) return v * 1000;
+            if (unit == 1) return v;
+            long d = unit == 2 ? 1000L : 1000000L;
+            return v % d < 0 ? v / d - 1 : v / d;              // Round down for times before 1970
+        }
+    }
+
+    /* The values of a field within one record batch; the buffer is only read with absolute positions */
+    private static class Vector {
+        final ByteBuffer data;
+        final Type type;
+        final int n;
+        final int validity;                     // Start of the validity bitmap, or -1 if there are no nulls
+        final int[] buffers;                    // Start of each buffer
+
+        Vector(ByteBuffer data, Type type, int n, int validity, int[] buffers) {
+            this.data = data;
+            this.type = type;
+            this.n = n;
+            this.validity = validity;
+            this.buffers = buffers;
+        }
+
+        boolean isNull(int i) {
+            if (type.id == NULL) return true;
+            return validity >= 0 && (data.get(validity + (i >> 3)) & (1 << (i & 7))) == 0;
+        }
+
+        // The value of an integer, date or timestamp
+        long integer(int i) {
+            int p = buffers[1];
+            switch (type.bits) {
+                case 8:
+                    return type.signed ? data.get(p + i) : data.get(p + i) & 0xFFL;
+                case 16:
+                    return type.signed ? data.getShort(p + 2 * i) : data.getShort(p + 2 * i) & 0xFFFFL;
+                case 32:
+                    return type.signed ? data.getInt(p + 4 * i) : data.getInt(p + 4 * i) & 0xFFFFFFFFL;
+                default:
+                    return data.getLong(p + 8 * i);
+            }
+        }
+
+        // The value of an integer or float as a double
+        double number(int i) {
+            if (type.id == FLOATING_POINT)
+                return type.bits == 32 ? data.getFloat(buffers[1] + 4 * i) : data.getDouble(buffers[1] + 8 * i);
+            long v = integer(i);
+            if (v < 0 && type.bits == 64 && !type.signed) return v + 0x1p64;
+            return v;
+        }
+
+        Object value(int i) {
+            if (isNull(i)) return null;
+            if (type.isDate()) return new Date(type.millis(integer(i)));
+            if (type.isNumeric()) return number(i);
+            // As pandas writes booleans to CSV
+            if (type.id == BOOL) return (data.get(buffers[1] + (i >> 3)) & (1 << (i & 7))) != 0 ? "True" : "False";
+
+            // Strings have offsets into the character data
+            int start, end;
+            if (type.id == UTF8) {
+                start = data.getInt(buffers[1] + 4 * i);
+                end = data.getInt(buffers[1] + 4 * i + 4);
+            } else {
+                start = (int) data.getLong(buffers[1] + 8 * i);
+                end = (int) data.getLong(buffers[1] + 8 * i + 8);
+            }
+            byte[] bytes = new byte[end - start];
+            ByteBuffer chars = data.duplicate();
+            chars.position(buffers[2] + start);
+            chars.get(bytes);
+            return new String(bytes, ByteOutput.ENCODING);
+        }
+    }
+
+    /* Numbers or dates read in place from the vectors of each record batch */
+    private static class ArrowValues implements Provider {
+        private final Vector[] vectors;
+        private final int[] starts;             // First row of each vector
+        private final int n;
+
+        ArrowValues(Vector[] vectors, int n) {
+            this.vectors = vectors;
+            this.starts = new int[vectors.length];
+            for (int i = 1; i < vectors.length; i++) starts[i] = starts[i - 1] + vectors[i - 1].n;
+            this.n = n;
+        }
+
+        public int compareRows(int a, int b, MapInt categoryOrder) {
+            Vector p = vector(a), q = vector(b);
+            int i = a - starts[index(a)], j = b - starts[index(b)];
+            boolean x = p.isNull(i), y = q.isNull(j);
+            if (x || y) return x == y ? 0 : (x ? 1 : -1);
+            if (!categoryOrder.isEmpty()) return categoryOrder.get(value(a)) - categoryOrder.get(value(b));
+            if (p.type.isDate()) return Long.compare(p.type.millis(p.integer(i)), q.type.millis(q.integer(j)));
+            return Double.compare(p.number(i), q.number(j));
+        }
+
+        public int count() {
+            return n;
+        }
+
+        public int expectedSize() {
+            return 24 + 8 * n;
+        }
+
+        public Provider setValue(Object o, int index) {
+            return ColumnProvider.copy(this).setValue(o, index);
+        }
+
+        public Object value(int index) {
+            int k = index(index);
+            return vectors[k].value(index - starts[k]);
+        }
+
+        private Vector vector(int row) {
+            return vectors[index(row)];
+        }
+
+        // The vector holding a row
+        private int index(int row) {
+            if (vectors.length == 1) return 0;
+            int k = Arrays.binarySearch(starts, row);
+            if (k >= 0) {
+                // Skip empty batches
+                while (k < starts.length - 1 && starts[k + 1] == row) k++;
+                return k;
+            }
+            return -k - 2;
+        }
+    }
+
+    /* Writes the schema and record batch messages for a data set */
+    private static class Writer {
+        private final Field[] fields;
+        private final OutputStream out;
+        private final List<long[]> blocks = new ArrayList<>();     // Position, metadata and body size of batches
+        private long position;
+
+        Writer(Dataset data, OutputStream out) {
+            this.fields = data.removeSpecialFields().fields;
+            this.out = out;
+        }
+
+        void writeBatches() throws IOException {
+            Builder b = new Builder();
+            writeMessage(message(b, SCHEMA, schema(b), 0), null, 0);
+            int n = fields.length == 0 ? 0 : fields[0].rowCount();
+            for (int start = 0; start < n || start == 0; start += BATCH_ROWS)
+                writeBatch(start, Math.min(n, start + BATCH_ROWS));
+        }
+
+        int schema(Builder b) {
+            int[] offsets = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                Field f = fields[i];
+                int name = b.createString(f.name);
+                int metadata = -1;
+                if (f.label != null && !f.label.equals(f.name)) {
+                    int key = b.createString(LABEL_KEY);
+                    int value = b.createString(f.label);
+                    b.startTable(2);
+                    b.addOffset(0, key);
+                    b.addOffset(1, value);
+                    metadata = b.createOffsets(new int[]{b.endTable()});
+                }
+                byte typeId;
+                if (f.isDate()) {
+                    typeId = TIMESTAMP;
+                    b.startTable(2);
+                    b.addShort(0, MILLISECOND);
+                } else if (f.isNumeric()) {
+                    typeId = FLOATING_POINT;
+                    b.startTable(1);
+                    b.addShort(0, DOUBLE_PRECISION);
+                } else {
+                    typeId = UTF8;
+                    b.startTable(0);
+                }
+                int type = b.endTable();
+                int children = b.createOffsets(new int[0]);
+
+                b.startTable(7);
+                b.addOffset(0, name);
+                b.addByte(1, (byte) 1);                 // nullable
+                b.addByte(2, typeId);
+                b.addOffset(3, type);
+                b.addOffset(5, children);
+                if (metadata >= 0) b.addOffset(6, metadata);
+                offsets[i] = b.endTable();
+            }
+            int vector = b.createOffsets(offsets);
+            b.startTable(2);
+            b.addOffset(1, vector);
+            return b.endTable();
+        }
+
+        private void writeBatch(int start, int end) throws IOException {
+            int n = end - start;
+            List<byte[]> buffers = new ArrayList<>();
+            long[] nullCounts = new long[fields.length];
+            for (int i = 0; i < fields.length; i++) nullCounts[i] = addBuffers(fields[i], start, end, buffers);
+
+            Builder b = new Builder();
+            b.startVector(16, fields.length, 8);
+            for (int i = fields.length - 1; i >= 0; i--) {
+                b.prep(8, 16);
+                b.putLong(nullCounts[i]);
+                b.putLong(n);
+            }
+            int nodes = b.endVector(fields.length);
+
+            long[] offsets = new long[buffers.size()];
+            long bodyLength = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = bodyLength;
+                bodyLength += padded(buffers.get(i).length);
+            }
+            b.startVector(16, offsets.length, 8);
+            for (int i = offsets.length - 1; i >= 0; i--) {
+                b.prep(8, 16);
+                b.putLong(buffers.get(i).length);
+                b.putLong(offsets[i]);
+            }
+            int bufferVector = b.endVector(offsets.length);
+
+            b.startTable(3);
+            b.addLong(0, n);
+            b.addOffset(1, nodes);
+            b.addOffset(2, bufferVector);
+            writeMessage(message(b, RECORD_BATCH, b.endTable(), bodyLength), buffers, bodyLength);
+        }
+
+        // Adds the validity and value buffers for the rows of a field, and returns the number of nulls
+        private long addBuffers(Field f, int start, int end, List<byte[]> buffers) {
+            int n = end - start;
+            boolean date = f.isDate(), numeric = !date && f.isNumeric();
+            byte[] validity = new byte[(n + 7) / 8];
+            int nulls = 0;
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; i++) {
+                Object o = f.value(start + i);
+                if (date) o = Data.asDate(o);
+                else if (numeric) o = o instanceof Number ? (Double) ((Number) o).doubleValue() : Data.asNumeric(o);
+                if (o == null) nulls++;
+                else validity[i >> 3] |= 1 << (i & 7);
+                values[i] = o;
+            }
+            buffers.add(nulls == 0 ? new byte[0] : validity);
+
+            if (date || numeric) {
+                ByteBuffer data = ByteBuffer.allocate(8 * n).order(ByteOrder.LITTLE_ENDIAN);
+                for (Object o : values) {
+                    if (date) data.putLong(o == null ? 0 : ((Date) o).getTime());
+                    else data.putDouble(o == null ? 0 : (Double) o);
+                }
+                buffers.add(data.array());
+            } else {
+                ByteBuffer offsets = ByteBuffer.allocate(4 * n + 4).order(ByteOrder.LITTLE_ENDIAN);
+                ByteArrayOutputStream chars = new ByteArrayOutputStream();
+                offsets.putInt(0);
+                for (Object o : values) {
+                    if (o != null) {
+                        byte[] bytes = o.toString().getBytes(ByteOutput.ENCODING);
+                        chars.write(bytes, 0, bytes.length);
+                    }
+                    offsets.putInt(chars.size());
+                }
+                buffers.add(offsets.array());
+                buffers.add(chars.toByteArray());
+            }
+            return nulls;
+        }
+
+        private byte[] message(Builder b, byte type, int header, long bodyLength) {
+            b.startTable(4);
+            b.addLong(3, bodyLength);
+            b.addOffset(2, header);
+            b.addShort(0, METADATA_V5);
+            b.addByte(1, type);
+            return b.finish(b.endTable());
+        }
+
+        // Writes the metadata, padded so the body starts on an 8 byte boundary, and then the body
+        private void writeMessage(byte[] metadata, List<byte[]> buffers, long bodyLength) throws IOException {
+            int size = padded(metadata.length);
+            if (buffers != null) blocks.add(new long[]{position, 8 + size, bodyLength});
+            out.write(intBytes(-1));
+            out.write(intBytes(size));
+            out.write(metadata);
+            out.write(new byte[size - metadata.length]);
+            if (buffers != null) for (byte[] buffer : buffers) {
+                out.write(buffer);
+                out.write(new byte[padded(buffer.length) - buffer.length]);
+            }
+            position += 8 + size + bodyLength;
+        }
+
+        private static int padded(int size) {
+            return (size + 7) & ~7;
+        }
+    }
+
+    /* A flatbuffer table within a buffer */
+    private static class Table {
+        final ByteBuffer bb;
+        final int pos;
+
+        Table(ByteBuffer bb, int pos) {
+            this.bb = bb;
+            this.pos = pos;
+        }
+
+        // The table whose offset is at the given position
+        static Table root(ByteBuffer bb, int p) {
+            return new Table(bb, p + bb.getInt(p));
+        }
+
+        // A table within a vector of tables
+        static Table element(ByteBuffer bb, int vector, int i) {
+            return root(bb, vector + 4 + 4 * i);
+        }
+
+        byte getByte(int id, int defaultValue) {
+            int o = offset(id);
+            return o == 0 ? (byte) defaultValue : bb.get(pos + o);
+        }
+
+        boolean getBool(int id) {
+            return getByte(id, 0) != 0;
+        }
+
+        short getShort(int id, int defaultValue) {
+            int o = offset(id);
+            return o == 0 ? (short) defaultValue : bb.getShort(pos + o);
+        }
+
+        int getInt(int id, int defaultValue) {
+            int o = offset(id);
+            return o == 0 ? defaultValue : bb.getInt(pos + o);
+        }
+
+        long getLong(int id, long defaultValue) {
+            int o = offset(id);
+            return o == 0 ? defaultValue : bb.getLong(pos + o);
+        }
+
+        Table table(int id) {
+            int o = offset(id);
+            return o == 0 ? null : root(bb, pos + o);
+        }
+
+        String string(int id) {
+            int o = offset(id);
+            if (o == 0) return null;
+            int p = pos + o + bb.getInt(pos + o);
+            byte[] bytes = new byte[bb.getInt(p)];
+            ByteBuffer chars = bb.duplicate();
+            chars.position(p + 4);
+            chars.get(bytes);
+            return new String(bytes, ByteOutput.ENCODING);
+        }
+
+        // The position of a vector's length (its elements follow), or -1 if it is not present
+        int vector(int id) {
+            int o = offset(id);
+            return o == 0 ? -1 : pos + o + bb.getInt(pos + o);
+        }
+
+        // Offset of a field from the table start, using the vtable; zero if it is not present
+        private int offset(int id) {
+            int vtable = pos - bb.getInt(pos);
+            int o = 4 + 2 * id;
+            return o < (bb.getShort(vtable) & 0xFFFF) ? bb.getShort(vtable + o) & 0xFFFF : 0;
+        }
+    }
+
+    /*
+     * Builds a flatbuffer from back to front, as the flatbuffers library does, so that objects are
+     * always created before the tables that refer to them. Offsets are measured from the end of the buffer
+     */
+    private static class Builder {
+        private byte[] buf = new byte[1024];
+        private int space = buf.length;         // Bytes still free at the front
+        private int minAlign = 1;
+        private int[] vtable;
+        private int objectStart;
+
+        int offset() {
+            return buf.length - space;
+        }
+
+        // Make room for 'size' bytes aligned to 'size', after 'additional' bytes are written
+        void prep(int size, int additional) {
+            if (size > minAlign) minAlign = size;
+            int alignSize = (~(buf.length - space + additional) + 1) & (size - 1);
+            while (space < alignSize + size + additional) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, buf.length, buf.length);
+                space += buf.length;
+                buf = bigger;
+            }
+            pad(alignSize);
+        }
+
+        void pad(int n) {
+            for (int i = 0; i < n; i++) buf[--space] = 0;
+        }
+
+        void putShort(int v) {
+            buf[--space] = (byte) (v >> 8);
+            buf[--space] = (byte) v;
+        }
+
+        void putInt(int v) {
+            putShort(v >> 16);
+            putShort(v);
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >> 32));
+            putInt((int) v);
+        }
+
+        void putOffset(int off) {
+            prep(4, 0);
+            putInt(offset() - off + 4);
+        }
+
+        int createString(String s) {
+            byte[] bytes = s.getBytes(ByteOutput.ENCODING);
+            prep(4, bytes.length + 1);
+            buf[--space] = 0;
+            space -= bytes.length;
+            System.arraycopy(bytes, 0, buf, space, bytes.length);
+            putInt(bytes.length);
+            return offset();
+        }
+
+        int createOffsets(int[] offsets) {
+            startVector(4, offsets.length, 4);
+            for (int i = offsets.length - 1; i >= 0; i--) putOffset(offsets[i]);
+            return endVector(offsets.length);
+        }
+
+        void startVector(int elementSize, int count, int alignment) {
+            prep(4, elementSize * count);
+            prep(alignment, elementSize * count);
+        }
+
+        int endVector(int count) {
+            putInt(count);
+            return offset();
+        }
+
+        void startTable(int fieldCount) {
+            vtable = new int[fieldCount];
+            objectStart = offset();
+        }
+
+        void addByte(int id, byte v) {
+            prep(1, 0);
+            buf[--space] = v;
+            vtable[id] = offset();
+        }
+
+        void addShort(int id, short v) {
+            prep(2, 0);
+            putShort(v);
+            vtable[id] = offset();
+        }
+
+        void addLong(int id, long v) {
+            prep(8, 0);
+            putLong(v);
+            vtable[id] = offset();
+        }
+
+        void addOffset(int id, int off) {
+            putOffset(off);
+            vtable[id] = offset();
+        }
+
+        int endTable() {
+            // Space for the offset to the vtable, then the vtable itself
+            prep(4, 0);
+            putInt(0);
+            int object = offset();
+            int n = vtable.length;
+            while (n > 0 && vtable[n - 1] == 0) n--;
+            for (int i = n - 1; i >= 0; i--) {
+                prep(2, 0);
+                putShort(vtable[i] == 0 ? 0 : object - vtable[i]);
+            }
+            putShort(object - objectStart);
+            putShort((n + 2) * 2);
+            int v = offset() - object;
+            int p = buf.length - object;
+            for (int i = 0; i < 4; i++) buf[p + i] = (byte) (v >> (8 * i));
+            return object;
+        }
+
+        byte[] finish(int root) {
+            prep(minAlign, 4);
+            putOffset(root);
+            return Arrays.copyOfRange(buf, space, buf.length);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data.io;
+
+import org.brunel.translator.JSTranslation;
+
+import java.util.Arrays;
+
+/**
+ * Compresses blocks of bytes using the LZ4 block format: runs of literal bytes, each followed by a copy of
+ * at least four bytes from earlier in the block. This is designed for speed rather than size; it does well on
+ * repeated values and text, and decompression is a simple copying loop.
+ */
+@JSTranslation(ignore = true)
+class BlockCompression {
+
+    private static final int HASH_BITS = 14;                // Size of the table of recent positions
+    private static final int MIN_MATCH = 4;                 // Shortest copy that is encoded
+    private static final int MATCH_LIMIT = 12;              // No copy may start in the last bytes of the block ...
+    private static final int LAST_LITERALS = 5;             // ... and the last few are always literal
+    private static final int MAX_OFFSET = 65535;            // Copies must come from within this distance
+
+    /**
+     * Compress the bytes
+     *
+     * @param src bytes to compress
+     * @return compressed bytes
+     */
+    static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] out = new byte[n + n / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];             // Last position (plus one) that had each hash
+        int ip = 0, op = 0, anchor = 0;
+
+        while (ip < n - MATCH_LIMIT) {
+            int sequence = readInt(src, ip);
+            int h = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            // Extend the match as far as possible
+            int len = MIN_MATCH;
+            while (ip + len < n - LAST_LITERALS && src[ref + len] == src[ip + len]) len++;
+
+            // The literals since the last match, then the offset and length of the copy
+            int token = op;
+            op = writeSequence(src, anchor, ip - anchor, out, op);
+            out[op++] = (byte) (ip - ref);
+            out[op++] = (byte) ((ip - ref) >>> 8);
+            out[token] |= (byte) Math.min(len - MIN_MATCH, 15);
+            if (len - MIN_MATCH >= 15) op = writeLength(len - MIN_MATCH - 15, out, op);
+
+            ip += len;
+            anchor = ip;
+        }
+
+        op = writeSequence(src, anchor, n - anchor, out, op);
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * Decompress bytes made by compress
+     *
+     * @param src    array holding the compressed bytes
+     * @param offset start of the compressed bytes
+     * @param length number of compressed bytes
+     * @param size   number of bytes when decompressed
+     * @return decompressed bytes
+     */
+    static byte[] decompress(byte[] src, int offset, int length, int size) {
+        byte[] dst = new byte[size];
+        int ip = offset, end = offset + length, op = 0;
+        while (ip < end) {
+            int token = src[ip++] & 0xff;
+
+            // Literals
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip >= end) break;                           // The last sequence has no copy
+
+            // Copy from earlier in the output; the regions may overlap, so copy byte by byte
+            int from = op - ((src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8);
+            ip += 2;
+            int len = token & 15;
+            if (len == 15) {
+                int b;
+                do {
+                    b = src[ip++] & 0xff;
+                    len += b;
+                } while (b == 255);
+            }
+            len += MIN_MATCH;
+            if (from < 0 || op + len > size) throw new IllegalStateException("Corrupt compressed data");
+            for (int i = 0; i < len; i++) dst[op++] = dst[from++];
+        }
+        if (op != size) throw new IllegalStateException("Corrupt compressed data");
+        return dst;
+    }
+
+    // Writes the token (with the literal length), any extra length bytes and the literals themselves
+    private static int writeSequence(byte[] src, int start, int literals, byte[] out, int op) {
+        out[op++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) op = writeLength(literals - 15, out, op);
+        System.arraycopy(src, start, out, op, literals);
+        return op + literals;
+    }
+
+    private static int writeLength(int remaining, byte[] out, int op) {
+        while (remaining >= 255) {
+            out[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        out[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | (b[p + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data.io;
+
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.util.MapInt;
+import org.brunel.data.values.ColumnProvider;
+import org.brunel.data.values.Provider;
+import org.brunel.data.values.ReorderedProvider;
+import org.brunel.translator.JSTranslation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Version 2 of the serialized data set format. Each field is a block of typed values, written one after another
+ * so the data can be written and read as a stream. Each block gives its length before its values, so a field can
+ * be found without reading the values of the ones before it. All numbers are little-endian.
+ *
+ * The data set starts with the bytes VERSION, 2, DATA_SET (so the version is read the same way as for version 1),
+ * then the number of fields and the number of rows, and then the field blocks. A trailer after the last block
+ * gives the position of each block (as an 8 byte offset from the start of the data set), then the number of fields
+ * and the bytes of TRAILER_MARK. The writer does not know where the blocks will be until it has written them, so
+ * the table goes at the end, as in Arrow's file footer; a reader that has the whole data set uses it to go straight
+ * to any block, and one that does not can still step from block to block using the lengths they record.
+ *
+ * A field block has its column type, flags, row count, name and label, then the length of its body before and
+ * after compression, then the body. The body has a bitmap of the null rows (when there are any), followed by either:
+ * - the value of every row as an 8 byte double or long (dates are stored as milliseconds), or
+ * - a dictionary of the distinct values, then a code into the dictionary for each row, packed into as few bits
+ * as the dictionary size needs
+ * Strings always use a dictionary; numbers and dates use whichever is smaller. The body is compressed using
+ * BlockCompression when that saves space.
+ *
+ * Reading only looks at the header of each field. Uncompressed numbers and dates are then read in place from
+ * the serialized bytes, which may be a memory-mapped file; other fields are decoded the first time they are used.
+ *
+ * This format is Java only; the Javascript version writes version 1 data.
+ */
+@JSTranslation(ignore = true)
+class ColumnarFormat {
+
+    // Column types
+    private static final byte STRING_CODES = 1, NUMBER_VALUES = 2, NUMBER_CODES = 3, DATE_VALUES = 4, DATE_CODES = 5;
+
+    // Flags for a column
+    private static final byte HAS_NULLS = 1, COMPRESSED = 2;
+
+    static final int HEADER_SIZE = 11;                      // Bytes before the first field block
+
+    private static final byte[] TRAILER_MARK = {'B', 'R', 'N', '2'};   // Last bytes of the data set
+
+    /**
+     * @param data serialized data, starting at the buffer's position
+     * @return true if the data is in this format
+     */
+    static boolean isColumnar(ByteBuffer data) {
+        int p = data.position();
+        return data.remaining() >= HEADER_SIZE && data.get(p) == Serialize.VERSION
+                && data.get(p + 1) == Serialize.DATASET_VERSION_NUMBER;
+    }
+
+    /**
+     * Write the data set. Special fields are not removed; that is up to the caller
+     *
+     * @param data data set to write
+     * @return serialized bytes
+     */
+    static byte[] write(Dataset data) {
+        Field[] fields = data.fields;
+        byte[][] blocks = new byte[fields.length][];
+        long[] offsets = new long[fields.length];
+        int total = HEADER_SIZE;
+        for (int i = 0; i < fields.length; i++) {
+            blocks[i] = writeField(fields[i]);
+            offsets[i] = total;
+            total += blocks[i].length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(total + trailerSize(fields.length)).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(header(data));
+        for (byte[] block : blocks) out.put(block);
+        out.put(trailer(offsets));
+        return out.array();
+    }
+
+    /**
+     * Write the data set to a stream, one field at a time, so only one field's block is held in memory.
+     * Special fields are not removed; that is up to the caller
+     *
+     * @param data data set to write
+     * @param out  stream to write to; this is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(Dataset data, OutputStream out) throws IOException {
+        long[] offsets = new long[data.fields.length];
+        long position = HEADER_SIZE;
+        out.write(header(data));
+        for (int i = 0; i < offsets.length; i++) {
+            byte[] block = writeField(data.fields[i]);
+            out.write(block);
+            offsets[i] = position;
+            position += block.length;
+        }
+        out.write(trailer(offsets));
+    }
+
+    /**
+     * Read a data set written by write. Only the header of each field is read; values are read when they are
+     * first needed, either in place from the buffer or by decoding the whole field.
+     * When the data set ends at the buffer's limit, the trailer is used to find each field block; otherwise the
+     * reader steps over each block to find the next
+     *
+     * @param data serialized bytes, starting at the buffer's position; these must not be changed afterwards
+     * @return data set, with the special fields added
+     */
+    static Dataset read(ByteBuffer data) {
+        ByteBuffer in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.get(2) != Serialize.DATA_SET) throw new IllegalArgumentException("Unknown class: " + in.get(2));
+        Field[] fields = new Field[in.getInt(3)];
+        int[] offsets = blockOffsets(in, fields.length);
+        in.position(HEADER_SIZE);
+        for (int i = 0; i < fields.length; i++) {
+            if (offsets != null) in.position(offsets[i]);
+            fields[i] = readField(in);
+        }
+        return Dataset.make(fields, false);     // No need to autoconvert
+    }
+
+    /**
+     * Find the field blocks using the trailer at the end of the data
+     *
+     * @param in    serialized data, starting at position zero and ending at the limit
+     * @param count number of fields
+     * @return the position of each field block, or null if the data does not end with a trailer for them
+     */
+    static int[] blockOffsets(ByteBuffer in, int count) {
+        int end = in.limit();
+        long start = end - (long) trailerSize(count);
+        if (start < HEADER_SIZE || in.getInt(end - 8) != count) return null;
+        for (int i = 0; i < TRAILER_MARK.length; i++)
+            if (in.get(end - 4 + i) != TRAILER_MARK[i]) return null;
+
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            long offset = in.getLong((int) start + 8 * i);
+            if (offset < HEADER_SIZE || offset >= start) return null;
+            offsets[i] = (int) offset;
+        }
+        return offsets;
+    }
+
+    /**
+     * Read a data set from a stream, one field block at a time
+     *
+     * @param header the first HEADER_SIZE bytes, already read from the stream
+     * @param in     stream to read the field blocks from
+     * @return data set, with the special fields added
+     * @throws IOException if the stream cannot be read or ends too soon
+     */
+    static Dataset read(byte[] header, InputStream in) throws IOException {
+        if (header[2] != Serialize.DATA_SET) throw new IllegalArgumentException("Unknown class: " + header[2]);
+        Field[] fields = new Field[ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN).getInt(3)];
+        for (int i = 0; i < fields.length; i++) fields[i] = readField(readBlock(in));
+        new BlockReader(in).read(trailerSize(fields.length));      // So the stream is left after the data set
+        return Dataset.make(fields, false);     // No need to autoconvert
+    }
+
+    /**
+     * Read as many bytes as are available, up to the number requested
+     *
+     * @return the number of bytes read, which is less than requested only at the end of the stream
+     */
+    static int readFully(InputStream in, byte[] bytes, int offset, int count) throws IOException {
+        int total = 0;
+        while (total < count) {
+            int n = in.read(bytes, offset + total, count - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static byte[] header(Dataset data) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) Serialize.VERSION).put((byte) Serialize.DATASET_VERSION_NUMBER).put((byte) Serialize.DATA_SET);
+        out.putInt(data.fields.length).putInt(data.rowCount());
+        return out.array();
+    }
+
+    private static int trailerSize(int fieldCount) {
+        return 8 * fieldCount + 4 + TRAILER_MARK.length;
+    }
+
+    private static byte[] trailer(long[] offsets) {
+        ByteBuffer out = ByteBuffer.allocate(trailerSize(offsets.length)).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : offsets) out.putLong(offset);
+        out.putInt(offsets.length).put(TRAILER_MARK);
+        return out.array();
+    }
+
+    // Reads the bytes of the next field block from the stream
+    private static ByteBuffer readBlock(InputStream in) throws IOException {
+        BlockReader block = new BlockReader(in);
+        block.read(6);                                      // Type, flags and row count
+        for (int i = 0; i < 2; i++) {
+            int len = block.read(4).getInt();               // Name and label
+            if (len > 0) block.read(len);
+        }
+        block.read(4);                                      // Size of the body when decompressed
+        block.read(block.read(4).getInt());                 // Size of the body, then the body
+        return block.bytes();
+    }
+
+    private static byte[] writeField(Field field) {
+        int n = field.rowCount();
+        boolean date = field.isDate();
+        boolean numeric = !date && field.isNumeric();
+
+        // Find the null rows, the distinct values and the code for each row
+        byte[] nulls = new byte[(n + 7) / 8];
+        boolean hasNulls = false;
+        Map<Object, Integer> codes = new HashMap<>();
+        List<Object> distinct = new ArrayList<>();
+        int[] rowCodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            Object o = field.value(i);
+            if (o == null) {
+                nulls[i >> 3] |= 1 << (i & 7);
+                hasNulls = true;
+                continue;
+            }
+            if (date) o = ((Date) o).getTime();
+            else if (numeric) o = ((Number) o).doubleValue();
+            else o = (String) o;
+            Integer code = codes.get(o);
+            if (code == null) {
+                code = distinct.size();
+                codes.put(o, code);
+                distinct.add(o);
+            }
+            rowCodes[i] = code;
+        }
+
+        // Choose how to store the values
+        int bits = bitsNeeded(distinct.size());
+        int packedSize = (int) (((long) n * bits + 7) / 8);
+        byte type;
+        if (date || numeric) {
+            boolean useCodes = distinct.size() * 8 + 5 + packedSize < n * 8;
+            type = date ? (useCodes ? DATE_CODES : DATE_VALUES) : (useCodes ? NUMBER_CODES : NUMBER_VALUES);
+        } else {
+            type = STRING_CODES;
+        }
+
+        // Work out the size of the body
+        byte[][] strings = null;
+        int size = hasNulls ? nulls.length : 0;
+        if (type == NUMBER_VALUES || type == DATE_VALUES) {
+            size += 8 * n;
+        } else if (type == STRING_CODES) {
+            strings = new byte[distinct.size()][];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = ((String) distinct.get(i)).getBytes(ByteOutput.ENCODING);
+                size += 4 + strings[i].length;
+            }
+            size += 5 + packedSize;
+        } else {
+            size += 8 * distinct.size() + 5 + packedSize;
+        }
+
+        // Write the body
+        ByteBuffer body = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        if (hasNulls) body.put(nulls);
+        if (type == NUMBER_VALUES) {
+            for (int i = 0; i < n; i++) body.putDouble(isNull(nulls, i) ? 0 : (Double) distinct.get(rowCodes[i]));
+        } else if (type == DATE_VALUES) {
+            for (int i = 0; i < n; i++) body.putLong(isNull(nulls, i) ? 0 : (Long) distinct.get(rowCodes[i]));
+        } else {
+            body.putInt(distinct.size());
+            for (int i = 0; i < distinct.size(); i++) {
+                if (type == STRING_CODES) putString(body, strings[i]);
+                else if (type == NUMBER_CODES) body.putDouble((Double) distinct.get(i));
+                else body.putLong((Long) distinct.get(i));
+            }
+            body.put((byte) bits);
+            packCodes(rowCodes, bits, body);
+        }
+
+        // Compress if it helps enough to be worth the time to decompress
+        byte[] stored = body.array();
+        byte flags = hasNulls ? HAS_NULLS : 0;
+        byte[] compressed = BlockCompression.compress(stored);
+        if (compressed.length < stored.length - stored.length / 8) {
+            stored = compressed;
+            flags |= COMPRESSED;
+        }
+
+        byte[] name = encode(field.name), label = encode(field.label);
+        ByteBuffer out = ByteBuffer.allocate(6 + stringSize(name) + stringSize(label) + 8 + stored.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(type).put(flags).putInt(n);
+        putString(out, name);
+        putString(out, label);
+        out.putInt(size).putInt(stored.length).put(stored);
+        return out.array();
+    }
+
+    /*
+     * Reads the header of the field block starting at the buffer's position and moves past the block.
+     * The buffer is kept by the field to read the values; only absolute positions are used to do so
+     */
+    private static Field readField(ByteBuffer in) {
+        byte type = in.get();
+        byte flags = in.get();
+        int n = in.getInt();
+        String name = getString(in);
+        String label = getString(in);
+        int size = in.getInt();
+        int storedSize = in.getInt();
+        int start = in.position();
+        in.position(start + storedSize);
+
+        if (type < STRING_CODES || type > DATE_CODES) throw new IllegalStateException("Unknown column type " + type);
+        boolean dates = type == DATE_VALUES || type == DATE_CODES;
+
+        // Fixed width values can be read where they are; others are decoded when first used
+        Provider provider;
+        if ((flags & COMPRESSED) == 0 && (type == NUMBER_VALUES || type == DATE_VALUES))
+            provider = new StoredValues(in, start, n, (flags & HAS_NULLS) != 0, dates);
+        else
+            provider = new DeferredColumn(in, type, flags, n, start, size, storedSize);
+
+        Field field = new Field(name, label, provider);
+        if (type != STRING_CODES) field.setNumeric();
+        if (dates) field.set("date", true);
+        return field;
+    }
+
+    // Decodes all the values of a field
+    private static Provider decode(ByteBuffer data, byte type, byte flags, int n, int start, int size, int storedSize) {
+        ByteBuffer body;
+        if ((flags & COMPRESSED) != 0) {
+            byte[] packed;
+            int offset = 0;
+            if (data.hasArray()) {
+                packed = data.array();
+                offset = data.arrayOffset() + start;
+            } else {
+                packed = new byte[storedSize];
+                ByteBuffer in = data.duplicate();
+                in.position(start);
+                in.get(packed);
+            }
+            body = ByteBuffer.wrap(BlockCompression.decompress(packed, offset, storedSize, size));
+        } else {
+            ByteBuffer in = data.duplicate();
+            in.position(start);
+            in.limit(start + size);
+            body = in.slice();
+        }
+        body.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] nulls = null;
+        if ((flags & HAS_NULLS) != 0) {
+            nulls = new byte[(n + 7) / 8];
+            body.get(nulls);
+        }
+
+        if (type == NUMBER_VALUES || type == DATE_VALUES) {
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; i++) {
+                Object o = type == DATE_VALUES ? new Date(body.getLong()) : (Object) body.getDouble();
+                if (!isNull(nulls, i)) values[i] = o;
+            }
+            return new ColumnProvider(values);
+        }
+
+        // The dictionary has an extra null entry at the end when there are nulls, as version 1 has
+        int count = body.getInt();
+        Object[] items = new Object[nulls == null ? count : count + 1];
+        for (int i = 0; i < count; i++) {
+            if (type == STRING_CODES) items[i] = getString(body);
+            else if (type == NUMBER_CODES) items[i] = body.getDouble();
+            else items[i] = new Date(body.getLong());
+        }
+        int[] indices = unpackCodes(body, body.get(), n);
+        if (nulls != null) for (int i = 0; i < n; i++) if (isNull(nulls, i)) indices[i] = count;
+        return new ReorderedProvider(new ColumnProvider(items), indices);
+    }
+
+    private static int bitsNeeded(int count) {
+        return count <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    // Codes are packed into bytes with the lowest bits first
+    private static void packCodes(int[] codes, int bits, ByteBuffer out) {
+        if (bits == 0) return;
+        long pending = 0;
+        int pendingBits = 0;
+        for (int code : codes) {
+            pending |= (long) code << pendingBits;
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                out.put((byte) pending);
+                pending >>>= 8;
+                pendingBits -= 8;
+            }
+        }
+        if (pendingBits > 0) out.put((byte) pending);
+    }
+
+    private static int[] unpackCodes(ByteBuffer in, int bits, int n) {
+        int[] codes = new int[n];
+        if (bits == 0) return codes;
+        long mask = (1L << bits) - 1;
+        long pending = 0;
+        int pendingBits = 0;
+        for (int i = 0; i < n; i++) {
+            while (pendingBits < bits) {
+                pending |= (long) (in.get() & 0xff) << pendingBits;
+                pendingBits += 8;
+            }
+            codes[i] = (int) (pending & mask);
+            pending >>>= bits;
+            pendingBits -= bits;
+        }
+        return codes;
+    }
+
+    private static boolean isNull(byte[] nulls, int row) {
+        return nulls != null && (nulls[row >> 3] & (1 << (row & 7))) != 0;
+    }
+
+    // Strings are written as a byte count (-1 for null) and then UTF-8 bytes
+    private static byte[] encode(String s) {
+        return s == null ? null : s.getBytes(ByteOutput.ENCODING);
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return bytes == null ? 4 : 4 + bytes.length;
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, ByteOutput.ENCODING);
+    }
+
+    /*
+     * Numbers or dates read directly from the serialized data, as they have a fixed width.
+     * The buffer is only read with absolute positions so it may be shared
+     */
+    private static class StoredValues implements Provider {
+        private final ByteBuffer data;
+        private final int nullStart;            // Start of the null bitmap, or -1 if there are no nulls
+        private final int valueStart;           // Start of the values
+        private final int n;
+        private final boolean dates;
+
+        StoredValues(ByteBuffer data, int start, int n, boolean hasNulls, boolean dates) {
+            this.data = data;
+            this.nullStart = hasNulls ? start : -1;
+            this.valueStart = hasNulls ? start + (n + 7) / 8 : start;
+            this.n = n;
+            this.dates = dates;
+        }
+
+        public int compareRows(int a, int b, MapInt categoryOrder) {
+            boolean p = isMissing(a), q = isMissing(b);
+            if (p || q) return p == q ? 0 : (p ? 1 : -1);
+            if (!categoryOrder.isEmpty()) return categoryOrder.get(value(a)) - categoryOrder.get(value(b));
+            if (dates) return Long.compare(data.getLong(valueStart + 8 * a), data.getLong(valueStart + 8 * b));
+            return Double.compare(data.getDouble(valueStart + 8 * a), data.getDouble(valueStart + 8 * b));
+        }
+
+        public int count() {
+            return n;
+        }
+
+        public int expectedSize() {
+            return 24 + 8 * n;
+        }
+
+        public Provider setValue(Object o, int index) {
+            return ColumnProvider.copy(this).setValue(o, index);
+        }
+
+        public Object value(int index) {
+            if (isMissing(index)) return null;
+            if (dates) return new Date(data.getLong(valueStart + 8 * index));
+            return data.getDouble(valueStart + 8 * index);
+        }
+
+        private boolean isMissing(int row) {
+            return nullStart >= 0 && (data.get(nullStart + (row >> 3)) & (1 << (row & 7))) != 0;
+        }
+    }
+
+    /* A field whose values are decoded the first time any of them is needed */
+    private static class DeferredColumn implements Provider {
+        private final ByteBuffer data;
+        private final byte type, flags;
+        private final int n, start, size, storedSize;
+        private volatile Provider decoded;
+
+        DeferredColumn(ByteBuffer data, byte type, byte flags, int n, int start, int size, int storedSize) {
+            this.data = data;
+            this.type = type;
+            this.flags = flags;
+            this.n = n;
+            this.start = start;
+            this.size = size;
+            this.storedSize = storedSize;
+        }
+
+        public int compareRows(int a, int b, MapInt categoryOrder) {
+            return decoded().compareRows(a, b, categoryOrder);
+        }
+
+        public int count() {
+            return n;
+        }
+
+        public int expectedSize() {
+            Provider result = decoded;
+            return result == null ? 24 + size : result.expectedSize();
+        }
+
+        public Provider setValue(Object o, int index) {
+            return decoded().setValue(o, index);
+        }
+
+        public Object value(int index) {
+            return decoded().value(index);
+        }
+
+        private Provider decoded() {
+            Provider result = decoded;
+            if (result == null) {
+                synchronized (this) {
+                    if (decoded == null) decoded = decode(data, type, flags, n, start, size, storedSize);
+                    result = decoded;
+                }
+            }
+            return result;
+        }
+    }
+
+    /* Accumulates bytes read from a stream */
+    private static class BlockReader {
+        private final InputStream in;
+        private byte[] bytes = new byte[256];
+        private int len;
+
+        BlockReader(InputStream in) {
+            this.in = in;
+        }
+
+        // Reads the bytes, returning a buffer positioned at them
+        ByteBuffer read(int count) throws IOException {
+            if (len + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(len + count, bytes.length * 2));
+            if (readFully(in, bytes, len, count) < count) throw new EOFException("Serialized data ended too soon");
+            ByteBuffer result = ByteBuffer.wrap(bytes, len, count).order(ByteOrder.LITTLE_ENDIAN);
+            len += count;
+            return result;
+        }
+
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(bytes, 0, len).slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -19,8 +19,17 @@ package org.brunel.data.io;
 import org.brunel.data.Dataset;
 import org.brunel.data.Field;
 import org.brunel.data.Fields;
+import org.brunel.translator.JSTranslation;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -38,21 +47,48 @@ public class Serialize {
     public static final int DATE = 5;
     public static final int VERSION=6;
 
-    public static final int DATASET_VERSION_NUMBER = 1;   //Must be incremented if serialization is changed in an incompatible way
+    public static final int DATASET_VERSION_NUMBER = 2;   //Must be incremented if serialization is changed in an incompatible way
+    private static final int VERSION_1 = 1;               // The original format, still read and written by Javascript
 
 
     /**
      * Return a serialized version of a dataset.
+     * In Java this uses the typed column format (version 2); in Javascript it uses version 1
      *
      * @param data the dataset to serialize
      * @return an array of bytes representing this data
      */
+    @JSTranslation(js = "return $$CLASS$$.serializeDatasetVersion1(data);")
     public static byte[] serializeDataset(Dataset data) {
+        return ColumnarFormat.write(data.removeSpecialFields());
+    }
+
+    /**
+     * Write a serialized version of a dataset to a stream, one field at a time.
+     * This uses the typed column format (version 2), and only needs memory for one field's data at a time
+     *
+     * @param data the dataset to serialize
+     * @param out  the stream to write to; this is not closed
+     * @throws IOException if the stream cannot be written
+     */
+    @JSTranslation(ignore = true)
+    public static void serialize(Dataset data, OutputStream out) throws IOException {
+        ColumnarFormat.write(data.removeSpecialFields(), out);
+    }
+
+    /**
+     * Return a serialized version of a dataset, using the original format (version 1)
+     * which writes each field as its unique values followed by the index of each row's value
+     *
+     * @param data the dataset to serialize
+     * @return an array of bytes representing this data
+     */
+    public static byte[] serializeDatasetVersion1(Dataset data) {
         data = data.removeSpecialFields();
         ByteOutput s = new ByteOutput();
 
         //Add versioning
-        s.addByte(VERSION).addNumber(DATASET_VERSION_NUMBER);
+        s.addByte(VERSION).addNumber(VERSION_1);
 
         // Basics, then each field
         s.addByte(DATA_SET).addNumber(data.fields.length);
@@ -107,9 +143,78 @@ public class Serialize {
         for (int i = 0; i < N; i++) s.addNumber(items.get(field.value(i)));
     }
 
+    /**
+     * Read serialized data; either version of the format may be used for data sets.
+     * Version 2 data sets read their values from the array as they are used, so it must not be changed afterwards
+     *
+     * @param data bytes made by one of the serialize methods
+     * @return the Dataset or Field
+     */
+    @JSTranslation(js = "return $$CLASS$$.readFromByteInput(new V.io_ByteInput(data));")
     public static Object deserialize(byte[] data) {
-        ByteInput d = new ByteInput(data);
-        return readFromByteInput(d);
+        return deserialize(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Read serialized data from a buffer, starting at its position.
+     * For version 2 data sets the values are not copied; fields are read from the buffer when they are first used,
+     * so the buffer must not be changed afterwards
+     *
+     * @param data buffer holding bytes made by one of the serialize methods
+     * @return the Dataset or Field
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserialize(ByteBuffer data) {
+        if (ColumnarFormat.isColumnar(data)) return ColumnarFormat.read(data);
+        byte[] bytes;
+        if (data.hasArray() && data.arrayOffset() + data.position() == 0 && data.remaining() == data.array().length) {
+            bytes = data.array();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+        }
+        return readFromByteInput(new ByteInput(bytes));
+    }
+
+    /**
+     * Read serialized data from a stream. Version 2 data sets are read one field at a time, and reading stops
+     * at the end of the data; other data is read until the stream ends
+     *
+     * @param in stream holding bytes made by one of the serialize methods; this is not closed
+     * @return the Dataset or Field
+     * @throws IOException if the stream cannot be read
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserialize(InputStream in) throws IOException {
+        // Read enough to tell which format is used
+        byte[] bytes = new byte[ColumnarFormat.HEADER_SIZE];
+        int len = ColumnarFormat.readFully(in, bytes, 0, bytes.length);
+        if (ColumnarFormat.isColumnar(ByteBuffer.wrap(bytes, 0, len))) return ColumnarFormat.read(bytes, in);
+
+        // Otherwise read it all
+        for (; ; ) {
+            if (len == bytes.length) bytes = Arrays.copyOf(bytes, len * 2);
+            int n = in.read(bytes, len, bytes.length - len);
+            if (n < 0) break;
+            len += n;
+        }
+        return deserialize(ByteBuffer.wrap(bytes, 0, len));
+    }
+
+    /**
+     * Read serialized data from a file by mapping it into memory.
+     * For version 2 data sets, only the fields that are used are ever read from the file
+     *
+     * @param file file holding bytes made by one of the serialize methods
+     * @return the Dataset or Field
+     * @throws IOException if the file cannot be read
+     */
+    @JSTranslation(ignore = true)
+    public static Object deserialize(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed
+            return deserialize(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
     }
 
     private static Object readFromByteInput(ByteInput d)  {
@@ -155,7 +260,7 @@ public class Serialize {
         }
         else if (b == VERSION) {
         	int versionNum = d.readNumber().intValue();
-        	if (versionNum != DATASET_VERSION_NUMBER ) {
+        	if (versionNum != VERSION_1) {
         		throw new IllegalStateException("Serialized version differs from current execution version");
         	}
         	return readFromByteInput(d);
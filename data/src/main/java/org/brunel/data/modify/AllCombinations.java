@@ -65,7 +65,7 @@ public class AllCombinations {
      */
     Field[] make() {
         // Create the order in which the real data will be encountered
-        Integer[] rowOrder = Stack.makeStackDataOrder(fields, keyLength, xCount);
+        int[] rowOrder = Stack.makeStackDataOrder(fields, keyLength, xCount);
 
         int dataIndex = 0;                                              // Which row of real data to use
         List<Object[]> rows = new ArrayList<>();                // The resulting rows we will use
@@ -116,7 +116,7 @@ public class AllCombinations {
         return row;
     }
 
-    private boolean matchesCurrent(Object[] row, Integer[] dataRowOrder, int dataIndex) {
+    private boolean matchesCurrent(Object[] row, int[] dataRowOrder, int dataIndex) {
         if (dataIndex >= dataRowOrder.length) return false;             // Past the end -- no match
         int dataRow = dataRowOrder[dataIndex];
         for (int i = 0; i < keyLength; i++)
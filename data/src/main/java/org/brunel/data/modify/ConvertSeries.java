@@ -74,16 +74,15 @@ public class ConvertSeries extends DataOperation {
 
         int[] seriesIndexing = new int[nY * nR];        // EG:  0,0,0,0,   1,1,1,1,   2,2,2,2
         int[] valuesIndexing = new int[nY * nR];        // EG:  0,1,2,3,   0,1,2,3,   0,1,2,3
-        Object[] data = new Object[nY * nR];            // Will store the Y values
         for (int i = 0; i < nY; i++)
             for (int j = 0; j < nR; j++) {
                 seriesIndexing[i * nR + j] = i;
                 valuesIndexing[i * nR + j] = j;
-                data[i * nR + j] = y[i].value(j);
             }
 
         // Make the field for values, copying properties from the first Y field (we assume they are simialr)
-      Field values = Fields.makeColumnField("#values", Data.join(yFields, null, false), data);
+        // The Y values are stacked, so statistics can be merged from the Y fields
+        Field values = Fields.concatenate("#values", Data.join(yFields, null, false), y);
         Fields.copyBaseProperties(y[0], values);
 
         // Create the series field
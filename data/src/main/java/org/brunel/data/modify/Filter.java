@@ -19,6 +19,9 @@ package org.brunel.data.modify;
 import org.brunel.data.Data;
 import org.brunel.data.Dataset;
 import org.brunel.data.Field;
+import org.brunel.data.FieldIndex;
+import org.brunel.data.util.RowSet;
+import org.brunel.translator.JSTranslation;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -89,6 +92,33 @@ public class Filter extends DataOperation {
 
     /* Get the object that are at the indicated positions for the field, by rank */
     private static Object[] getRankedObjects(Field field, double p1, double p2) {
+        Object[] d = sortedValidValues(field);
+
+        int N = d.length;
+        int a = Math.min(Math.max(1, (int) p1), N);
+        int b = Math.min(Math.max(1, (int) p2), N);
+        Object high = d[N - a];
+        Object low = d[N - b];
+        return new Object[]{low, high};
+    }
+
+    /* The non-null values of the field in sorted order */
+    @JSTranslation(js = {
+            "var i, o, d = [];",
+            "for (i = 0; i < field.rowCount(); i++) {",
+            "  o = field.value(i);",
+            "  if (o != null) d.push(o);",
+            "}",
+            "V.Data.sort(d);",
+            "return d;"
+    })
+    private static Object[] sortedValidValues(Field field) {
+        FieldIndex index = field.getIndex();
+        if (index != null) {
+            Object[] d = new Object[index.validCount()];
+            for (int i = 0; i < d.length; i++) d[i] = index.value(i);
+            return d;
+        }
         ArrayList<Object> data = new ArrayList<>();
         int n = field.rowCount();
         for (int i = 0; i < n; i++) {
@@ -97,13 +127,7 @@ public class Filter extends DataOperation {
         }
         Object[] d = data.toArray(new Object[data.size()]);
         Data.sort(d);
-
-        int N = d.length;
-        int a = Math.min(Math.max(1, (int) p1), N);
-        int b = Math.min(Math.max(1, (int) p2), N);
-        Object high = d[N - a];
-        Object low = d[N - b];
-        return new Object[]{low, high};
+        return d;
     }
 
     private static int getType(String s) {
@@ -130,7 +154,50 @@ public class Filter extends DataOperation {
         return result;
     }
 
+    /*
+     * When all the fields have an index, the rows matching each command are found by searching the index
+     * and the commands are combined as sets of rows. Otherwise we test each row in turn
+     */
+    @JSTranslation(js = "return $$CLASS$$.scanRowsToKeep(field, type, params, keepMissing);")
     private static int[] makeRowsToKeep(Field[] field, int[] type, Object[][] params, boolean[] keepMissing) {
+        int N = field.length;
+        FieldIndex[] index = new FieldIndex[N];
+        for (int i = 0; i < N; i++) {
+            index[i] = field[i].getIndex();
+            if (index[i] == null) return scanRowsToKeep(field, type, params, keepMissing);
+        }
+
+        // As in the row-by-row test, the first missing value decides whether a row is kept,
+        // and a row that fails a command is not looked at by later commands
+        int n = field[0].rowCount();
+        RowSet undecided = RowSet.range(0, n);
+        RowSet kept = new RowSet();
+        for (int i = 0; i < N; i++) {
+            if (keepMissing[i]) kept = kept.or(undecided.andNot(index[i].validRows()));
+            undecided = undecided.and(matchingRows(index[i], type[i], params[i]));
+        }
+        kept = kept.or(undecided);
+        if (kept.cardinality() == n) return null;   // No change needed
+        return kept.toArray();
+    }
+
+    /* Rows with valid values that pass the command; negated commands pass the valid values that do not match */
+    @JSTranslation(ignore = true)
+    private static RowSet matchingRows(FieldIndex index, int t, Object[] pars) {
+        RowSet matches;
+        if (t == 2 || t == -2) {
+            matches = new RowSet();
+            for (Object p : pars) matches = matches.or(index.rows(index.lowerBound(p), index.upperBound(p)));
+        } else if (t == 3 || t == -3) {
+            matches = index.rows(index.lowerBound(pars[0]), index.upperBound(pars[1]));
+        } else {
+            // 'valid' matches every valid row
+            matches = index.validRows();
+        }
+        return t < 0 ? index.validRows().andNot(matches) : matches;
+    }
+
+    private static int[] scanRowsToKeep(Field[] field, int[] type, Object[][] params, boolean[] keepMissing) {
         List<Integer> rows = new ArrayList<>();
         int n = field[0].rowCount();
         for (int row = 0; row < n; row++) {
@@ -45,26 +45,82 @@ public class Sort extends DataOperation {
         boolean[] ascending = getAscending(dimensions, sortFields);
 
         // Sort the rows to get the new row order
-        int[] rowOrder = new FieldRowComparison(dimensions, ascending, true).makeSortedOrder();
-
-        // Ensure that any data binned to the "..." catch-all category is moved to the end
-        for (int i = base.fields.length - 1; i >= 0; i--) {
-            Field f = base.fields[i];
-            if (f.isBinned() && f.preferCategorical()) rowOrder = moveCatchAllToEnd(rowOrder, f);
-        }
+        int[] rowOrder = makeRowOrder(base.fields, dimensions, ascending);
 
         Field[] fields = new Field[base.fields.length];
-        for (int i = 0; i < fields.length; i++) {
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = sortField(base.fields[i], rowOrder, sortCategories ? dimensions : null, ascending);
+        return base.replaceFields(fields);
+    }
+
+    /**
+     * Sorts the data (rows and categories) by one command and then sorts the rows only by a second command.
+     * This gives the same result as sorting with each command in turn, but the fields are only reordered once.
+     *
+     * @param base        data to sort
+     * @param command     fields to sort rows and categories by
+     * @param rowsCommand fields to then sort the rows by
+     * @return sorted data set
+     */
+    public static Dataset transformThenSortRows(Dataset base, String command, String rowsCommand) {
+        String[] sortFields = strings(command, ';');
+        String[] rowSortFields = strings(rowsCommand, ';');
+        if (sortFields.length == 0 || rowSortFields.length == 0)
+            return transform(transform(base, command, true), rowsCommand, false);
+
+        // The first sort, defining the categories
+        Field[] dimensions = getFields(base, sortFields);
+        boolean[] ascending = getAscending(dimensions, sortFields);
+        int[] rowOrder = makeRowOrder(base.fields, dimensions, ascending);
+
+        // The second sort only needs the fields it looks at, as they are after the first sort
+        Field[] rowDimensions = getFields(base, rowSortFields);
+        boolean[] rowAscending = getAscending(rowDimensions, rowSortFields);
+        Field[] sorted = new Field[base.fields.length];
+        for (int i = 0; i < sorted.length; i++) {
             Field field = base.fields[i];
-            fields[i] = Fields.permute(field, rowOrder, true);
-            if (!field.ordered() && sortCategories) {
-                Object[] newCategoryOrder = makeOrder(field, dimensions, ascending);
-                fields[i].setCategories(newCategoryOrder);
+            boolean needed = field.isBinned() && field.preferCategorical();
+            for (int j = 0; j < rowDimensions.length; j++) {
+                if (rowDimensions[j] == field) {
+                    if (sorted[i] == null) sorted[i] = sortField(field, rowOrder, dimensions, ascending);
+                    rowDimensions[j] = sorted[i];
+                }
             }
+            if (needed && sorted[i] == null) sorted[i] = sortField(field, rowOrder, dimensions, ascending);
         }
+        int[] secondOrder = makeRowOrder(sorted, rowDimensions, rowAscending);
+
+        // Combine the orders and apply to all the fields
+        int[] combined = new int[secondOrder.length];
+        for (int i = 0; i < combined.length; i++) combined[i] = rowOrder[secondOrder[i]];
+        Field[] fields = new Field[base.fields.length];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = sortField(base.fields[i], combined, dimensions, ascending);
         return base.replaceFields(fields);
     }
 
+    /* The sorted order for the rows, with rows in a "..." catch-all category moved to the end */
+    private static int[] makeRowOrder(Field[] fields, Field[] dimensions, boolean[] ascending) {
+        int[] rowOrder = new FieldRowComparison(dimensions, ascending, true).makeSortedOrder();
+
+        // Ensure that any data binned to the "..." catch-all category is moved to the end
+        for (int i = fields.length - 1; i >= 0; i--) {
+            Field f = fields[i];
+            if (f != null && f.isBinned() && f.preferCategorical()) rowOrder = moveCatchAllToEnd(rowOrder, f);
+        }
+        return rowOrder;
+    }
+
+    /* Reorders the field's rows, and its categories (if dimensions are given and the categories are not ordered) */
+    private static Field sortField(Field field, int[] rowOrder, Field[] dimensions, boolean[] ascending) {
+        Field result = Fields.permute(field, rowOrder, true);
+        if (!field.ordered() && dimensions != null) {
+            Object[] newCategoryOrder = makeOrder(field, dimensions, ascending);
+            result.setCategories(newCategoryOrder);
+        }
+        return result;
+    }
+
     private static Object[] makeOrder(Field field, Field[] dimensions, boolean[] ascending) {
 
         // Map from field categories to rows for that field
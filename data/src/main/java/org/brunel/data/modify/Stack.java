@@ -24,7 +24,6 @@ import org.brunel.data.Fields;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -150,29 +149,31 @@ public class Stack extends DataOperation {
      */
     private static Field[] makeStackOrderedFields(Dataset base, Field[] keyFields, int xFieldCount) {
         Field[] baseFields = orderFields(base, keyFields);
-        Integer[] rowOrder = makeStackDataOrder(baseFields, keyFields.length, xFieldCount);
+        int[] rowOrder = makeStackDataOrder(baseFields, keyFields.length, xFieldCount);
         Field[] fields = new Field[baseFields.length];
         for (int i = 0; i < baseFields.length; i++)
-            fields[i] = Fields.permute(baseFields[i], Data.toPrimitive(rowOrder), true);
+            fields[i] = Fields.permute(baseFields[i], rowOrder, true);
         return fields;
     }
 
-    public static Integer[] makeStackDataOrder(Field[] fields, int keyFieldCount, int xFieldCount) {
-        List<Integer> items = new ArrayList<>();
+    public static int[] makeStackDataOrder(Field[] fields, int keyFieldCount, int xFieldCount) {
         int n = fields[0].rowCount();
+        int[] valid = new int[n];
+        int validCount = 0;
         for (int i = 0; i < n; i++) {
-            boolean valid = true;
+            boolean ok = true;
             for (int j = 0; j < keyFieldCount; j++)
-                if (fields[j].value(i) == null) valid = false;
-            if (valid) items.add(i);
+                if (fields[j].value(i) == null) ok = false;
+            if (ok) valid[validCount++] = i;
         }
+        int[] items = new int[validCount];
+        for (int i = 0; i < validCount; i++) items[i] = valid[i];
 
         // We need descending order so stacking works bottom-up
         boolean[] ascending = new boolean[keyFieldCount];
         for (int i = 0; i < ascending.length; i++) ascending[i] = i < xFieldCount;
         FieldRowComparison comparison = new FieldRowComparison(fields, ascending, true);
-        Collections.sort(items, comparison);
-        return items.toArray(new Integer[items.size()]);
+        return comparison.sortRows(items);
     }
 
     private static Field[] orderFields(Dataset base, Field[] keyFields) {
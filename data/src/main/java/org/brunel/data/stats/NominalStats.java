@@ -16,9 +16,15 @@
 
 package org.brunel.data.stats;
 
+import org.brunel.data.Data;
 import org.brunel.data.Field;
 import org.brunel.data.util.MapInt;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class NominalStats {
 
     public static void populate(Field f) {
@@ -29,30 +35,145 @@ public class NominalStats {
         for (int i = 0; i < N; i++)
             counts.increment(f.value(i));
 
-        f.set("n", N);
         f.set("unique", counts.size());
         f.set("valid", counts.getTotalCount());
         f.set("mode", counts.mode());
 
+        // No need to sort the keys if the order has been defined
+        Object[] naturalOrder = setNaturalOrder(f, f.isProperty("categoriesOrdered") ? null : counts.sortedKeys());
+        f.set("categoryCounts", counts.getCounts(naturalOrder));
+    }
+
+    /**
+     * Sets the nominal statistics using known counts, as derived from related fields.
+     * The keys must be distinct and, with their counts, account for every valid value in the field.
+     * Keys with a zero count do not occur in the data.
+     *
+     * @param f      field to set statistics for
+     * @param keys   distinct values
+     * @param counts the number of times each value occurs
+     */
+    public static void populateFromCounts(Field f, Object[] keys, int[] counts) {
+        Map<Object, Integer> countByKey = new HashMap<>();
+        List<Object> present = new ArrayList<>();
+        int valid = 0, maxCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] == 0) continue;
+            countByKey.put(keys[i], counts[i]);
+            present.add(keys[i]);
+            valid += counts[i];
+            maxCount = Math.max(maxCount, counts[i]);
+        }
+
+        // The keys are usually sorted already, but we must guarantee it
+        Object[] sorted = present.toArray(new Object[present.size()]);
+        if (!isSorted(sorted)) Data.sort(sorted);
+
+        // Modes are the middle of the sorted list of modes, as for MapInt
+        List<Object> modes = new ArrayList<>();
+        for (Object o : sorted) if (countByKey.get(o) == maxCount) modes.add(o);
+
+        f.set("unique", sorted.length);
+        f.set("valid", valid);
+        f.set("mode", modes.isEmpty() ? null : modes.get((int) Math.floor((modes.size() - 1) / 2)));
+
+        Object[] naturalOrder = setNaturalOrder(f, sorted);
+        int[] result = new int[naturalOrder.length];
+        for (int i = 0; i < result.length; i++) {
+            Integer c = countByKey.get(naturalOrder[i]);
+            result[i] = c == null ? 0 : c;
+        }
+        f.set("categoryCounts", result);
+    }
+
+    /**
+     * Derive nominal statistics for a field whose values are a subset of another field's values,
+     * using that field's categories so no sorting is needed.
+     *
+     * @param f                field to set statistics for
+     * @param sourceCategories categories of the field from which the values were taken
+     * @return false if a value was not in the source categories, so this could not be done
+     */
+    public static boolean populateFromSubset(Field f, Object[] sourceCategories) {
+        Map<Object, Integer> index = new HashMap<>();
+        for (int i = 0; i < sourceCategories.length; i++) index.put(sourceCategories[i], i);
+        int[] counts = new int[sourceCategories.length];
+        int N = f.rowCount();
+        for (int i = 0; i < N; i++) {
+            Object o = f.value(i);
+            if (o == null) continue;
+            Integer k = index.get(o);
+            if (k == null) return false;
+            counts[k]++;
+        }
+        populateFromCounts(f, sourceCategories, counts);
+        return true;
+    }
+
+    /**
+     * Derive nominal statistics for a field formed by concatenating other fields' values
+     *
+     * @param f     field to set statistics for
+     * @param parts fields that were concatenated, all with known nominal statistics
+     * @return false if the parts' counts did not account for all their values, so this could not be done
+     */
+    public static boolean populateFromMerge(Field f, Field[] parts) {
+        Map<Object, Integer> totals = new HashMap<>();
+        List<Object> keys = new ArrayList<>();
+        for (Field part : parts) {
+            if (!accountsForAllValues(part)) return false;
+            Object[] categories = part.categories();
+            int[] counts = (int[]) part.property("categoryCounts");
+            for (int i = 0; i < categories.length; i++) {
+                Integer current = totals.get(categories[i]);
+                if (current == null) keys.add(categories[i]);
+                totals.put(categories[i], current == null ? counts[i] : current + counts[i]);
+            }
+        }
+        Object[] distinct = keys.toArray(new Object[keys.size()]);
+        int[] counts = new int[distinct.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = totals.get(distinct[i]);
+        populateFromCounts(f, distinct, counts);
+        return true;
+    }
+
+    /**
+     * Checks if the category counts for a field include every valid value.
+     * They may not if the categories were set explicitly
+     *
+     * @param f field to check
+     * @return true if the categories and counts completely describe the field
+     */
+    public static boolean accountsForAllValues(Field f) {
+        int[] counts = (int[]) f.property("categoryCounts");
+        int total = 0;
+        for (int c : counts) total += c;
+        return total == f.valid();
+    }
+
+    /* Set the categories unless they have been set explicitly, and return them */
+    private static Object[] setNaturalOrder(Field f, Object[] sortedKeys) {
+        if (f.isProperty("categoriesOrdered")) return f.categories();
         Object[] naturalOrder;
-        if (f.isProperty("categoriesOrdered")) {
-            naturalOrder = f.categories();
+        if (f.name.equals("#selection")) {
+            // The categories are as follows
+            naturalOrder = new Object[]{Field.VAL_UNSELECTED, Field.VAL_SELECTED};
         } else {
-            if (f.name.equals("#selection")) {
-                // The categories are as follows
-                naturalOrder = new Object[]{Field.VAL_UNSELECTED, Field.VAL_SELECTED};
-            } else {
-                // Extract categories from the counts
-                naturalOrder = counts.sortedKeys();
-            }
-            f.set("categories", naturalOrder);
+            // Extract categories from the counts
+            naturalOrder = sortedKeys;
         }
+        f.set("categories", naturalOrder);
+        return naturalOrder;
+    }
 
-        f.set("categoryCounts", counts.getCounts(naturalOrder));
+    private static boolean isSorted(Object[] items) {
+        for (int i = 1; i < items.length; i++)
+            if (Data.compare(items[i - 1], items[i]) >= 0) return false;
+        return true;
     }
 
     public static boolean creates(String key) {
-        return "n".equals(key) || "mode".equals(key) || "unique".equals(key) || "valid".equals(key)
+        return "mode".equals(key) || "unique".equals(key) || "valid".equals(key)
                 || "categories".equals(key) || "categoryCounts".equals(key);
     }
 }
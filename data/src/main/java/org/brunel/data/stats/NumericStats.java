@@ -20,37 +20,63 @@ import org.brunel.data.Data;
 import org.brunel.data.Field;
 import org.brunel.data.util.Range;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
+/**
+ * Numeric statistics are calculated in tiers, so that asking for a cheap statistic does not
+ * incur the cost of calculating an expensive one. In increasing order of cost they are:
+ *
+ * extent       -- validNumeric, min, max                           (single pass, no allocation)
+ * moment       -- mean, stddev, variance, skew, kurtosis           (extracted values, no sort)
+ * order        -- median, q1, q3                                   (sorted values)
+ * granularity  -- minDelta, granularity, decimalPlaces             (sorted values)
+ *
+ * The order and granularity tiers are given the sorted values, so they can share a single sort
+ */
 public class NumericStats {
 
-	public static void populate(Field f) {
+	public static void populateExtent(Field f) {
 		int n = f.rowCount();
-
-		// Extract valid numeric data
-		List<Double> valid = new ArrayList<>();
+		int count = 0;
+		double min = 0, max = 0;
 		for (int i = 0; i < n; i++) {
 			Object item = f.value(i);
-			if (item != null) {
-				if (item instanceof Range) {
-					Object low = ((Range) item).low;
-					Object high = ((Range) item).high;
-					valid.add(Data.asNumeric(low));
-					valid.add(Data.asNumeric(high));
-				} else {
-					Double d = Data.asNumeric(item);
-					if (d != null) valid.add(d);
+			if (item == null) continue;
+			if (item instanceof Range) {
+				Double low = Data.asNumeric(((Range) item).low);
+				Double high = Data.asNumeric(((Range) item).high);
+				if (low != null) {
+					min = count == 0 ? low : Math.min(min, low);
+					max = count == 0 ? low : Math.max(max, low);
+					count++;
+				}
+				if (high != null) {
+					min = count == 0 ? high : Math.min(min, high);
+					max = count == 0 ? high : Math.max(max, high);
+					count++;
+				}
+			} else {
+				Double d = Data.asNumeric(item);
+				if (d != null) {
+					min = count == 0 ? d : Math.min(min, d);
+					max = count == 0 ? d : Math.max(max, d);
+					count++;
 				}
 			}
 		}
-		Double[] data = valid.toArray(new Double[valid.size()]);
 
-		n = data.length;
-		f.set("validNumeric", n);
+		f.set("validNumeric", count);
 
 		// No numeric data -- give up and go home
+		if (count == 0) return;
+
+		f.set("min", min);
+		f.set("max", max);
+	}
+
+	public static void populateMoments(Field f) {
+		double[] data = validValues(f);
+		int n = data.length;
 		if (n == 0) return;
 
 		// Calculate the moments, used for standard statistics
@@ -63,12 +89,11 @@ public class NumericStats {
 		f.set("variance", m2);
 		f.set("skew", m3 / m2 / Math.sqrt(m2));
 		f.set("kurtosis", m4 / m2 / m2 - 3.0);
+	}
 
-		Arrays.sort(data);
-		double min = data[0];
-		double max = data[n - 1];
-		f.set("min", min);
-		f.set("max", max);
+	public static void populateOrder(Field f, double[] data) {
+		int n = data.length;
+		if (n == 0) return;
 
 		// Order statistics: using the Tukey hinge definition
 		f.set("median", av(data, (n - 1) * 0.5));
@@ -81,6 +106,14 @@ public class NumericStats {
 			f.set("q1", av(data, (n - 1) * 0.25));
 			f.set("q3", av(data, (n - 1) / 2 + (n - 1) * 0.25));
 		}
+	}
+
+	public static void populateGranularity(Field f, double[] data) {
+		int n = data.length;
+		if (n == 0) return;
+
+		double min = data[0];
+		double max = data[n - 1];
 
 		double minD = max - min;
 		boolean allInteger = true;
@@ -91,8 +124,6 @@ public class NumericStats {
 			if (allInteger && data[i] != Math.round(data[i])) allInteger = false;
 		}
 
-		f.set("minDelta", minD);
-
 		// minD is the minimum difference between items; now calculate the granularity by updating it so it
 		// divides in evenly into all the differences
 		double granularity = minD;
@@ -117,31 +148,75 @@ public class NumericStats {
 		f.set("decimalPlaces", allInteger && max - min > 5 ? 0 : places);
 	}
 
+	/*
+	 * Extract valid numeric data; ranges contribute both their low and high values.
+	 * The size is known from the extent statistics, so we never need to grow the array
+	 */
+	private static double[] validValues(Field f) {
+		Integer count = f.intProperty("validNumeric");
+		double[] data = new double[count == null ? 0 : count];
+		if (data.length == 0) return data;
+
+		int n = f.rowCount();
+		int at = 0;
+		for (int i = 0; i < n; i++) {
+			Object item = f.value(i);
+			if (item == null) continue;
+			if (item instanceof Range) {
+				Double low = Data.asNumeric(((Range) item).low);
+				Double high = Data.asNumeric(((Range) item).high);
+				if (low != null) data[at++] = low;
+				if (high != null) data[at++] = high;
+			} else {
+				Double d = Data.asNumeric(item);
+				if (d != null) data[at++] = d;
+			}
+		}
+		return data;
+	}
+
+	public static double[] sortedValues(Field f) {
+		double[] data = validValues(f);
+		Arrays.sort(data);
+		return data;
+	}
+
 	/*
 	 * Calculates the centralized moment where
 	 * c is the center,
 	 * p is the power to raise to,
 	 * N is the total weight (the amount to divide by)
 	 */
-	private static double moment(Double[] data, double c, int p, double N) {
+	private static double moment(double[] data, double c, int p, double N) {
 		if (N <= 0) return Double.NaN;
 		double sum = 0.0;
-		for (Double element : data)
+		for (double element : data)
 			sum += Math.pow(element - c, p);
 		return sum / N;
 	}
 
-	private static double av(Double[] v, double index) {
+	private static double av(double[] v, double index) {
 		return (v[(int) Math.floor(index)] + v[(int) Math.ceil(index)]) / 2.0;
 	}
 
+	public static boolean createsExtent(String key) {
+		return "validNumeric".equals(key) || "min".equals(key) || "max".equals(key);
+	}
+
+	public static boolean createsMoments(String key) {
+		return "mean".equals(key) || "stddev".equals(key) || "variance".equals(key)
+				|| "skew".equals(key) || "kurtosis".equals(key);
+	}
+
+	public static boolean createsOrder(String key) {
+		return "median".equals(key) || "q1".equals(key) || "q3".equals(key);
+	}
+
+	public static boolean createsGranularity(String key) {
+		return "minDelta".equals(key) || "granularity".equals(key) || "decimalPlaces".equals(key);
+	}
+
 	public static boolean creates(String key) {
-		return "validNumeric".equals(key) || "mean".equals(key)
-				|| "stddev".equals(key) || "variance".equals(key)
-				|| "skew".equals(key) || "kurtosis".equals(key)
-				|| "min".equals(key) || "max".equals(key)
-				|| "q1".equals(key) || "q3".equals(key)
-				|| "median".equals(key) || "granularity".equals(key)
-				|| "decimalPlaces".equals(key);
+		return createsExtent(key) || createsMoments(key) || createsOrder(key) || createsGranularity(key);
 	}
 }
@@ -18,6 +18,7 @@ package org.brunel.data.summary;
 
 import org.brunel.data.Data;
 import org.brunel.data.Field;
+import org.brunel.translator.JSTranslation;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -26,6 +27,10 @@ import java.util.Comparator;
  * Details on how to compare rows
  */
 public class FieldRowComparison implements Comparator<Integer> {
+
+    @JSTranslation(ignore = true)
+    private static int parallelSortRows = Integer.getInteger("brunel.sort.parallel.rows", 500000);
+
     private final boolean[] ascending;
     private final boolean rowsBreakTies;
     private final int n;
@@ -53,9 +58,53 @@ public class FieldRowComparison implements Comparator<Integer> {
 
     public int[] makeSortedOrder() {
         int n = fields[0].rowCount();
-        Integer[] items = new Integer[n];
-        for (int i = 0; i < n; i++) items[i] = i;
-        Arrays.sort(items, this);
-        return Data.toPrimitive(items);
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) rows[i] = i;
+        return sortRows(rows);
+    }
+
+    /**
+     * Sorts the given rows into the order defined by this comparison
+     *
+     * @param rows the rows to sort, which are not modified
+     * @return a new array with the rows in sorted order
+     */
+    @JSTranslation(js = {
+            "var items = rows.slice();",
+            "$.sort(items, this);",
+            "return items;"
+    })
+    public int[] sortRows(int[] rows) {
+        RowSort sort = fields.length == 0 ? null : RowSort.make(fields, ascending, n);
+        if (sort == null) {
+            Integer[] items = new Integer[rows.length];
+            for (int i = 0; i < rows.length; i++) items[i] = rows[i];
+            Arrays.sort(items, this);
+            return Data.toPrimitive(items);
+        }
+        // The primitive sort is stable, so ties are already broken by row if the rows were in order
+        if (rowsBreakTies && !isAscending(rows)) {
+            rows = rows.clone();
+            Arrays.sort(rows);
+        }
+        return sort.sort(rows, parallelSortRows > 0 && rows.length >= parallelSortRows);
+    }
+
+    /**
+     * Sets the number of rows at which sorts are split between threads (Java only). The sorted order is the
+     * same either way. The default can be set with the system property "brunel.sort.parallel.rows"
+     *
+     * @param rows smallest number of rows to sort in parallel; zero or less to always use a single thread
+     */
+    @JSTranslation(ignore = true)
+    public static void setParallelSortRows(int rows) {
+        parallelSortRows = rows;
+    }
+
+    @JSTranslation(ignore = true)
+    private static boolean isAscending(int[] rows) {
+        for (int i = 1; i < rows.length; i++)
+            if (rows[i] < rows[i - 1]) return false;
+        return true;
     }
 }
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data.summary;
+
+import org.brunel.data.Field;
+import org.brunel.data.util.MapInt;
+import org.brunel.translator.JSTranslation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts rows using keys extracted once from the fields into primitive arrays, giving the same order as
+ * FieldRowComparison without boxing rows or going through the field providers for every comparison.
+ * Categorical keys are dictionary ranks and are sorted with stable counting sorts; if any key is numeric
+ * a stable merge sort is used instead. Both can be split between threads for large numbers of rows.
+ */
+@JSTranslation(ignore = true)
+class RowSort {
+
+    private static final int INSERTION_SORT_SIZE = 16;
+    private static final int PARALLEL_GRAIN = 1 << 14;     // Smallest block of rows worth giving to a thread
+
+    private final int keyCount;
+    private final int[][] ranks;                // Per key, the category ranks (null for numeric keys)
+    private final int[] rankCount;              // Per key, the number of distinct ranks
+    private final double[][] numbers;           // Per key, the numeric values (null for categorical keys)
+    private final boolean[][] missing;          // Per key, which numeric values are null
+    private final boolean[] descending;         // Per key, true if the sort order is reversed
+    private boolean allCategorical;             // True if all keys are category ranks
+
+    /**
+     * Extracts the keys for the fields, returning null if a key has values that cannot be represented
+     * as primitives (such as strings in a numeric field), in which case the caller must compare the rows directly
+     */
+    static RowSort make(Field[] fields, boolean[] ascending, int keyCount) {
+        RowSort sort = new RowSort(ascending, keyCount);
+        int n = fields[0].rowCount();
+        for (int k = 0; k < keyCount; k++) {
+            MapInt categoryOrder = fields[k].getCategoryOrder();
+            if (categoryOrder.isEmpty()) {
+                if (!sort.extractNumbers(fields[k], k, n)) return null;
+            } else {
+                sort.extractRanks(fields[k], k, n, categoryOrder);
+            }
+        }
+        return sort;
+    }
+
+    private RowSort(boolean[] ascending, int keyCount) {
+        this.keyCount = keyCount;
+        this.ranks = new int[keyCount][];
+        this.rankCount = new int[keyCount];
+        this.numbers = new double[keyCount][];
+        this.missing = new boolean[keyCount][];
+        this.descending = new boolean[keyCount];
+        this.allCategorical = true;
+        for (int k = 0; k < keyCount; k++) descending[k] = ascending != null && !ascending[k];
+    }
+
+    /*
+     * Category ranks are stored so that ascending rank is the required order: nulls go after all categories,
+     * and when descending the ranks are reversed, which places the nulls first
+     */
+    private void extractRanks(Field field, int k, int n, MapInt categoryOrder) {
+        int count = categoryOrder.size();
+        int[] r = new int[n];
+        for (int i = 0; i < n; i++) {
+            Object o = field.value(i);
+            int rank = o == null ? count : categoryOrder.get(o);
+            r[i] = descending[k] ? count - rank : rank;
+        }
+        ranks[k] = r;
+        rankCount[k] = count + 1;
+    }
+
+    /* Numbers and dates can be compared as doubles; a mixture of the two, or any other type, cannot */
+    private boolean extractNumbers(Field field, int k, int n) {
+        double[] d = new double[n];
+        boolean[] nulls = new boolean[n];
+        boolean hasNumbers = false, hasDates = false;
+        for (int i = 0; i < n; i++) {
+            Object o = field.value(i);
+            if (o == null) {
+                nulls[i] = true;
+            } else if (o instanceof Number) {
+                d[i] = ((Number) o).doubleValue();
+                hasNumbers = true;
+            } else if (o instanceof Date) {
+                d[i] = ((Date) o).getTime();
+                hasDates = true;
+            } else {
+                return false;
+            }
+        }
+        if (hasNumbers && hasDates) return false;
+        numbers[k] = d;
+        missing[k] = nulls;
+        allCategorical = false;
+        return true;
+    }
+
+    /**
+     * Sorts the rows. The sort is stable, so rows that compare equal stay in the order given.
+     * Using multiple threads does not change the result, only how quickly it is found
+     *
+     * @param rows     rows to sort; this array is not modified
+     * @param parallel true to split the work between threads
+     * @return sorted rows
+     */
+    int[] sort(int[] rows, boolean parallel) {
+        int[] result = rows.clone();
+        if (result.length < 2 || keyCount == 0) return result;
+        if (allCategorical) {
+            // Least significant key first; each pass is stable so earlier keys take priority
+            int[] buffer = new int[result.length];
+            for (int k = keyCount - 1; k >= 0; k--) {
+                if (parallel) parallelCountingSort(result, buffer, ranks[k], rankCount[k]);
+                else countingSort(result, buffer, ranks[k], rankCount[k]);
+                int[] t = result;
+                result = buffer;
+                buffer = t;
+            }
+        } else if (parallel) {
+            ForkJoinPool.commonPool().invoke(new ParallelMergeSort(this, result, rows.clone(), 0, result.length));
+        } else {
+            mergeSort(result, rows.clone(), 0, result.length);
+        }
+        return result;
+    }
+
+    private static void countingSort(int[] source, int[] target, int[] keys, int keyRange) {
+        int[] start = new int[keyRange + 1];
+        for (int row : source) start[keys[row] + 1]++;
+        for (int i = 1; i < keyRange; i++) start[i] += start[i - 1];
+        for (int row : source) target[start[keys[row]]++] = row;
+    }
+
+    /*
+     * Each thread counts the keys in its own consecutive chunk of the source. The chunks' positions for each key
+     * are then laid out one after the other, so when each thread places its rows the result is still stable
+     */
+    private static void parallelCountingSort(final int[] source, final int[] target, final int[] keys, final int keyRange) {
+        final int chunks = Math.min(ForkJoinPool.commonPool().getParallelism(), source.length / PARALLEL_GRAIN);
+        if (chunks < 2 || (long) chunks * keyRange > source.length) {
+            // Not worth it, or too many keys for the per-chunk tables
+            countingSort(source, target, keys, keyRange);
+            return;
+        }
+
+        final int chunkSize = (source.length + chunks - 1) / chunks;
+        final int[][] start = new int[chunks][keyRange];
+        runChunks(chunks, new ChunkTask() {
+            public void run(int chunk) {
+                int[] counts = start[chunk];
+                int end = Math.min(source.length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) counts[keys[source[i]]]++;
+            }
+        });
+
+        int at = 0;
+        for (int key = 0; key < keyRange; key++)
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int count = start[chunk][key];
+                start[chunk][key] = at;
+                at += count;
+            }
+
+        runChunks(chunks, new ChunkTask() {
+            public void run(int chunk) {
+                int[] position = start[chunk];
+                int end = Math.min(source.length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) target[position[keys[source[i]]]++] = source[i];
+            }
+        });
+    }
+
+    private static void runChunks(int chunks, final ChunkTask task) {
+        final List<RecursiveAction> actions = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            final int chunk = i;
+            actions.add(new RecursiveAction() {
+                protected void compute() {
+                    task.run(chunk);
+                }
+            });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(actions);
+            }
+        });
+    }
+
+    private interface ChunkTask {
+        void run(int chunk);
+    }
+
+    /* Sorts a[lo, hi) using b, which holds the same contents, as working space */
+    private void mergeSort(int[] a, int[] b, int lo, int hi) {
+        if (hi - lo <= INSERTION_SORT_SIZE) {
+            for (int i = lo + 1; i < hi; i++) {
+                int row = a[i];
+                int j = i;
+                while (j > lo && compare(a[j - 1], row) > 0) {
+                    a[j] = a[j - 1];
+                    j--;
+                }
+                a[j] = row;
+            }
+            return;
+        }
+
+        // Sort each half of b (using a as working space) then merge them into a
+        int mid = (lo + hi) >>> 1;
+        mergeSort(b, a, lo, mid);
+        mergeSort(b, a, mid, hi);
+        merge(a, b, lo, mid, hi);
+    }
+
+    /* Merges the sorted runs b[lo, mid) and b[mid, hi) into a[lo, hi) */
+    private void merge(int[] a, int[] b, int lo, int mid, int hi) {
+        if (compare(b[mid - 1], b[mid]) <= 0) {
+            System.arraycopy(b, lo, a, lo, hi - lo);
+            return;
+        }
+        for (int i = lo, p = lo, q = mid; i < hi; i++) {
+            if (q >= hi || p < mid && compare(b[p], b[q]) <= 0) a[i] = b[p++];
+            else a[i] = b[q++];
+        }
+    }
+
+    /* The same merge sort, with the two halves sorted in parallel until they are small */
+    private static class ParallelMergeSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient RowSort order;              // Defines the comparison of rows
+        private final int[] a, b;
+        private final int lo, hi;
+
+        ParallelMergeSort(RowSort order, int[] a, int[] b, int lo, int hi) {
+            this.order = order;
+            this.a = a;
+            this.b = b;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= PARALLEL_GRAIN) {
+                order.mergeSort(a, b, lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ParallelMergeSort(order, b, a, lo, mid), new ParallelMergeSort(order, b, a, mid, hi));
+                order.merge(a, b, lo, mid, hi);
+            }
+        }
+    }
+
+    /* Compares the keys of two rows exactly as FieldRowComparison would, without breaking ties */
+    private int compare(int a, int b) {
+        for (int k = 0; k < keyCount; k++) {
+            int n;
+            if (ranks[k] != null) {
+                n = ranks[k][a] - ranks[k][b];
+            } else {
+                boolean nullA = missing[k][a], nullB = missing[k][b];
+                if (nullA || nullB) n = nullA == nullB ? 0 : (nullA ? 1 : -1);
+                else n = Double.compare(numbers[k][a], numbers[k][b]);
+                if (descending[k]) n = -n;
+            }
+            if (n != 0) return n;
+        }
+        return 0;
+    }
+}
@@ -17,24 +17,45 @@
 package org.brunel.data.util;
 
 import org.brunel.data.Data;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import org.brunel.translator.JSTranslation;
 
 /**
- * Associates items with integers
+ * Maps objects to integers, used both for counting and for indexing.
+ *
+ * In Java this is an open-addressing hash table with primitive values, so counting does not box
+ * and each increment is a single probe. It also tracks the keys with the maximum count, so
+ * finding the mode does not need to look at every key.
+ * The Javascript version is a simple map, as Javascript objects have no general hash codes.
  */
 public class MapInt {
-    private final Map<Object, Integer> map = new HashMap<>();
+    @JSTranslation(ignore = true)
+    private static final Object NULL_KEY = new Object();   // Stands in for a null key in the table
+
+    @JSTranslation(ignore = true)
+    private Object[] keys = new Object[16];                 // Hash table of keys (null for empty slots)
+    @JSTranslation(ignore = true)
+    private int[] values = new int[16];                     // Value for the key in the same slot
+    @JSTranslation(ignore = true)
+    private int[] modeSlots = new int[4];                   // Slots whose value equals the max count
+    @JSTranslation(ignore = true)
+    private int modeSlotCount;                              // Number of valid entries in modeSlots
+    @JSTranslation(ignore = true)
+    private int size;                                       // Number of keys in the table
+
     private int totalCount;
     private int maxCount;
 
+    @JSTranslation(js = "this.map = new $.Map(); this.totalCount = 0; this.maxCount = 0;")
+    public MapInt() {
+    }
+
+    @JSTranslation(js = {
+            "var v = this.map.get(o);",
+            "return v == null ? 0 : v;"
+    })
     public int get(Object o) {
-        Integer v = map.get(o);
-        return v == null ? 0 : v;
+        int slot = find(o == null ? NULL_KEY : o);
+        return keys[slot] == null ? 0 : values[slot];
     }
 
     public int[] getCounts(Object[] vals) {
@@ -48,33 +69,65 @@ public class MapInt {
      *
      * @return array of keys
      */
+    @JSTranslation(js = {
+            "var results = $.Array(this.size(), null);",
+            "for (var _i = $.iter(this.map.keySet()), o = _i.current; _i.hasNext(); o = _i.next())",
+            "  results[this.map.get(o)] = o;",
+            "return results;"
+    })
     public Object[] getIndexedKeys() {
-        Object[] results = new Object[size()];
-        for (Object o : map.keySet()) results[map.get(o)] = o;
+        Object[] results = new Object[size];
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i] != null) results[values[i]] = keyAt(i);
         return results;
     }
 
+    @JSTranslation(js = {
+            "if (o == null) return;",
+            "var v = this.get(o) + 1;",
+            "this.map.put(o, v);",
+            "this.totalCount++;",
+            "this.maxCount = Math.max(this.maxCount, v);"
+    })
     public void increment(Object o) {
-        if (o != null) {
-            int v = get(o) + 1;
-            map.put(o, v);
-            totalCount++;
-            maxCount = Math.max(maxCount, v);
+        if (o == null) return;
+        int slot = find(o);
+        if (keys[slot] == null) {
+            keys[slot] = o;
+            size++;
+        }
+        int v = ++values[slot];
+        totalCount++;
+
+        // Track the slots which hold the max count
+        if (v > maxCount) {
+            maxCount = v;
+            modeSlotCount = 0;
         }
+        if (v == maxCount) addModeSlot(slot);
+
+        // Growing moves slots, so do it after the slot has been used
+        if (size * 2 > keys.length) grow();
     }
 
     public int getTotalCount() {
         return totalCount;
     }
 
+    @JSTranslation(js = {
+            "if (this.isEmpty()) return null;",
+            "var list = [];",
+            "for (var _i = $.iter(this.map.keySet()), s = _i.current; _i.hasNext(); s = _i.next())",
+            "  if (this.map.get(s) == this.maxCount) list.push(s);",
+            "V.Data.sort(list);",
+            "return list[Math.floor((list.length - 1) / 2)];"
+    })
     public Object mode() {
-        if (isEmpty()) return null;
-        List<Object> list = new ArrayList<>();
-        for (Object s : map.keySet())
-            if (map.get(s) == maxCount) list.add(s);
+        if (isEmpty() || modeSlotCount == 0) return null;
+        Object[] array = new Object[modeSlotCount];
+        for (int i = 0; i < modeSlotCount; i++) array[i] = keyAt(modeSlots[i]);
 
         // Set the mode to be the middle of the sorted list of modes
-        Object[] array = list.toArray(new Object[list.size()]);
         Data.sort(array);
         return array[(int) Math.floor((array.length - 1) / 2)];
     }
@@ -84,26 +137,87 @@ public class MapInt {
      *
      * @param keys array of items to add to indexing
      */
+    @JSTranslation(js = {
+            "for (var i = 0; i < keys.length; i++)",
+            "  if (!this.map.containsKey(keys[i])) this.map.put(keys[i], this.map.size());",
+            "return this;"
+    })
     public MapInt index(Object[] keys) {
-        for (Object o : keys)
-            if (!map.containsKey(o)) {
-                map.put(o, map.size());
+        for (Object o : keys) {
+            Object key = o == null ? NULL_KEY : o;
+            int slot = find(key);
+            if (this.keys[slot] == null) {
+                this.keys[slot] = key;
+                values[slot] = size++;
+                if (size * 2 > this.keys.length) grow();
             }
+        }
         return this;
     }
 
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size() == 0;
     }
 
+    @JSTranslation(js = "return this.map.size();")
     public int size() {
-        return map.size();
+        return size;
     }
 
+    @JSTranslation(js = {
+            "var array = this.map.keySet().toArray();",
+            "V.Data.sort(array);",
+            "return array;"
+    })
     public Object[] sortedKeys() {
-        Set<Object> s = map.keySet();
-        Object[] array = s.toArray(new Object[s.size()]);
+        Object[] array = new Object[size];
+        int at = 0;
+        for (int i = 0; i < keys.length; i++)
+            if (keys[i] != null) array[at++] = keyAt(i);
         Data.sort(array);
         return array;
     }
+
+    /* The slot for the key; either the one holding it, or the empty one where it should go */
+    @JSTranslation(ignore = true)
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    @JSTranslation(ignore = true)
+    private Object keyAt(int slot) {
+        return keys[slot] == NULL_KEY ? null : keys[slot];
+    }
+
+    @JSTranslation(ignore = true)
+    private void addModeSlot(int slot) {
+        if (modeSlotCount == modeSlots.length) {
+            int[] larger = new int[modeSlots.length * 2];
+            System.arraycopy(modeSlots, 0, larger, 0, modeSlotCount);
+            modeSlots = larger;
+        }
+        modeSlots[modeSlotCount++] = slot;
+    }
+
+    /* Double the table size, re-hashing all keys (and the mode slots, which move with them) */
+    @JSTranslation(ignore = true)
+    private void grow() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        int[] newSlot = new int[oldKeys.length];
+        keys = new Object[oldKeys.length * 2];
+        values = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            newSlot[i] = slot;
+        }
+        for (int i = 0; i < modeSlotCount; i++) modeSlots[i] = newSlot[modeSlots[i]];
+    }
 }
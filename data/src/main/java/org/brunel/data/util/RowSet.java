@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data.util;
+
+import org.brunel.translator.JSTranslation;
+
+import java.util.Arrays;
+
+/**
+ * A set of row indices, stored compactly in the manner of a "roaring" bitmap.
+ *
+ * Rows are split into chunks of 65536 by their upper 16 bits. A chunk with few rows stores the lower bits
+ * of each row in a sorted array; a chunk with more than 4096 rows uses a bitmap of 1024 longs instead.
+ * Sets are combined chunk by chunk, so "and", "or" and the like cost time proportional to the chunks
+ * involved, not the number of rows they cover.
+ * This is only used in Java; the Javascript code works with the rows directly.
+ */
+@JSTranslation(ignore = true)
+public class RowSet {
+
+    private static final int AND = 0, OR = 1, AND_NOT = 2, XOR = 3;
+    private static final int MAX_ARRAY = 4096;              // Chunks with more rows than this use a bitmap
+
+    /**
+     * Make a set of consecutive rows
+     *
+     * @param start first row in the set
+     * @param end   the row after the last one in the set
+     * @return the set of rows from start to end-1
+     */
+    public static RowSet range(int start, int end) {
+        RowSet set = new RowSet();
+        int row = Math.max(start, 0);
+        while (row < end) {
+            int key = row >>> 16;
+            int last = (int) Math.min(end, ((long) key + 1) << 16);
+            set.append(key, Chunk.range(row & 0xFFFF, last - (key << 16)));
+            row = last;
+        }
+        return set;
+    }
+
+    /**
+     * Make a set from a list of rows
+     *
+     * @param rows rows in any order, with duplicates allowed
+     * @return the set of those rows
+     */
+    public static RowSet of(int[] rows) {
+        int[] sorted = rows.clone();
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && sorted[0] < 0) throw new IllegalArgumentException("Rows cannot be negative");
+        RowSet set = new RowSet();
+        int i = 0;
+        while (i < sorted.length) {
+            int key = sorted[i] >>> 16;
+            int j = i + 1;
+            while (j < sorted.length && sorted[j] >>> 16 == key) j++;
+            set.append(key, Chunk.of(sorted, i, j));
+            i = j;
+        }
+        return set;
+    }
+
+    private int[] keys = new int[4];                        // The upper bits of the rows in each chunk, ascending
+    private Chunk[] chunks = new Chunk[4];                  // The chunk for each key
+    private int size;                                       // Number of chunks in use
+
+    public boolean contains(int row) {
+        int i = find(row >>> 16);
+        return i >= 0 && chunks[i].contains(row & 0xFFFF);
+    }
+
+    public void add(int row) {
+        if (row < 0) throw new IllegalArgumentException("Rows cannot be negative");
+        int i = find(row >>> 16);
+        if (i >= 0) {
+            chunks[i] = chunks[i].add(row & 0xFFFF);
+        } else {
+            insert(-i - 1, row >>> 16, new ArrayChunk(new char[]{(char) (row & 0xFFFF)}, 1));
+        }
+    }
+
+    public void remove(int row) {
+        int i = find(row >>> 16);
+        if (i < 0) return;
+        Chunk chunk = chunks[i].remove(row & 0xFFFF);
+        if (chunk.cardinality() > 0) {
+            chunks[i] = chunk;
+        } else {
+            // Drop the empty chunk
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+            chunks[--size] = null;
+        }
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += chunks[i].cardinality();
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param other set to combine with
+     * @return new set of the rows in both sets
+     */
+    public RowSet and(RowSet other) {
+        return combine(other, AND);
+    }
+
+    /**
+     * @param other set to combine with
+     * @return new set of the rows in either set
+     */
+    public RowSet or(RowSet other) {
+        return combine(other, OR);
+    }
+
+    /**
+     * @param other set to combine with
+     * @return new set of the rows in this set that are not in the other one
+     */
+    public RowSet andNot(RowSet other) {
+        return combine(other, AND_NOT);
+    }
+
+    /**
+     * @param other set to combine with
+     * @return new set of the rows in exactly one of the sets
+     */
+    public RowSet xor(RowSet other) {
+        return combine(other, XOR);
+    }
+
+    /**
+     * @return the rows in the set, in ascending order
+     */
+    public int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int at = 0;
+        for (int i = 0; i < size; i++) at = chunks[i].fill(rows, at, keys[i] << 16);
+        return rows;
+    }
+
+    public int expectedSize() {
+        int total = 32 + size * 8;
+        for (int i = 0; i < size; i++) total += chunks[i].expectedSize();
+        return total;
+    }
+
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private RowSet combine(RowSet other, int op) {
+        RowSet result = new RowSet();
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            int a = i < size ? keys[i] : Integer.MAX_VALUE;
+            int b = j < other.size ? other.keys[j] : Integer.MAX_VALUE;
+            if (a < b) {
+                // Only in this set
+                if (op != AND) result.append(a, chunks[i].copy());
+                i++;
+            } else if (b < a) {
+                // Only in the other set
+                if (op == OR || op == XOR) result.append(b, other.chunks[j].copy());
+                j++;
+            } else {
+                result.append(a, Chunk.combine(chunks[i], other.chunks[j], op));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    // Add a chunk after all the others; empty chunks are not stored
+    private void append(int key, Chunk chunk) {
+        if (chunk != null && chunk.cardinality() > 0) insert(size, key, chunk);
+    }
+
+    private void insert(int i, int key, Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(chunks, i, chunks, i + 1, size - i);
+        keys[i] = key;
+        chunks[i] = chunk;
+        size++;
+    }
+
+    /*
+     * The rows sharing the same upper bits. Chunks may be changed in place by add and remove,
+     * which return the chunk to use afterwards, as a chunk may need to change how it is stored
+     */
+    private static abstract class Chunk {
+
+        static Chunk range(int low, int high) {
+            if (high - low <= MAX_ARRAY) {
+                char[] values = new char[high - low];
+                for (int i = 0; i < values.length; i++) values[i] = (char) (low + i);
+                return new ArrayChunk(values, values.length);
+            }
+            long[] words = new long[1024];
+            for (int v = low; v < high; v++) words[v >>> 6] |= 1L << v;
+            return new BitmapChunk(words, high - low);
+        }
+
+        // Rows from sorted[from] to sorted[to-1], which all have the same upper bits
+        static Chunk of(int[] sorted, int from, int to) {
+            char[] values = new char[Math.min(to - from, MAX_ARRAY + 1)];
+            int n = 0;
+            for (int i = from; i < to && n <= MAX_ARRAY; i++)
+                if (i == from || sorted[i] != sorted[i - 1]) values[n++] = (char) (sorted[i] & 0xFFFF);
+            if (n <= MAX_ARRAY) return new ArrayChunk(values, n);
+
+            long[] words = new long[1024];
+            for (int i = from; i < to; i++) words[(sorted[i] & 0xFFFF) >>> 6] |= 1L << sorted[i];
+            return fromWords(words);
+        }
+
+        static Chunk fromWords(long[] words) {
+            int n = 0;
+            for (long w : words) n += Long.bitCount(w);
+            if (n > MAX_ARRAY) return new BitmapChunk(words, n);
+            char[] values = new char[n];
+            BitmapChunk.fill(words, values);
+            return new ArrayChunk(values, n);
+        }
+
+        static Chunk combine(Chunk a, Chunk b, int op) {
+            // Sorted arrays can be tested against the other chunk directly
+            if (op == AND && a instanceof ArrayChunk) return ((ArrayChunk) a).retain(b, true);
+            if (op == AND && b instanceof ArrayChunk) return ((ArrayChunk) b).retain(a, true);
+            if (op == AND_NOT && a instanceof ArrayChunk) return ((ArrayChunk) a).retain(b, false);
+
+            long[] x = a.words(), y = b.words();
+            long[] result = new long[1024];
+            for (int i = 0; i < result.length; i++) {
+                if (op == AND) result[i] = x[i] & y[i];
+                else if (op == OR) result[i] = x[i] | y[i];
+                else if (op == AND_NOT) result[i] = x[i] & ~y[i];
+                else result[i] = x[i] ^ y[i];
+            }
+            return fromWords(result);
+        }
+
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        abstract Chunk add(int low);
+
+        abstract Chunk remove(int low);
+
+        abstract Chunk copy();
+
+        abstract int expectedSize();
+
+        abstract int fill(int[] rows, int at, int base);
+
+        abstract long[] words();                // Bitmap of the rows; must not be modified
+    }
+
+    private static class ArrayChunk extends Chunk {
+        private char[] values;                  // Sorted lower bits of the rows
+        private int n;                          // Number of values in use
+
+        ArrayChunk(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        int cardinality() {
+            return n;
+        }
+
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, n, (char) low) >= 0;
+        }
+
+        Chunk add(int low) {
+            int p = Arrays.binarySearch(values, 0, n, (char) low);
+            if (p >= 0) return this;
+            if (n == MAX_ARRAY) return new BitmapChunk(words(), n).add(low);
+            if (n == values.length) values = Arrays.copyOf(values, Math.min(MAX_ARRAY, Math.max(4, n * 2)));
+            p = -p - 1;
+            System.arraycopy(values, p, values, p + 1, n - p);
+            values[p] = (char) low;
+            n++;
+            return this;
+        }
+
+        Chunk remove(int low) {
+            int p = Arrays.binarySearch(values, 0, n, (char) low);
+            if (p < 0) return this;
+            System.arraycopy(values, p + 1, values, p, n - p - 1);
+            n--;
+            return this;
+        }
+
+        Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, n), n);
+        }
+
+        int expectedSize() {
+            return 32 + values.length * 2;
+        }
+
+        int fill(int[] rows, int at, int base) {
+            for (int i = 0; i < n; i++) rows[at++] = base | values[i];
+            return at;
+        }
+
+        long[] words() {
+            long[] words = new long[1024];
+            for (int i = 0; i < n; i++) words[values[i] >>> 6] |= 1L << values[i];
+            return words;
+        }
+
+        // The values that are (or are not) in the other chunk
+        Chunk retain(Chunk other, boolean inOther) {
+            char[] result = new char[n];
+            int count = 0;
+            for (int i = 0; i < n; i++)
+                if (other.contains(values[i]) == inOther) result[count++] = values[i];
+            return new ArrayChunk(result, count);
+        }
+    }
+
+    private static class BitmapChunk extends Chunk {
+
+        // Write the set bits into the array, in ascending order
+        static void fill(long[] words, char[] values) {
+            int at = 0;
+            for (int i = 0; i < words.length; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    values[at++] = (char) (i * 64 + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+        }
+
+        private final long[] words;             // One bit for each possible row
+        private int n;                          // Number of bits set
+
+        BitmapChunk(long[] words, int n) {
+            this.words = words;
+            this.n = n;
+        }
+
+        int cardinality() {
+            return n;
+        }
+
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        Chunk add(int low) {
+            if (!contains(low)) {
+                words[low >>> 6] |= 1L << low;
+                n++;
+            }
+            return this;
+        }
+
+        Chunk remove(int low) {
+            if (!contains(low)) return this;
+            words[low >>> 6] &= ~(1L << low);
+            n--;
+            return n > MAX_ARRAY ? this : fromWords(words);
+        }
+
+        Chunk copy() {
+            return new BitmapChunk(words.clone(), n);
+        }
+
+        int expectedSize() {
+            return 32 + words.length * 8;
+        }
+
+        int fill(int[] rows, int at, int base) {
+            for (int i = 0; i < words.length; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    rows[at++] = base | (i * 64 + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return at;
+        }
+
+        long[] words() {
+            return words;
+        }
+    }
+
+}
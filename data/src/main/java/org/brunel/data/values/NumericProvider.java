@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.values;
+
+import org.brunel.data.util.MapInt;
+import org.brunel.translator.JSTranslation;
+
+import java.util.BitSet;
+import java.util.Date;
+
+/**
+ * Numbers or dates held as primitive doubles (dates as milliseconds), with the missing rows marked in a bit set.
+ * This is the most compact way to hold numeric data extracted from another source, and rows can be compared
+ * without creating objects.
+ */
+@JSTranslation(ignore = true)
+public class NumericProvider implements Provider {
+
+    private final double[] values;
+    private final BitSet missing;               // Null if no rows are missing
+    private final boolean dates;
+
+    /**
+     * @param values  value for each row; ignored for missing rows
+     * @param missing rows with no value, or null if there are none; this must not be changed afterwards
+     * @param dates   true if the values are dates in milliseconds
+     */
+    public NumericProvider(double[] values, BitSet missing, boolean dates) {
+        this.values = values;
+        this.missing = missing == null || missing.isEmpty() ? null : missing;
+        this.dates = dates;
+    }
+
+    public int compareRows(int a, int b, MapInt categoryOrder) {
+        boolean p = isMissing(a), q = isMissing(b);
+        if (p || q) return p == q ? 0 : (p ? 1 : -1);
+        if (!categoryOrder.isEmpty()) return categoryOrder.get(value(a)) - categoryOrder.get(value(b));
+        return Double.compare(values[a], values[b]);
+    }
+
+    public int count() {
+        return values.length;
+    }
+
+    public int expectedSize() {
+        return 24 + 8 * values.length + (missing == null ? 0 : missing.size() / 8);
+    }
+
+    public Provider setValue(Object o, int index) {
+        return ColumnProvider.copy(this).setValue(o, index);
+    }
+
+    public Object value(int index) {
+        if (isMissing(index)) return null;
+        return dates ? new Date((long) values[index]) : (Object) values[index];
+    }
+
+    private boolean isMissing(int row) {
+        return missing != null && missing.get(row);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data.values;
+
+import org.brunel.data.Data;
+import org.brunel.data.Field;
+import org.brunel.data.util.MapInt;
+import org.brunel.data.util.RowSet;
+import org.brunel.translator.JSTranslation;
+
+import java.util.Arrays;
+
+/**
+ * Provides the values for the selection field from the set of selected rows, rather than storing
+ * a value for each row. Only used in Java; in Javascript the selection field is a simple column.
+ */
+@JSTranslation(ignore = true)
+public class SelectionProvider implements Provider {
+
+    private final int len;
+    private RowSet selected;
+
+    public SelectionProvider(RowSet selected, int len) {
+        this.selected = selected;
+        this.len = len;
+    }
+
+    /**
+     * @return the selected rows; changes to the set will be seen in this provider
+     */
+    public RowSet selected() {
+        return selected;
+    }
+
+    public void setSelected(RowSet selected) {
+        this.selected = selected;
+    }
+
+    /**
+     * Make a provider for the selection state of the rows in the given order
+     *
+     * @param order the rows to use from this provider
+     * @return new provider
+     */
+    public SelectionProvider reorder(int[] order) {
+        int[] rows = new int[order.length];
+        int count = 0;
+        if (!selected.isEmpty())
+            for (int i = 0; i < order.length; i++) if (selected.contains(order[i])) rows[count++] = i;
+        return new SelectionProvider(RowSet.of(Arrays.copyOf(rows, count)), order.length);
+    }
+
+    public int compareRows(int a, int b, MapInt categoryOrder) {
+        Object p = value(a);
+        Object q = value(b);
+        if (p == q) return 0;
+        if (categoryOrder.isEmpty())
+            return Data.compare(p, q);
+        else
+            return categoryOrder.get(p) - categoryOrder.get(q);
+    }
+
+    public int count() {
+        return len;
+    }
+
+    public int expectedSize() {
+        return 24 + selected.expectedSize();
+    }
+
+    public Provider setValue(Object o, int index) {
+        if (Field.VAL_SELECTED.equals(o)) selected.add(index);
+        else if (Field.VAL_UNSELECTED.equals(o)) selected.remove(index);
+        else return ColumnProvider.copy(this).setValue(o, index);
+        return this;
+    }
+
+    public Object value(int index) {
+        return selected.contains(index) ? Field.VAL_SELECTED : Field.VAL_UNSELECTED;
+    }
+
+}
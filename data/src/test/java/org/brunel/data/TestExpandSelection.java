@@ -59,5 +59,65 @@ public class TestExpandSelection {
 
     }
 
+    @Test
+    public void testModifiers() {
+        Dataset a = Summarize.transform(data, "gender=gender; count=:count");
+        Field select = data.field("#selection");
+        String[] keys = {"gender"};
+
+        data.modifySelection("sel", 0, a, keys);
+        data.modifySelection("add", 1, a, keys);
+        assertEquals("Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y", CannedData.dumpField(select));
+
+        data.modifySelection("sub", 0, a, keys);
+        assertEquals("Y,Y,N,N,Y,Y,Y,N,N,N,N,Y,Y,N,Y,Y,Y,Y,Y,N,N,Y,N,N,N", CannedData.dumpField(select));
+
+        data.modifySelection("tog", 0, a, keys);
+        data.modifySelection("tog", 1, a, keys);
+        assertEquals("N,N,Y,Y,N,N,N,Y,Y,Y,Y,N,N,Y,N,N,N,N,N,Y,Y,N,Y,Y,Y", CannedData.dumpField(select));
+
+        // Filtering keeps the selection for the rows that remain
+        assertEquals("Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y,Y", CannedData.dumpField(data.filter("gender is Female").field("#selection")));
+    }
+
+    @Test
+    public void testKeysMatchAsCompared() {
+        // Numbers match by value, whatever their type; nulls match each other
+        Field x = Fields.makeColumnField("x", null, new Object[]{1, 2.0, 1.0, 2, null, 1, null});
+        Field y = Fields.makeColumnField("y", null, new Object[]{"a", "b", "a", "a", "b", "c", "b"});
+        x.setNumeric();
+        Dataset d = Dataset.make(new Field[]{x, y}, false);
+        Field select = d.field("#selection");
+
+        d.modifySelection("sel", 0, d, new String[]{"x"});
+        assertEquals("Y,N,Y,N,N,Y,N", CannedData.dumpField(select));
+        d.modifySelection("sel", 1, d, new String[]{"x"});
+        assertEquals("N,Y,N,Y,N,N,N", CannedData.dumpField(select));
+        d.modifySelection("sel", 4, d, new String[]{"x", "y"});
+        assertEquals("N,N,N,N,Y,N,Y", CannedData.dumpField(select));
+        d.modifySelection("add", 0, d, new String[]{"y", "x"});
+        assertEquals("Y,N,Y,N,Y,N,Y", CannedData.dumpField(select));
+    }
+
+    @Test
+    public void testChangedKeysAreSeen() {
+        Field x = Fields.makeColumnField("x", null, new Object[]{"a", "b", "a", "b"});
+        Field y = Fields.makeColumnField("y", null, new Object[]{"c", "c", "c", "d"});
+        Dataset d = Dataset.make(new Field[]{x, y}, false);
+        Field select = d.field("#selection");
+
+        d.modifySelection("sel", 0, d, new String[]{"x"});
+        assertEquals("Y,N,Y,N", CannedData.dumpField(select));
+        d.modifySelection("sel", 0, d, new String[]{"x", "y"});
+        assertEquals("Y,N,Y,N", CannedData.dumpField(select));
+
+        // Changing a key's values must not leave the rows grouped by the old values
+        d.field("x").setValue("a", 1);
+        d.modifySelection("sel", 0, d, new String[]{"x"});
+        assertEquals("Y,Y,Y,N", CannedData.dumpField(select));
+        d.field("y").setValue("d", 2);
+        d.modifySelection("sel", 0, d, new String[]{"x", "y"});
+        assertEquals("Y,Y,N,N", CannedData.dumpField(select));
+    }
 
 }
@@ -17,6 +17,7 @@
 package org.brunel.data;
 
 import org.brunel.data.util.DateUnit;
+import org.brunel.data.values.ColumnProvider;
 import org.brunel.translator.JSTranslation;
 import org.junit.Test;
 
@@ -305,4 +306,119 @@ public class TestField {
 
     }
 
+    @JSTranslation(ignore = true)
+    @Test
+    public void testStatisticTiersAreIndependent() {
+        CountingProvider provider = new CountingProvider(new Object[]{5, 3, 1, 4, 2});
+        Field f = new Field("a", "label", provider);
+
+        // The row count needs no data access at all
+        assertEquals(5, f.numProperty("n"), 0.01);
+        assertEquals(0, provider.accesses);
+
+        // Extents need a single pass, and both come from the same pass
+        assertEquals(1, f.min(), 0.01);
+        assertEquals(5, f.max(), 0.01);
+        assertEquals(5, provider.accesses);
+
+        // Order statistics are a separate tier, and once calculated are not calculated again
+        assertEquals(3, f.numProperty("median"), 0.01);
+        int afterOrder = provider.accesses;
+        assertEquals(2, f.numProperty("q1"), 0.01);
+        assertEquals(afterOrder, provider.accesses);
+
+        // Granularity needs the same sorted values, so they were calculated along with the order statistics
+        assertEquals(1, f.numProperty("granularity"), 0.01);
+        assertEquals(afterOrder, provider.accesses);
+    }
+
+    @JSTranslation(ignore = true)
+    @Test
+    public void testPermutedStatisticsAreShared() {
+        CountingProvider provider = new CountingProvider(new Object[]{"b", "a", "c", "a"});
+        Field f = new Field("a", "label", provider);
+        Field p = Fields.permute(f, new int[]{3, 2, 1, 0}, true);
+        Field q = Fields.permute(f, new int[]{1, 0, 3, 2}, true);
+
+        // The first permutation calculates the statistics on the source, the second re-uses them
+        assertEquals(3, p.uniqueValuesCount());
+        int afterFirst = provider.accesses;
+        assertEquals(3, q.uniqueValuesCount());
+        assertEquals("a", q.property("mode"));
+        assertEquals(afterFirst, provider.accesses);
+
+        // Re-ordering the categories re-orders the counts
+        q.setCategories(new Object[]{"c", "b", "a"});
+        int[] counts = (int[]) q.property("categoryCounts");
+        assertEquals(1, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(2, counts[2]);
+    }
+
+    @Test
+    public void testDerivedStatistics() {
+        Field a = Fields.makeColumnField("a", "label", new Object[]{"x", "y", "z", "y", null});
+        Field b = Fields.makeColumnField("b", "label", new Object[]{"w", "y", "y"});
+        a.categories();
+        b.categories();
+
+        // Subsets use the source categories
+        Field subset = Fields.permute(a, new int[]{2, 1, 1, 4}, false);
+        assertEquals("y, z", Data.join(subset.categories()));
+        assertEquals(3, subset.valid());
+        assertEquals("y", subset.property("mode"));
+
+        // Merges combine the counts
+        Field merged = Fields.concatenate("m", "label", new Field[]{a, b});
+        assertEquals("w, x, y, z", Data.join(merged.categories()));
+        assertEquals("1, 1, 4, 1", Data.join((int[]) merged.property("categoryCounts")));
+        assertEquals(7, merged.valid());
+        assertEquals(8, merged.rowCount());
+
+        Field c = Fields.makeColumnField("c", "label", new Object[]{3, 1, 2});
+        Field d = Fields.makeColumnField("d", "label", new Object[]{5, null, -4});
+        c.min();
+        d.min();
+        merged = Fields.concatenate("m", "label", new Field[]{c, d});
+        assertEquals(-4, merged.min(), 0.01);
+        assertEquals(5, merged.max(), 0.01);
+        assertEquals(5, merged.numProperty("validNumeric"), 0.01);
+    }
+
+    @Test
+    @JSTranslation(ignore = true)
+    public void testIndex() {
+        Field f = Fields.makeColumnField("a", "label", new Object[]{3, 1, null, 2.0, 1});
+        FieldIndex index = f.getIndex();
+        assertEquals(4, index.validCount());
+        assertEquals(true, index.isMissing(2));
+        assertEquals("1, 4, 3, 0", index.row(0) + ", " + index.row(1) + ", " + index.row(2) + ", " + index.row(3));
+        assertEquals(2, index.lowerBound(2));
+        assertEquals(2, index.upperBound(1.0));
+        assertEquals(4, index.upperBound(7));
+        assertEquals(index, f.getIndex());
+
+        // Changing a value makes a new index
+        f.setValue(0, 4);
+        assertEquals(4, f.getIndex().row(0));
+
+        // Values that cannot be consistently ordered are not indexed
+        Field mixed = Fields.makeColumnField("b", "label", new Object[]{"x", 1});
+        assertEquals(null, mixed.getIndex());
+    }
+
+    @JSTranslation(ignore = true)
+    private static class CountingProvider extends ColumnProvider {
+        int accesses;
+
+        CountingProvider(Object[] column) {
+            super(column);
+        }
+
+        public Object value(int index) {
+            accesses++;
+            return super.value(index);
+        }
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data;
+
+import org.brunel.data.util.MapInt;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMapInt {
+
+    @Test
+    public void testCounting() {
+        MapInt map = new MapInt();
+        assertEquals(null, map.mode());
+        for (int i = 0; i < 1000; i++) map.increment("v" + (i % 100));
+        map.increment(null);
+        map.increment("v7");
+        map.increment("v3");
+
+        assertEquals(100, map.size());
+        assertEquals(1002, map.getTotalCount());
+        assertEquals(11, map.get("v7"));
+        assertEquals(10, map.get("v8"));
+        assertEquals(0, map.get("missing"));
+        assertEquals(0, map.get(null));
+        assertEquals("v3", map.mode());            // "v3" and "v7" tie; the mode is the lower of the two
+        assertEquals("v0", map.sortedKeys()[0]);
+    }
+
+    @Test
+    public void testIndexing() {
+        Object[] keys = new Object[50];
+        for (int i = 0; i < keys.length; i++) keys[i] = 100 - i;
+        MapInt map = new MapInt().index(keys).index(new Object[]{99, 1000});
+        assertEquals(51, map.size());
+        assertEquals(0, map.get(100));
+        assertEquals(49, map.get(51));
+        assertEquals(50, map.get(1000));
+        Object[] indexed = map.getIndexedKeys();
+        assertEquals(100, indexed[0]);
+        assertEquals(1000, indexed[50]);
+    }
+
+}
@@ -16,8 +16,13 @@
 
 package org.brunel.data;
 
+import org.brunel.data.values.NumericProvider;
+import org.brunel.translator.JSTranslation;
 import org.junit.Test;
 
+import java.util.BitSet;
+import java.util.Date;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestProviders {
@@ -68,4 +73,33 @@ public class TestProviders {
         assertEquals("1, 2, 3, 4", Data.join(a.categories(), null, true));
     }
 
+    @JSTranslation(ignore = true)
+    @Test
+    public void testNumeric() {
+        BitSet missing = new BitSet();
+        missing.set(1);
+        NumericProvider provider = new NumericProvider(new double[]{3, 0, -1.5, 3, 10}, missing, false);
+        Field a = new Field("a", "b", provider);
+        a.setNumeric();
+        assertEquals(5, a.rowCount());
+        assertEquals(4, a.numProperty("valid"), 0.001);
+        assertEquals(3, a.numProperty("unique"), 0.001);
+        assertEquals(3.625, a.numProperty("mean"), 0.001);
+        assertEquals(null, a.value(1));
+        assertEquals(-1.5, a.value(2));
+        assertEquals("-1.5, 3, 10", Data.join(a.categories(), null, true));
+        assertEquals(0, a.compareRows(0, 3));
+        assertEquals(-1, a.compareRows(2, 4));
+        assertEquals(1, a.compareRows(1, 2));            // Missing values sort last
+
+        // Changing a value makes a copy of the data
+        a.setValue(7.0, 1);
+        assertEquals(7.0, a.value(1));
+        assertEquals(null, provider.value(1));
+
+        Field d = new Field("d", "d", new NumericProvider(new double[]{86400000, 0}, null, true));
+        assertEquals(new Date(0), d.value(1));
+        assertEquals(1, d.compareRows(0, 1));
+    }
+
 }
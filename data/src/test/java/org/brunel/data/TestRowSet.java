@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.brunel.data;
+
+import org.brunel.data.util.RowSet;
+import org.brunel.translator.JSTranslation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@JSTranslation(ignore = true)
+public class TestRowSet {
+
+    @Test
+    public void testBuilding() {
+        RowSet set = RowSet.of(new int[]{70000, 5, 3, 5, 65535});
+        assertEquals("[3, 5, 65535, 70000]", set.toString());
+        assertEquals(4, set.cardinality());
+        assertTrue(set.contains(65535));
+        assertFalse(set.contains(4));
+
+        set.add(4);
+        set.remove(70000);
+        set.remove(12);
+        assertEquals("[3, 4, 5, 65535]", set.toString());
+
+        assertEquals(200000, RowSet.range(0, 200000).cardinality());
+        assertEquals("[65534, 65535, 65536]", RowSet.range(65534, 65537).toString());
+        assertTrue(RowSet.range(10, 10).isEmpty());
+    }
+
+    @Test
+    public void testOperationsMatchBitSet() {
+        // Mix sparse and dense chunks so both ways of storing rows are used
+        Random random = new Random(17);
+        RowSet[] sets = new RowSet[4];
+        BitSet[] bits = new BitSet[4];
+        for (int k = 0; k < sets.length; k++) {
+            bits[k] = new BitSet();
+            int[] rows = new int[k % 2 == 0 ? 30000 : 1000];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = random.nextInt(200000);
+                bits[k].set(rows[i]);
+            }
+            sets[k] = RowSet.of(rows);
+            check(bits[k], sets[k]);
+        }
+
+        for (int a = 0; a < sets.length; a++)
+            for (int b = 0; b < sets.length; b++) {
+                BitSet expected = (BitSet) bits[a].clone();
+                expected.and(bits[b]);
+                check(expected, sets[a].and(sets[b]));
+
+                expected = (BitSet) bits[a].clone();
+                expected.or(bits[b]);
+                check(expected, sets[a].or(sets[b]));
+
+                expected = (BitSet) bits[a].clone();
+                expected.andNot(bits[b]);
+                check(expected, sets[a].andNot(sets[b]));
+
+                expected = (BitSet) bits[a].clone();
+                expected.xor(bits[b]);
+                check(expected, sets[a].xor(sets[b]));
+            }
+
+        // Results are new sets; changing them does not change the originals
+        RowSet union = sets[0].or(sets[1]);
+        int[] rows = sets[0].toArray();
+        for (int row : rows) union.remove(row);
+        check(bits[0], sets[0]);
+
+        // Adding and removing single rows moves chunks between their two forms
+        RowSet set = new RowSet();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 10000; i++) {
+            set.add(i * 3);
+            expected.set(i * 3);
+        }
+        check(expected, set);
+        for (int i = 0; i < 10000; i += 2) {
+            set.remove(i * 3);
+            expected.clear(i * 3);
+        }
+        check(expected, set);
+    }
+
+    private void check(BitSet expected, RowSet set) {
+        int[] rows = new int[expected.cardinality()];
+        for (int i = expected.nextSetBit(0), at = 0; i >= 0; i = expected.nextSetBit(i + 1)) rows[at++] = i;
+        assertEquals(Arrays.toString(rows), Arrays.toString(set.toArray()));
+        assertEquals(rows.length, set.cardinality());
+    }
+}
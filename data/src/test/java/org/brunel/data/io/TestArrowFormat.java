@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015 IBM Corporation and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * You may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brunel.data.io;
+
+import org.brunel.data.CannedData;
+import org.brunel.data.Data;
+import org.brunel.data.Dataset;
+import org.brunel.data.Field;
+import org.brunel.data.Fields;
+import org.brunel.data.auto.Auto;
+import org.brunel.translator.JSTranslation;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests reading and writing Arrow data. The .arrow files in the test resources were written by the Apache Arrow
+ * Java library (version 15), so they check the reader against data it did not write itself
+ */
+@JSTranslation(ignore = true)
+public class TestArrowFormat {
+
+    @Test
+    public void testStreamFormat() {
+        Dataset dataset = Dataset.make(CSV.read(CannedData.whiskey));
+        byte[] bytes = ArrowFormat.write(dataset);
+
+        // Messages start with a continuation marker, and the stream ends with an empty message
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        assertEquals(-1, b.getInt(0));
+        assertEquals(0, b.getInt(8) % 8 + b.getInt(4) % 8);
+        assertEquals(-1, b.getInt(bytes.length - 8));
+        assertEquals(0, b.getInt(bytes.length - 4));
+
+        Dataset d = ArrowFormat.read(bytes);
+        assertEquals(CannedData.dumpData(dataset.removeSpecialFields()), CannedData.dumpData(d.removeSpecialFields()));
+        assertTrue(d.field("Rating").isNumeric());
+        assertEquals(dataset.field("Rating").numProperty("mean"), d.field("Rating").numProperty("mean"), 1e-9);
+        assertEquals("Count", d.field("#count").label);
+    }
+
+    @Test
+    public void testFileFormat() throws Exception {
+        String DATA = "a,b,c,d\nx,1,1.5,2015-01-01\n,2,,\né,1,2.5,2016-03-04\nx,,-3.25e-7,2015-01-01\n";
+        Dataset dataset = Dataset.make(CSV.read(DATA));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ArrowFormat.writeFile(dataset, out);
+        byte[] bytes = out.toByteArray();
+        assertEquals("ARROW1", new String(bytes, 0, 6, "ascii"));
+        assertEquals("ARROW1", new String(bytes, bytes.length - 6, 6, "ascii"));
+
+        Dataset d = ArrowFormat.read(bytes);
+        assertEquals(CannedData.dumpData(dataset.removeSpecialFields()), CannedData.dumpData(d.removeSpecialFields()));
+        assertTrue(d.field("d").isDate());
+        assertEquals(dataset.field("d").max(), d.field("d").max(), 1e-9);
+        assertEquals(null, d.field("c").value(1));
+        assertEquals("é", d.field("a").value(2));
+    }
+
+    @Test
+    public void testManyBatches() {
+        int n = ArrowFormat.BATCH_ROWS * 2 + 100;
+        Object[] category = new Object[n], measure = new Object[n], when = new Object[n];
+        for (int i = 0; i < n; i++) {
+            category[i] = i % 7 == 0 ? null : "category " + (i % 13);
+            measure[i] = i % 11 == 0 ? null : Math.sqrt(i) * 1.1;
+            when[i] = new Date(1000L * i - 5000);
+        }
+        Field a = Fields.makeColumnField("category", "Category", category);
+        Field b = Data.toNumeric(Fields.makeColumnField("measure", "Measure", measure));
+        Field c = Data.toDate(Fields.makeColumnField("when", "When", when));
+        Dataset d = ArrowFormat.read(ArrowFormat.write(Dataset.make(new Field[]{a, b, c}, false)));
+
+        assertEquals(n, d.rowCount());
+        assertEquals("Category", d.field("category").label);
+        assertEquals("when", d.field("when").name);
+        for (int i = 0; i < n; i++) {
+            assertEquals(category[i], d.field("category").value(i));
+            assertEquals(measure[i], d.field("measure").value(i));
+            assertEquals(when[i], d.field("when").value(i));
+        }
+
+        // Sorting compares values held in different record batches
+        Dataset sorted = d.sortRows("measure");
+        int nulls = (n + 10) / 11;
+        assertEquals(null, sorted.field("measure").value(nulls - 1));
+        assertEquals(Math.sqrt(n - 1) * 1.1, (Double) sorted.field("measure").value(nulls), 1e-9);
+        assertEquals(1.1, (Double) sorted.field("measure").value(n - 1), 1e-9);
+    }
+
+    @Test
+    public void testNoRows() {
+        Dataset dataset = Dataset.make(CSV.read("a,b\n"));
+        Dataset d = ArrowFormat.read(ArrowFormat.write(dataset));
+        assertEquals(0, d.rowCount());
+        assertEquals(dataset.removeSpecialFields().fields.length, d.removeSpecialFields().fields.length);
+    }
+
+    @Test
+    public void testArrowTypes() throws Exception {
+        Dataset d = ArrowFormat.read(resource("types.arrow"));
+        assertEquals(4, d.rowCount());
+        assertValues(d.field("i8"), -128.0, 0.0, null, 127.0);
+        assertValues(d.field("i16"), -32768.0, 1.0, 32767.0, null);
+        assertValues(d.field("i32"), (double) Integer.MIN_VALUE, 7.0, null, (double) Integer.MAX_VALUE);
+        assertValues(d.field("i64"), -4.0, 1099511627776.0, null, 5.0);
+        assertValues(d.field("u64"), 0.0, 1.0, null, 0x1p64);
+        assertValues(d.field("flag"), "True", "False", null, "True");
+
+        // Strings are converted as CSV columns are (here the empty string makes it a column of lists)
+        Field text = Auto.convert(Fields.makeColumnField("text", null, new Object[]{"a", "", null, "\u00e9t\u00e9"}));
+        assertValues(d.field("text"), text.value(0), text.value(1), null, text.value(3));
+        assertValues(d.field("day"), new Date(0), new Date(16436 * 86400000L), null, new Date(-86400000L));
+        assertValues(d.field("nanos"), new Date(0), new Date(1420070400123L), null, new Date(-1));
+
+        assertTrue(d.field("u64").isNumeric());
+        assertFalse(d.field("flag").isNumeric());
+        assertTrue(d.field("day").isDate());
+        assertTrue(d.field("nanos").isDate());
+    }
+
+    @Test
+    public void testBooleansMatchCSV() throws Exception {
+        // Python sends a data frame as Arrow when it can, and otherwise as CSV, where pandas writes True and False
+        Field arrow = ArrowFormat.read(resource("types.arrow")).field("flag");
+        Field csv = Dataset.make(CSV.read("flag,n\nTrue,1\nFalse,2\n,3\nTrue,4\n")).field("flag");
+        assertValues(arrow, csv.value(0), csv.value(1), csv.value(2), csv.value(3));
+        assertEquals(csv.isNumeric(), arrow.isNumeric());
+        assertEquals(csv.preferCategorical(), arrow.preferCategorical());
+        assertEquals(csv.categories().length, arrow.categories().length);
+    }
+
+    @Test
+    public void testDeltaDictionary() throws Exception {
+        // Dictionary 7 (apple, pear) has int16 indices; a delta adds plum before the second batch
+        Dataset d = ArrowFormat.read(resource("delta_dictionary.arrow"));
+        assertValues(d.field("fruit"), "apple", "pear", null, "apple", "plum", "pear");
+        assertValues(d.field("n"), 1.0, 2.0, 3.0, 4.0, 5.0, 6.0);
+        assertFalse(d.field("fruit").isNumeric());
+    }
+
+    @Test
+    public void testFileFormatWithDictionary() throws Exception {
+        byte[] bytes = resource("dictionary_file.arrow");
+        assertEquals("ARROW1", new String(bytes, 0, 6, "ascii"));
+        Dataset d = ArrowFormat.read(bytes);
+        assertValues(d.field("letter"), "z", "x", "z", "y");
+        assertValues(d.field("value"), 0.5, -1.25, null, 3.0);
+    }
+
+    @Test
+    public void testLegacyStream() throws Exception {
+        // Streams written before Arrow 0.15 have no continuation marker before each message
+        byte[] bytes = resource("legacy_stream.arrow");
+        assertTrue(ByteBuffer.wrap(bytes).getInt(0) != -1);
+        Dataset d = ArrowFormat.read(bytes);
+        assertValues(d.field("id"), 10.0, 20.0, 30.0);
+        assertValues(d.field("name"), "one", "two", "three");
+    }
+
+    private static void assertValues(Field field, Object... expected) {
+        assertEquals(expected.length, field.rowCount());
+        for (int i = 0; i < expected.length; i++) assertEquals(field.name + "[" + i + "]", expected[i], field.value(i));
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        InputStream in = TestArrowFormat.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
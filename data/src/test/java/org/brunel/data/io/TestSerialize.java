@@ -24,15 +24,22 @@ import org.brunel.data.Fields;
 import org.brunel.translator.JSTranslation;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.assertTrue;
 
 /**
@@ -107,7 +114,7 @@ public class TestSerialize {
   @Test
   public void testWhiskeyDataset() {
     Dataset dataset = Dataset.make(CSV.read(CannedData.whiskey));
-    byte[] bytes = Serialize.serializeDataset(dataset);
+    byte[] bytes = Serialize.serializeDatasetVersion1(dataset);
     assertEquals(2019, bytes.length);
     assertEquals(Serialize.VERSION, bytes[0]);
 
@@ -121,7 +128,7 @@ public class TestSerialize {
   public void testNoData() {
     String DATA = "a,b\n,";
     Dataset dataset = Dataset.make(CSV.read(DATA));
-    byte[] bytes = Serialize.serializeDataset(dataset);
+    byte[] bytes = Serialize.serializeDatasetVersion1(dataset);
     assertEquals("6 1 1 2 2 97 0 65 0 1 4 3 1 0 2 98 0 66 0 1 4 3 1 0", dump(bytes));
   }
 
@@ -129,7 +136,7 @@ public class TestSerialize {
   public void testNastyData() {
     String DATA = "a,b\n,\n\u00e9,1.23456789e-213\n\u2026,NaN";
     Dataset dataset = Dataset.make(CSV.read(DATA));
-    byte[] bytes = Serialize.serializeDataset(dataset);
+    byte[] bytes = Serialize.serializeDatasetVersion1(dataset);
     assertEquals("6 1 1 2 2 97 0 65 0 3 4 3 195 169 0 226 128 166 0 3 0 1 2 2 98 0 " +
       "66 0 3 4 3 49 46 50 51 52 53 54 55 56 57 101 45 50 49 51 0 78 97 78 0 3 0 1 2", dump(bytes));
   }
@@ -137,11 +144,166 @@ public class TestSerialize {
   @Test
   public void testBankDataset() {
     Dataset dataset = Dataset.make(CSV.read(CannedData.bank));
-    byte[] bytes = Serialize.serializeDataset(dataset);
+    byte[] bytes = Serialize.serializeDatasetVersion1(dataset);
     assertEquals("6 1 1 8 2 103 101 110 100 101 114 0 71 101 110 100 101 114 0 2 4 77 97 108 101 0 70 101 109 97 108 101 0 25 0 0 1 1 0 0 0 1 1 1 1 0 0 1 0 0 0 0 0 1 1 0 1 1 1 2 98 100 97 116 101 0 66 100 97 116 101 0 25 3 253 83 74 253 80 83 253 48 42 253 120 67 253 161 78 253 171 83 253 91 80 253 169 94 253 185 65 253 206 65 253 125 71 253 54 94 253 98 86 253 35 70 253 103 89 253 146 92 253 61 89 253 54 80 253 93 89 253 41 57 253 21 90 253 30 58 253 8 93 253 108 47 253 163 60 25 0 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20 21 22 23 24 2 101 100 117 99 0 69 100 117 99 0 4 3 15 16 12 8 25 0 1 2 3 0 0 0 2 0 2 1 3 0 0 2 2 0 1 2 2 1 2 0 2 0 2 106 111 98 99 97 116 0 74 111 98 99 97 116 0 2 4 77 97 110 97 103 101 114 0 67 108 101 114 105 99 97 108 0 25 0 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 1 0 1 1 1 1 1 1 1 2 115 97 108 97 114 121 0 83 97 108 97 114 121 0 23 3 253 168 222 253 8 157 253 202 83 253 140 85 253 200 175 253 100 125 253 160 140 253 252 108 253 192 93 253 92 118 253 190 110 253 102 108 253 28 137 253 164 106 253 96 159 253 176 179 254 49 48 51 55 53 48 0 253 60 165 253 138 102 253 194 151 253 246 84 253 54 66 253 158 82 25 0 1 2 3 4 5 6 3 7 8 9 10 11 12 13 14 15 16 17 18 19 20 8 21 22 2 115 97 108 98 101 103 105 110 0 83 97 108 98 101 103 105 110 0 16 3 253 120 105 253 62 73 253 224 46 253 144 51 253 8 82 253 188 52 253 22 38 253 206 49 253 116 64 253 170 55 253 160 65 253 152 58 253 118 107 253 30 45 253 92 43 253 40 35 25 0 1 2 3 4 5 1 6 7 5 8 2 9 10 5 11 9 12 9 13 11 7 14 15 15 2 106 111 98 116 105 109 101 0 74 111 98 116 105 109 101 0 2 3 98 97 25 0 0 0 0 0 0 0 0 0 0 0 0 0 0 1 1 1 1 1 1 1 1 1 1 1 2 109 105 110 111 114 105 116 121 0 77 105 110 111 114 105 116 121 0 2 4 78 111 0 89 101 115 0 25 0 0 0 0 0 0 0 0 0 0 0 1 1 1 0 0 0 0 0 0 0 1 1 1 1", dump(bytes));
     assertEquals(Serialize.VERSION, bytes[0]);
   }
 
+  @JSTranslation(ignore = true)
+  @Test
+  public void testColumnarFormat() {
+    // Strings, numbers with few and many values, dates, and nulls in each
+    String DATA = "a,b,c,d\nx,1,1.5,2015-01-01\n,2,,\n\u00e9,1,2.5,2016-03-04\nx,,-3.25e-7,2015-01-01\n";
+    Dataset dataset = Dataset.make(CSV.read(DATA));
+    byte[] bytes = Serialize.serializeDataset(dataset);
+    assertEquals(Serialize.VERSION, bytes[0]);
+    assertEquals(Serialize.DATASET_VERSION_NUMBER, bytes[1]);
+
+    Dataset d = (Dataset) Serialize.deserialize(bytes);
+    assertEquals(CannedData.dumpData(dataset.removeSpecialFields()), CannedData.dumpData(d.removeSpecialFields()));
+    assertTrue(d.field("b").isNumeric());
+    assertTrue(d.field("d").isDate());
+    assertEquals(dataset.field("d").max(), d.field("d").max(), 1e-9);
+    assertEquals("Count", d.field("#count").label);
+
+    // Version 1 data can still be read
+    d = (Dataset) Serialize.deserialize(Serialize.serializeDatasetVersion1(dataset));
+    assertEquals(CannedData.dumpData(dataset.removeSpecialFields()), CannedData.dumpData(d.removeSpecialFields()));
+  }
+
+  @JSTranslation(ignore = true)
+  @Test
+  public void testColumnarFormatLargeData() {
+    int n = 20000;
+    Object[] category = new Object[n], measure = new Object[n], code = new Object[n];
+    for (int i = 0; i < n; i++) {
+      category[i] = i % 7 == 0 ? null : "category " + (i % 13);
+      measure[i] = Math.sqrt(i) * 1.1;
+      code[i] = (double) (i % 300);
+    }
+    Field a = Fields.makeColumnField("category", "Category", category);
+    Field b = Data.toNumeric(Fields.makeColumnField("measure", "Measure", measure));
+    Field c = Data.toNumeric(Fields.makeColumnField("code", "Code", code));
+    Dataset dataset = Dataset.make(new Field[]{a, b, c}, false);
+
+    byte[] bytes = Serialize.serializeDataset(dataset);
+    byte[] old = Serialize.serializeDatasetVersion1(dataset);
+    assertTrue(bytes.length < old.length);
+
+    Dataset d = (Dataset) Serialize.deserialize(bytes);
+    assertEquals(n, d.rowCount());
+    for (int i = 0; i < n; i++) {
+      assertEquals(category[i], d.field("category").value(i));
+      assertEquals(measure[i], d.field("measure").value(i));
+      assertEquals(code[i], d.field("code").value(i));
+    }
+  }
+
+  @JSTranslation(ignore = true)
+  @Test
+  public void testReadFromBuffers() throws Exception {
+    Dataset dataset = Dataset.make(CSV.read(CannedData.bank));
+    String expected = CannedData.dumpData(dataset.removeSpecialFields());
+    byte[] bytes = Serialize.serializeDataset(dataset);
+
+    // Data in the middle of a larger buffer
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 20);
+    buffer.position(13);
+    buffer.put(bytes);
+    buffer.position(13);
+    Dataset d = (Dataset) Serialize.deserialize(buffer);
+    assertEquals(expected, CannedData.dumpData(d.removeSpecialFields()));
+
+    // A memory-mapped file, in both formats
+    for (byte[] b : new byte[][]{bytes, Serialize.serializeDatasetVersion1(dataset)}) {
+      Path f = Files.createTempFile("data", "ser");
+      f.toFile().deleteOnExit();              // Some systems cannot delete a file while it is mapped
+      Files.write(f, b);
+      d = (Dataset) Serialize.deserialize(f.toFile());
+      assertEquals(expected, CannedData.dumpData(d.removeSpecialFields()));
+      assertEquals(dataset.field("salary").numProperty("mean"), d.field("salary").numProperty("mean"), 1e-6);
+    }
+  }
+
+  @JSTranslation(ignore = true)
+  @Test
+  public void testStreams() throws Exception {
+    Dataset dataset = Dataset.make(CSV.read(CannedData.whiskey));
+    String expected = CannedData.dumpData(dataset.removeSpecialFields());
+
+    // Reading stops at the end of the data set, leaving anything after it in the stream
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serialize.serialize(dataset, out);
+    out.write(99);
+    assertEquals(Serialize.serializeDataset(dataset).length + 1, out.size());
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    Dataset d = (Dataset) Serialize.deserialize(in);
+    assertEquals(expected, CannedData.dumpData(d.removeSpecialFields()));
+    assertEquals(99, in.read());
+
+    // Version 1 data and single fields are read to the end of the stream
+    in = new ByteArrayInputStream(Serialize.serializeDatasetVersion1(dataset));
+    d = (Dataset) Serialize.deserialize(in);
+    assertEquals(expected, CannedData.dumpData(d.removeSpecialFields()));
+    Field f = (Field) Serialize.deserialize(new ByteArrayInputStream(Serialize.serializeField(dataset.field("Rating"))));
+    assertEquals(dataset.field("Rating").numProperty("mean"), f.numProperty("mean"), 1e-6);
+  }
+
+  @JSTranslation(ignore = true)
+  @Test
+  public void testTrailer() throws Exception {
+    Dataset dataset = Dataset.make(CSV.read(CannedData.bank));
+    String expected = CannedData.dumpData(dataset.removeSpecialFields());
+    byte[] bytes = Serialize.serializeDataset(dataset);
+    int n = dataset.removeSpecialFields().fields.length;
+
+    // Streamed data has the same trailer
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serialize.serialize(dataset, out);
+    assertEquals(Arrays.toString(bytes), Arrays.toString(out.toByteArray()));
+
+    int[] offsets = ColumnarFormat.blockOffsets(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), n);
+    assertEquals(n, offsets.length);
+    assertEquals(ColumnarFormat.HEADER_SIZE, offsets[0]);
+    for (int i = 1; i < n; i++) assertTrue(offsets[i] > offsets[i - 1]);
+
+    // Put a gap before every block and move the offsets to match; only a reader using the trailer finds them
+    int tableStart = bytes.length - 8 * n - 8;
+    ByteBuffer moved = ByteBuffer.allocate(bytes.length + 3 * n).order(ByteOrder.LITTLE_ENDIAN);
+    moved.put(bytes, 0, ColumnarFormat.HEADER_SIZE);
+    for (int i = 0; i < n; i++) {
+      int end = i == n - 1 ? tableStart : offsets[i + 1];
+      moved.put(new byte[3]).put(bytes, offsets[i], end - offsets[i]);
+    }
+    for (int i = 0; i < n; i++) moved.putLong(offsets[i] + 3 * (i + 1));
+    moved.put(bytes, bytes.length - 8, 8);
+    Dataset d = (Dataset) Serialize.deserialize(moved.array());
+    assertEquals(expected, CannedData.dumpData(d.removeSpecialFields()));
+
+    // Without a trailer at the end of the buffer, the blocks are found by stepping over them
+    assertNull(ColumnarFormat.blockOffsets(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 1))
+        .order(ByteOrder.LITTLE_ENDIAN), n));
+  }
+
+  @JSTranslation(ignore = true)
+  @Test
+  public void testBlockCompression() {
+    byte[] text = "one two three, one two three, one two three; and again one two three".getBytes();
+    byte[] packed = BlockCompression.compress(text);
+    assertTrue(packed.length < text.length);
+    assertEquals(new String(text), new String(BlockCompression.decompress(packed, 0, packed.length, text.length)));
+
+    // Long runs, and data with nothing to compress
+    byte[] run = new byte[5000];
+    byte[] noise = new byte[5000];
+    new Random(3).nextBytes(noise);
+    for (byte[] b : new byte[][]{run, noise, new byte[0], new byte[7]}) {
+      packed = BlockCompression.compress(b);
+      assertEquals(Arrays.toString(b), Arrays.toString(BlockCompression.decompress(packed, 0, packed.length, b.length)));
+    }
+    assertTrue(BlockCompression.compress(run).length < 50);
+  }
+
   @Test
   public void testEncodingsByte() {
     byte[] bytes;
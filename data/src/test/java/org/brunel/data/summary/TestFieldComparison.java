@@ -19,8 +19,11 @@ package org.brunel.data.summary;
 import org.brunel.data.Data;
 import org.brunel.data.Field;
 import org.brunel.data.Fields;
+import org.brunel.translator.JSTranslation;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.junit.Assert.assertEquals;
 
 public class TestFieldComparison {
@@ -32,4 +35,59 @@ public class TestFieldComparison {
         int[] order = compare.makeSortedOrder();
         assertEquals("0, 5, 2, 1, 3, 4", Data.join(order));
     }
+
+    @Test
+    public void testSortMatchesComparison() {
+        int n = 200;
+        Object[] a = new Object[n], b = new Object[n], c = new Object[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i % 13 == 0 ? null : "c" + (i * 7) % 5;
+            b[i] = i % 11 == 0 ? null : ((i * 31) % 17) / 4.0;
+            c[i] = i % 3;
+        }
+        Field[] fields = new Field[]{Fields.makeColumnField("A", null, a),
+                Fields.makeColumnField("B", null, b), Fields.makeColumnField("C", null, c)};
+        fields[1].setNumeric();
+
+        // Categories only, numeric only, and mixed, with and without tie-breaking
+        checkSortMatches(new Field[]{fields[0]}, new boolean[]{false}, true);
+        checkSortMatches(new Field[]{fields[1]}, new boolean[]{false}, false);
+        checkSortMatches(fields, new boolean[]{true, false}, true);
+        checkSortMatches(new Field[]{fields[1], fields[0]}, null, false);
+
+        // Sorting a subset of rows
+        FieldRowComparison compare = new FieldRowComparison(fields, null, true);
+        assertEquals("3, 1, 2", Data.join(compare.sortRows(new int[]{3, 2, 1})));
+    }
+
+    @Test
+    @JSTranslation(ignore = true)
+    public void testParallelSortMatches() {
+        int n = 100000;
+        Object[] a = new Object[n], b = new Object[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i % 101 == 0 ? null : "c" + (i * 7919) % 37;
+            b[i] = i % 97 == 0 ? null : (double) ((i * 7919L) % 1013);
+        }
+        Field[] fields = new Field[]{Fields.makeColumnField("A", null, a), Fields.makeColumnField("B", null, b)};
+        fields[1].setNumeric();
+
+        FieldRowComparison.setParallelSortRows(1);
+        try {
+            checkSortMatches(new Field[]{fields[0]}, new boolean[]{false}, true);
+            checkSortMatches(fields, new boolean[]{true, false}, true);
+            checkSortMatches(new Field[]{fields[1]}, null, false);
+        } finally {
+            FieldRowComparison.setParallelSortRows(Integer.getInteger("brunel.sort.parallel.rows", 500000));
+        }
+    }
+
+    private void checkSortMatches(Field[] fields, boolean[] ascending, boolean rowsBreakTies) {
+        FieldRowComparison compare = new FieldRowComparison(fields, ascending, rowsBreakTies);
+        int n = fields[0].rowCount();
+        Integer[] expected = new Integer[n];
+        for (int i = 0; i < n; i++) expected[i] = i;
+        Arrays.sort(expected, compare);
+        assertEquals(Data.join(expected), Data.join(compare.makeSortedOrder()));
+    }
 }
@@ -66,7 +66,7 @@ class BrunelMagics(Magics):
         for data_name in datasets_in_brunel:
             try:
                 data = dataframes[data_name]
-                brunel.cacheData(data_name, brunel.to_csv(data))
+                brunel.cacheData(data_name, brunel.to_java_data(data))
             except:
                 pass
 
@@ -17,17 +17,27 @@
 package org.brunel.scala
 
 import org.apache.spark._
+import org.apache.spark.sql.Column
 import org.apache.spark.sql.DataFrame
 import org.apache.spark.sql.SQLContext
 import org.apache.spark.sql.Row
+import org.apache.spark.sql.functions.{avg, count, lit, max, min, sum}
 
+import org.brunel.build.data.AggregationPlan
 import org.brunel.data.Dataset
 import org.brunel.data.Field
+import org.brunel.data.values.ColumnProvider
+import org.brunel.data.values.NumericProvider
+import org.brunel.data.values.Provider
+import org.brunel.data.values.ReorderedProvider
 import org.brunel.util.D3Integration
 import org.brunel.util.BrunelD3Result
 import org.brunel.data.io.CSV
 import org.brunel.build.util.BuilderOptions
 
+import java.util.BitSet
+import scala.collection.mutable.ArrayBuffer
+
 /**
  * Creation of Brunel output for Spark DataFrames
  */
@@ -38,6 +48,15 @@ object Brunel {
   val dateTypes = List("DateType", "TimestampType")
   var options = BuilderOptions.makeFromENV();
 
+  //Extract the columns of a DataFrame in parallel; set to false to extract them one at a time
+  var parallelExtraction = true
+
+  //Rows used to work out how a visualization can be aggregated; only the column names and types matter
+  val planSampleSize = 100
+
+  //Most rows createAggregated collects when the visualization needs every row; set to 0 for no limit
+  var maxCollectedRows = 1000000
+
 
   /**
    * Create Brunel notebook output from a Spark DataFrame using the provided Brunel source.  This output is currently
@@ -50,6 +69,18 @@ object Brunel {
     new BrunelOutput(builder.getVisualization.toString, builder.getStyleOverrides, builder.getControls)
   }
   
+  /**
+   * Create Brunel notebook output from a Spark DataFrame, aggregating the data in Spark when the visualization only
+   * needs summarized data, so only one row per group is collected to the driver.  Otherwise the rows are collected
+   * as for create, after removing any the visualization would not use, and an IllegalArgumentException is thrown if
+   * there are more than maxCollectedRows of them.
+   */
+  def createAggregated(df:DataFrame, brunelSrc: String, width: Int, height: Int, visId: String, controlsId: String): BrunelOutput = {
+    val dataset = makeAggregatedDataset(df, brunelSrc)
+    val builder = D3Integration.makeD3(dataset, brunelSrc, width, height, visId, controlsId)
+    new BrunelOutput(builder.getVisualization.toString, builder.getStyleOverrides, builder.getControls)
+  }
+
   /**
    * Get the names of all datasets specified in the brunel.
    */
@@ -67,32 +98,112 @@ object Brunel {
   //Create a Brunel Dataset from a Spark DataFrame
   def makeDataset(df: DataFrame): Dataset = {
     if (df == null) return null;
-    val cols = df.columns
-    val rows = df.collect()
-    val dtypes = df.dtypes
-    val fields = new Array[Field](cols.length)
-
-    for (i <- 0 to cols.length - 1) {
-      val name = CSV.identifier(cols(i).trim)   //Brunel-friendly field name from spark column name
-      val label = CSV.identifier(cols(i).trim)  //Brunel-friendly label
-      val dataType = dtypes(i)._2.split("\\(")(0)
-      val provider = makeProvider(dataType, i, rows)
-      fields(i) = new Field(name, label, provider)
-      addTypeInfo(fields(i), dataType)
+    val names = df.columns.map(c => CSV.identifier(c.trim))   //Brunel-friendly field names from spark column names
+    val types = df.dtypes.map(_._2.split("\\(")(0))
+    val fields = makeFields(names, types, names.indices.toArray, df.collect())
+    return Dataset.make(fields, false)
+  }
+
+  //Create Brunel fields from columns of the collected rows.  Each column is extracted once into a Brunel provider,
+  //so the rows are not needed afterwards
+  def makeFields(names: Array[String], types: Array[String], indices: Array[Int], rows: Array[Row]): Array[Field] = {
+    val providers =
+      if (parallelExtraction) names.indices.par.map(i => makeProvider(types(i), indices(i), rows)).toArray
+      else names.indices.map(i => makeProvider(types(i), indices(i), rows)).toArray
+    names.indices.map { i =>
+      val field = new Field(names(i), names(i), providers(i))
+      addTypeInfo(field, types(i))
+      field
+    }.toArray
+  }
+
+  //Create a Brunel Dataset from a Spark DataFrame, aggregating it in Spark if the Brunel only needs summarized data
+  def makeAggregatedDataset(df: DataFrame, brunelSrc: String): Dataset = {
+    if (df == null) return null;
+    val sample = makeDataset(df.limit(planSampleSize))
+    val plan = AggregationPlan.make(brunelSrc, sample)
+
+    //The Spark column for each Brunel field name
+    val columns = df.columns.reverse.map(c => CSV.identifier(c.trim) -> df.col("`" + c.replace("`", "``") + "`")).toMap
+
+    if (plan == null) {
+      //Every row is needed, apart from those Brunel would filter out first
+      var data = df
+      for (f <- AggregationPlan.requiredFields(brunelSrc, sample)) data = data.filter(columns(f).isNotNull)
+      if (maxCollectedRows <= 0) return makeDataset(data)
+      val dataset = makeDataset(data.limit(maxCollectedRows + 1))
+      if (dataset.rowCount() > maxCollectedRows) throw new IllegalArgumentException("The visualization needs " +
+        "every row of the data, and there are more than " + maxCollectedRows + ": " + brunelSrc)
+      return dataset
     }
 
-    return Dataset.make(fields, false)
+    //Remove rows the visualization would not use, then aggregate each group
+    var data = df
+    for (f <- plan.requiredFields) data = data.filter(columns(f).isNotNull)
+    val measures = plan.measures.zip(plan.methods).zipWithIndex.map {
+      case ((f, method), i) => aggregate(method, columns(f)).as("brunel_measure_" + i)
+    }
+    val counted = count(lit(1)).as("brunel_count")
+    val reduced = data.groupBy(plan.dimensions.map(columns): _*).agg(counted, measures: _*)
+
+    //Spark gives a single empty group when aggregating no rows without dimensions
+    val rows = reduced.filter(reduced("brunel_count") > 0).collect()
+
+    //The dimensions come first, then the count, then the measures
+    val countIndex = plan.dimensions.length
+    val names = plan.dimensions ++ plan.measures
+    val indices = (plan.dimensions.indices ++ plan.measures.indices.map(_ + countIndex + 1)).toArray
+    val types = indices.map(i => reduced.dtypes(i)._2.split("\\(")(0))
+    val counts = rows.map(r => java.lang.Double.valueOf(r.getLong(countIndex)): AnyRef)
+    return plan.makeDataset(makeFields(names, types, indices, rows), counts)
+  }
 
+  //Spark aggregation for a Brunel aggregation method
+  def aggregate(method: String, column: Column): Column = method match {
+    case "sum" => sum(column)
+    case "mean" => avg(column)
+    case "min" => min(column)
+    case "max" => max(column)
   }
 
-  //Creates a SparkDataProvider that will return the appropriate data value type needed by Brunel
-  def makeProvider(colType: String, index: Int, rows: Array[Row]): SparkDataProvider[Any] = {
+  //Extracts a column into the Brunel provider for the data value type needed by Brunel.  Numbers and dates are held
+  //as primitive doubles; other values as strings, each distinct string stored once with a code for each row
+  def makeProvider(colType: String, index: Int, rows: Array[Row]): Provider = {
+
+    if (numericTypes.contains(colType) || dateTypes.contains(colType)) {
+      val dates = dateTypes.contains(colType)
+      val values = new Array[Double](rows.length)
+      val missing = new BitSet(rows.length)
+      for (i <- rows.indices) {
+        val row = rows(i)
+        if (row.isNullAt(index)) missing.set(i)
+        else if (dates) values(i) = row.getAs[java.util.Date](index).getTime
+        else values(i) = row.getAs[Number](index).doubleValue
+      }
+      return new NumericProvider(values, missing, dates)
+    }
 
-    if (numericTypes.contains(colType)) {
-      return new SparkDataProvider[Double](index, rows)
-    } else if (dateTypes.contains(colType)) {
-      return new SparkDataProvider[java.sql.Date](index, rows)
-    } else return new SparkDataProvider[String](index, rows);
+    val codes = new Array[Int](rows.length)
+    val lookup = new java.util.HashMap[String, Integer]
+    val distinct = new ArrayBuffer[AnyRef]
+    for (i <- rows.indices) {
+      val row = rows(i)
+      if (row.isNullAt(index)) codes(i) = -1
+      else {
+        val s = row.get(index).toString
+        val code = lookup.get(s)
+        if (code == null) {
+          lookup.put(s, distinct.length)
+          codes(i) = distinct.length
+          distinct += s
+        } else codes(i) = code
+      }
+    }
+
+    //Missing values use a null after the distinct values
+    for (i <- codes.indices) if (codes(i) < 0) codes(i) = distinct.length
+    distinct += null
+    new ReorderedProvider(new ColumnProvider(distinct.toArray), codes)
   }
 
   //Adds field type information to a Field based on the types defined in the Spark DataFrame
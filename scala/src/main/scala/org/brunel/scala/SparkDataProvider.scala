@@ -26,6 +26,7 @@ import org.brunel.data.Data
 import java.util.HashMap
 
 //Brunel Provider implementation for Spark DataFrames typed to the expected data value types needed by Brunel.
+//Brunel.makeDataset now extracts columns into primitive providers; this is kept for code that wraps rows directly.
 class SparkDataProvider[+T] (colIndex:Int, rows:Array[Row]) extends Provider {
 
   //Column structure created on-demand when needed to estimate memory
@@ -46,7 +47,10 @@ class SparkDataProvider[+T] (colIndex:Int, rows:Array[Row]) extends Provider {
   }
 
   def count(): Int = rows.length
-  def expectedSize(): Int = {
+  def expectedSize(): Int = size
+
+  //Estimated once, as Brunel asks for it repeatedly while caching
+  lazy val size: Int = {
 
     val unique = column.distinct
     var total = 24 + 4 * column.length
@@ -57,8 +61,7 @@ class SparkDataProvider[+T] (colIndex:Int, rows:Array[Row]) extends Provider {
       total += (16*unique.length)
     }
 
-    return total
-
+    total
   }
 
   def setValue(o: Any,index: Int): Provider = ColumnProvider.copy(this).setValue(o, index);
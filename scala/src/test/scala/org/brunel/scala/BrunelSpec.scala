@@ -19,69 +19,91 @@ package org.brunel.scala
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
-import org.apache.spark._
-import org.apache.spark.sql.DataFrame
-import org.apache.spark.sql.SQLContext
+import org.apache.spark.sql.SparkSession
 import org.apache.spark.sql.types.DecimalType
 
 @RunWith(classOf[JUnitRunner])
 class BrunelSpec extends UnitSpec {
 
-//  //Spark configuration
-//  val conf = new SparkConf().setAppName("BrunelSpec").setMaster("local")
-//  val spark = new SparkContext(conf)
-//  val sqlContext = new SQLContext(spark)
-//  import sqlContext.implicits._
-//  import org.apache.spark.sql.functions.to_date
-//
-//  val df_orig = spark.makeRDD(Array(
-//    (123, "234.2", "2007-12-12", "Ford"),
-//    (123, "247.5", "2007-12-12", "Chevy"),
-//    (189, "254", "2007-12-13", "Audi"),
-//    (187, "missing", "2007-12-12", "Porsche"))).toDF("mpg", "horsepower", "date", "name")
-//
-//  //Column type conversion
-//  val df = df_orig.withColumn("date", to_date(df_orig("date"))).withColumn("horsepower", df_orig("horsepower").cast(DecimalType(31,2)))
-//  val rows = df.collect()
-//
-//  "The SparkDataProvider columns" should "have proper length and expected memory size" in {
-//    val dp0: SparkDataProvider[Int] = new SparkDataProvider[Int](0, rows)
-//    val dp1: SparkDataProvider[Double] = new SparkDataProvider[Double](1, rows)
-//    val dp3: SparkDataProvider[String] = new SparkDataProvider[String](3, rows)
-//
-//    assert(dp0.count() == 4)
-//    assert(dp1.count() == 4)
-//    assert(dp0.expectedSize() == 88)
-//    assert(dp0.value(3) == 187)
-//    assert(dp1.value(3) == null)
-//    assert(dp3.expectedSize() == 248)
-//    assert(dp3.value(3) == "Porsche")
-//  }
-//
-//
-//  "The Dataset" should "contain numeric, date and String fields" in {
-//    val dataset = Brunel.makeDataset(df)
-//    assert(dataset.fields.length == 7)     //4 defined fields + 3 synthetic
-//    assert(dataset.field("mpg").isNumeric())
-//    assert(dataset.field("horsepower").isNumeric())
-//    assert(!dataset.field("name").isNumeric())
-//    assert(dataset.field("date").isDate())
-//
-//    assert(dataset.field("horsepower").value(3) == null)
-//    assert(dataset.field("mpg").value(3) == 187)
-//    assert(dataset.field("name").value(3) == "Porsche")
-//
-//  }
-//
-//  "A BrunelOutput" should "contain javascript and css" in {
-//
-//    Brunel.cacheData("a", df)
-//    val brunelOutput = Brunel.create(null, "data('a') x(mpg) y(horsepower) style('fill:red') filter(mpg)", 600, 600, "visid", "controls")
-//    assert(brunelOutput.js != null)
-//    assert(brunelOutput.css.length() > 0)
-//    assert(brunelOutput.js.contains("[123, 234.2], [123, 247.5], [189, 254], [187, null]"))
-//    assert(brunelOutput.css.contains("fill: red;"))
-//
-//  }
+  //Spark configuration; a local session is enough for these tests
+  val spark = SparkSession.builder().appName("BrunelSpec").master("local").getOrCreate()
+  import spark.implicits._
+  import org.apache.spark.sql.functions.to_date
+
+  val df_orig = spark.sparkContext.makeRDD(Array(
+    (123, "234.2", "2007-12-12", "Ford"),
+    (123, "247.5", "2007-12-12", "Chevy"),
+    (189, "254", "2007-12-13", "Audi"),
+    (187, "missing", "2007-12-12", "Porsche"))).toDF("mpg", "horsepower", "date", "name")
+
+  //Column type conversion
+  val df = df_orig.withColumn("date", to_date(df_orig("date"))).withColumn("horsepower", df_orig("horsepower").cast(DecimalType(31,2)))
+  val rows = df.collect()
+
+  "The SparkDataProvider columns" should "have proper length and expected memory size" in {
+    val dp0: SparkDataProvider[Int] = new SparkDataProvider[Int](0, rows)
+    val dp1: SparkDataProvider[Double] = new SparkDataProvider[Double](1, rows)
+    val dp3: SparkDataProvider[String] = new SparkDataProvider[String](3, rows)
+
+    assert(dp0.count() == 4)
+    assert(dp1.count() == 4)
+    assert(dp0.expectedSize() == 88)
+    assert(dp0.value(3) == 187)
+    assert(dp1.value(3) == null)
+    assert(dp3.expectedSize() == 248)
+    assert(dp3.value(3) == "Porsche")
+  }
+
+
+  "The Dataset" should "contain numeric, date and String fields" in {
+    val dataset = Brunel.makeDataset(df)
+    assert(dataset.fields.length == 7)     //4 defined fields + 3 synthetic
+    assert(dataset.field("mpg").isNumeric())
+    assert(dataset.field("horsepower").isNumeric())
+    assert(!dataset.field("name").isNumeric())
+    assert(dataset.field("date").isDate())
+
+    assert(dataset.field("horsepower").value(3) == null)
+    assert(dataset.field("mpg").value(3) == 187)
+    assert(dataset.field("name").value(3) == "Porsche")
+
+  }
+
+  "A BrunelOutput" should "contain javascript and css" in {
+
+    Brunel.cacheData("a", df)
+    val brunelOutput = Brunel.create(null, "data('a') x(mpg) y(horsepower) style('fill:red') filter(mpg)", 600, 600, "visid", "controls")
+    assert(brunelOutput.js != null)
+    assert(brunelOutput.css.length() > 0)
+    assert(brunelOutput.js.contains("[123.0, 234.2], [123.0, 247.5], [189.0, 254.0], [187.0, null]"))
+    assert(brunelOutput.css.contains("fill: red;"))
+
+  }
+
+  "An aggregated Dataset" should "have one row per group, with the counts and measures from Spark" in {
+    val dataset = Brunel.makeAggregatedDataset(df, "x(name) y(mpg) mean(mpg) color(date)")
+    assert(dataset.rowCount() == 4)
+    val byDate = Brunel.makeAggregatedDataset(df, "x(date) y(mpg) mean(mpg)")
+    assert(byDate.rowCount() == 2)
+    assert(byDate.field("#count").max() == 3)
+    assert(byDate.field("mpg").max() > 144 && byDate.field("mpg").max() < 190)
+
+    //Scatterplots need every row, apart from those with missing positions
+    assert(Brunel.makeAggregatedDataset(df, "x(mpg) y(horsepower)").rowCount() == 3)
+    assert(Brunel.makeAggregatedDataset(df, "x(mpg) y(horsepower) + x(mpg) y(name)").rowCount() == 4)
+
+    //Too many rows to collect
+    val limit = Brunel.maxCollectedRows
+    Brunel.maxCollectedRows = 2
+    try {
+      an [IllegalArgumentException] should be thrownBy Brunel.makeAggregatedDataset(df, "x(mpg) y(horsepower)")
+      assert(Brunel.makeAggregatedDataset(df, "x(date) y(mpg) mean(mpg)").rowCount() == 2)
+    } finally {
+      Brunel.maxCollectedRows = limit
+    }
+
+    val brunelOutput = Brunel.createAggregated(df, "x(date) y(mpg) mean(mpg)", 600, 600, "visid", "controls")
+    assert(brunelOutput.js == Brunel.create(df, "x(date) y(mpg) mean(mpg)", 600, 600, "visid", "controls").js)
+  }
 
 }